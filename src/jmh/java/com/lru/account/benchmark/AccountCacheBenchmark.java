@@ -0,0 +1,59 @@
+package com.lru.account.benchmark;
+
+import com.lru.account.Account;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-operation throughput and latency percentiles of the
+ * {@link com.lru.account.AccountCache} API. Run with {@code -prof gc} to
+ * compare the allocation rates of the list and array based top-N queries.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=4g")
+public class AccountCacheBenchmark {
+
+    @Benchmark
+    public Account getAccountById(CacheState state, ThreadKeys keys) {
+        return state.cache.getAccountById(keys.next());
+    }
+
+    @Benchmark
+    public void putAccount(CacheState state, ThreadKeys keys) {
+        state.cache.putAccount(state.account(keys.next()));
+    }
+
+    @Benchmark
+    public Account adjustBalance(CacheState state, ThreadKeys keys) {
+        return state.cache.adjustBalance(keys.next(), BigDecimal.ONE);
+    }
+
+    @Benchmark
+    public List<Account> getTop3AccountsByBalance(CacheState state) {
+        return state.cache.getTop3AccountsByBalance();
+    }
+
+    @Benchmark
+    public int getTopAccountsByBalance(CacheState state, TopBuffer buffer) {
+        return state.cache.getTopAccountsByBalance(buffer.top);
+    }
+
+    @State(Scope.Thread)
+    public static class TopBuffer {
+        final Account[] top = new Account[3];
+    }
+}
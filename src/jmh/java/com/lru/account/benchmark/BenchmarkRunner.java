@@ -0,0 +1,30 @@
+package com.lru.account.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count, with the GC profiler
+ * reporting the allocation rate. Accepts the usual JMH command line, e.g.
+ * {@code -Djmh.args="AccountCacheBenchmark.getAccountById -p capacity=10000 -t 8"};
+ * an explicit {@code -t} replaces the default thread counts.
+ */
+public class BenchmarkRunner {
+    private static final int[] THREAD_COUNTS = {1, 4, 16};
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        int[] threadCounts = commandLine.getThreads().hasValue()
+            ? new int[]{commandLine.getThreads().get()}
+            : THREAD_COUNTS;
+        for (int threads : threadCounts) {
+            new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+        }
+    }
+}
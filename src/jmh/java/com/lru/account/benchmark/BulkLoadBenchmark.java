@@ -0,0 +1,88 @@
+package com.lru.account.benchmark;
+
+import com.lru.account.Account;
+import com.lru.account.lru.CacheSettings;
+import com.lru.account.lru.SegmentedAccountLRUCache;
+import com.lru.account.snapshot.BulkLoader;
+import com.lru.account.snapshot.CsvAccountFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of a cache from a CSV file: the bulk path against reading the
+ * file and putting the accounts in batches, with a subscriber attached as
+ * in production. Scales with {@code -jvmArgs -XX:ActiveProcessorCount=N}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+public class BulkLoadBenchmark {
+    @Param({"1000000", "5000000"})
+    public int accounts;
+
+    private Path file;
+    private SegmentedAccountLRUCache cache;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException {
+        List<Account> content = new ArrayList<>(accounts);
+        for (long id = 0; id < accounts; id++) {
+            content.add(Account.builder().id(id).balance(BigDecimal.valueOf(id * 37 % 100_003, 2)).build());
+        }
+        file = Files.createTempFile("accounts", ".csv");
+        CsvAccountFile.write(content, file);
+    }
+
+    @Setup(Level.Iteration)
+    public void createCache() {
+        cache = new SegmentedAccountLRUCache(CacheSettings.builder().size(accounts).rankIndex(true).build(),
+            Runtime.getRuntime().availableProcessors() * 2);
+        cache.getDispatcher().subscribe(account -> { });
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeCache() {
+        cache.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int bulkLoad() throws IOException {
+        return BulkLoader.load(file, cache);
+    }
+
+    @Benchmark
+    public int putAll() throws IOException {
+        List<Account> read = CsvAccountFile.read(file);
+        for (int from = 0; from < read.size(); from += 10_000) {
+            cache.putAll(read.subList(from, Math.min(from + 10_000, read.size())));
+        }
+        return read.size();
+    }
+}
@@ -0,0 +1,91 @@
+package com.lru.account.benchmark;
+
+import com.lru.account.Account;
+import com.lru.account.AccountCache;
+import com.lru.account.AccountCacheImpl;
+import com.lru.account.lru.AccountLRUCacheThreadSafe;
+import com.lru.account.lru.AdmissionPolicy;
+import com.lru.account.lru.Cache;
+import com.lru.account.lru.CacheSettings;
+import com.lru.account.lru.ClockPolicy;
+import com.lru.account.lru.SegmentedAccountLRUCache;
+import com.lru.account.lru.SievePolicy;
+import com.lru.account.lru.StorageMode;
+import com.lru.account.near.NearAccountCache;
+import com.lru.account.near.NearCacheSettings;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cache filled to capacity, shared by all benchmark threads.
+ */
+@State(Scope.Benchmark)
+public class CacheState {
+    private static final int BALANCES = 1024;
+
+    @Param({"lru", "segmented", "lru-offheap", "lru-tinylfu", "segmented-near", "lru-clock", "lru-sieve"})
+    public String implementation;
+
+    @Param({"10000", "1000000"})
+    public int capacity;
+
+    @Param({"UNIFORM", "ZIPFIAN", "SCAN"})
+    public KeyDistribution distribution;
+
+    public AccountCache cache;
+
+    private AccountCache backing;
+
+    private final BigDecimal[] balances = new BigDecimal[BALANCES];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < BALANCES; i++) {
+            balances[i] = BigDecimal.valueOf(i * 37L, 2);
+        }
+        backing = new AccountCacheImpl(create());
+        cache = implementation.endsWith("-near") ? new NearAccountCache(backing, NearCacheSettings.builder().build()) : backing;
+        List<Account> batch = new ArrayList<>(10_000);
+        for (long id = 0; id < capacity; id++) {
+            batch.add(account(id));
+            if (batch.size() == 10_000) {
+                cache.putAccounts(batch);
+                batch.clear();
+            }
+        }
+        cache.putAccounts(batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (cache != backing) {
+            cache.close();
+        }
+        backing.close();
+    }
+
+    public Account account(long id) {
+        return Account.builder().id(id).balance(balances[(int) (id & (BALANCES - 1))]).build();
+    }
+
+    private Cache<Long, Account> create() {
+        CacheSettings settings = CacheSettings.builder().size(capacity).build();
+        return switch (implementation) {
+            case "lru" -> new AccountLRUCacheThreadSafe(settings);
+            case "segmented", "segmented-near" -> new SegmentedAccountLRUCache(settings, Runtime.getRuntime().availableProcessors() * 2);
+            case "lru-offheap" -> new AccountLRUCacheThreadSafe(settings.toBuilder().storageMode(StorageMode.OFF_HEAP).build());
+            case "lru-tinylfu" -> new AccountLRUCacheThreadSafe(settings.toBuilder().admission(AdmissionPolicy.TINY_LFU).build());
+            case "lru-clock" -> new AccountLRUCacheThreadSafe(settings.toBuilder().eviction(ClockPolicy::new).build());
+            case "lru-sieve" -> new AccountLRUCacheThreadSafe(settings.toBuilder().eviction(SievePolicy::new).build());
+            default -> throw new IllegalArgumentException("Unknown implementation " + implementation);
+        };
+    }
+}
@@ -0,0 +1,82 @@
+package com.lru.account.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * Account id access patterns replayed by the benchmarks.
+ */
+public enum KeyDistribution {
+    /**
+     * Every cached id is equally likely.
+     */
+    UNIFORM {
+        @Override
+        long[] generate(int count, int keySpace, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = random.nextInt(keySpace);
+            }
+            return keys;
+        }
+    },
+    /**
+     * A few hot ids take most of the traffic (YCSB zipfian, theta 0.99),
+     * scattered over the id space.
+     */
+    ZIPFIAN {
+        @Override
+        long[] generate(int count, int keySpace, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            double theta = 0.99;
+            double zetaN = zeta(keySpace, theta);
+            double zeta2 = zeta(2, theta);
+            double alpha = 1 / (1 - theta);
+            double eta = (1 - Math.pow(2.0 / keySpace, 1 - theta)) / (1 - zeta2 / zetaN);
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetaN;
+                long rank;
+                if (uz < 1) {
+                    rank = 0;
+                } else if (uz < 1 + Math.pow(0.5, theta)) {
+                    rank = 1;
+                } else {
+                    rank = (long) (keySpace * Math.pow(eta * u - eta + 1, alpha));
+                }
+                keys[i] = Math.floorMod(rank * 0x9E3779B97F4A7C15L, keySpace);
+            }
+            return keys;
+        }
+    },
+    /**
+     * Sequential ids over four times the cache capacity, like a
+     * reconciliation job touching each account once.
+     */
+    SCAN {
+        @Override
+        long[] generate(int count, int keySpace, long seed) {
+            long scanSpace = 4L * keySpace;
+            long start = Math.floorMod(seed, scanSpace);
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = (start + i) % scanSpace;
+            }
+            return keys;
+        }
+    };
+
+    /**
+     * @param keySpace the number of distinct ids, normally the cache capacity
+     */
+    abstract long[] generate(int count, int keySpace, long seed);
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,67 @@
+package com.lru.account.benchmark;
+
+import com.lru.account.lru.LongHashIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup latency of the id index against the {@code ConcurrentHashMap}
+ * it replaced; run with {@code -prof gc} to compare allocation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LongHashIndexBenchmark {
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"100000", "5000000"})
+    public int size;
+
+    private LongHashIndex index;
+    private Map<Long, Integer> map;
+    private long[] keys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new LongHashIndex(size);
+        map = new ConcurrentHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            index.put(i * 7919L, i);
+            map.put(i * 7919L, i);
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        keys = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            keys[i] = random.nextInt(size) * 7919L;
+        }
+    }
+
+    @Benchmark
+    public int longHashIndex() {
+        return index.get(keys[next++ & (LOOKUPS - 1)]);
+    }
+
+    @Benchmark
+    public Integer concurrentHashMap() {
+        return map.get(keys[next++ & (LOOKUPS - 1)]);
+    }
+}
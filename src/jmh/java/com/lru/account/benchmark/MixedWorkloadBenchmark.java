@@ -0,0 +1,68 @@
+package com.lru.account.benchmark;
+
+import com.lru.account.Account;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes interleaved at a fixed ratio, writing an account back
+ * whenever a read misses, like a service in front of a database.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=4g")
+public class MixedWorkloadBenchmark {
+
+    @State(Scope.Thread)
+    public static class Operations {
+        private static final int COUNT = 1 << 12;
+
+        @Param({"50", "95", "100"})
+        public int readPercent;
+
+        private boolean[] reads;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SplittableRandom random = new SplittableRandom();
+            reads = new boolean[COUNT];
+            for (int i = 0; i < COUNT; i++) {
+                reads[i] = random.nextInt(100) < readPercent;
+            }
+        }
+
+        boolean nextIsRead() {
+            return reads[next++ & (COUNT - 1)];
+        }
+    }
+
+    @Benchmark
+    public Account readWrite(CacheState state, ThreadKeys keys, Operations operations) {
+        long id = keys.next();
+        if (operations.nextIsRead()) {
+            Account account = state.cache.getAccountById(id);
+            if (account != null) {
+                return account;
+            }
+        }
+        Account account = state.account(id);
+        state.cache.putAccount(account);
+        return account;
+    }
+}
@@ -0,0 +1,82 @@
+package com.lru.account.benchmark;
+
+import com.lru.account.Account;
+import com.lru.account.AccountCacheImpl;
+import com.lru.account.lru.SegmentedAccountLRUCache;
+import com.lru.account.server.AccountClient;
+import com.lru.account.server.AccountServer;
+import com.lru.account.server.ServerSettings;
+import com.lru.account.stats.LatencySnapshot;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Loopback load test of {@link AccountServer}: pipelining clients keep a
+ * window of requests in flight, 90% reads and 10% puts over a preloaded
+ * cache, and the throughput and latency percentiles are printed. Arguments:
+ * connections, requests per connection, window, e.g.
+ * {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.lru.account.benchmark.ServerLoadTest -Djmh.args="8 200000 256"}.
+ */
+public class ServerLoadTest {
+    private static final int ACCOUNTS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        try (AccountCacheImpl service = new AccountCacheImpl(new SegmentedAccountLRUCache(ACCOUNTS));
+             AccountServer server = AccountServer.start(service, ServerSettings.builder().build())) {
+            List<Account> accounts = new ArrayList<>(ACCOUNTS);
+            for (long id = 0; id < ACCOUNTS; id++) {
+                accounts.add(Account.builder().id(id).balance(BigDecimal.valueOf(id, 2)).build());
+            }
+            service.putAccounts(accounts);
+            for (int round = 0; round < 2; round++) {
+                Histogram latencies = new ConcurrentHistogram(3);
+                long start = System.nanoTime();
+                List<Thread> clients = new ArrayList<>();
+                for (int c = 0; c < connections; c++) {
+                    clients.add(Thread.ofVirtual().start(() -> run(server, requests, window, latencies)));
+                }
+                for (Thread client : clients) {
+                    client.join();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%s: %d connections, window %d: %,d requests/s, latency ns %s%n",
+                    round == 0 ? "warmup" : "measured", connections, window,
+                    (long) (latencies.getTotalCount() / seconds), LatencySnapshot.of(latencies));
+            }
+        }
+    }
+
+    private static void run(AccountServer server, int requests, int window, Histogram latencies) {
+        try (AccountClient client = AccountClient.connect(server.address())) {
+            Semaphore inFlight = new Semaphore(window);
+            CountDownLatch answered = new CountDownLatch(requests);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < requests; i++) {
+                long id = random.nextLong(ACCOUNTS);
+                inFlight.acquire();
+                long sent = System.nanoTime();
+                (random.nextInt(10) == 0
+                    ? client.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(random.nextLong(), 2)).build())
+                    : client.getAccountById(id)
+                ).whenComplete((result, failure) -> {
+                    latencies.recordValue(System.nanoTime() - sent);
+                    inFlight.release();
+                    answered.countDown();
+                });
+            }
+            answered.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
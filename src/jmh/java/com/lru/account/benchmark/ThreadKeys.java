@@ -0,0 +1,30 @@
+package com.lru.account.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pre-generated per-thread id sequence, so that key generation does not
+ * show up in the measurements.
+ */
+@State(Scope.Thread)
+public class ThreadKeys {
+    private static final int COUNT = 1 << 16;
+    private static final int MASK = COUNT - 1;
+
+    private long[] keys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(CacheState state) {
+        keys = state.distribution.generate(COUNT, state.capacity, ThreadLocalRandom.current().nextLong());
+    }
+
+    public long next() {
+        return keys[next++ & MASK];
+    }
+}
@@ -5,12 +5,11 @@ import lombok.*;
 import java.math.BigDecimal;
 
 @Getter
-@Setter
 @ToString
 @Builder
 public class Account {
-    private volatile Long id;
-    private volatile BigDecimal balance;
+    private final Long id;
+    private final BigDecimal balance;
 
     @Override
     public int hashCode() {
@@ -0,0 +1,69 @@
+package com.lru.account;
+
+import java.util.Arrays;
+
+/**
+ * Reusable result container for batched lookups. Position {@code i} holds
+ * the account for the {@code i}-th requested id, or {@code null} when it is
+ * not cached. Passing the same instance to successive lookups avoids
+ * allocating a result per call.
+ */
+public class AccountBatch {
+    private Account[] accounts;
+    private int size;
+    private int found;
+
+    public AccountBatch() {
+        this(16);
+    }
+
+    public AccountBatch(int initialCapacity) {
+        this.accounts = new Account[Math.max(initialCapacity, 1)];
+    }
+
+    /**
+     * Empties the batch and makes room for {@code size} results.
+     */
+    public void reset(int size) {
+        if (size > accounts.length) {
+            accounts = new Account[size];
+        } else {
+            Arrays.fill(accounts, 0, this.size, null);
+        }
+        this.size = size;
+        this.found = 0;
+    }
+
+    public void set(int position, Account account) {
+        if (accounts[position] == null && account != null) {
+            found++;
+        } else if (accounts[position] != null && account == null) {
+            found--;
+        }
+        accounts[position] = account;
+    }
+
+    /**
+     * @return the account for the id at this position, or {@code null}
+     */
+    public Account get(int position) {
+        if (position >= size) {
+            throw new IndexOutOfBoundsException(position);
+        }
+        return accounts[position];
+    }
+
+    /**
+     * @return the number of requested ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of requested ids that were cached
+     */
+    public int found() {
+        return found;
+    }
+}
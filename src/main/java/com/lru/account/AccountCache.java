@@ -1,36 +1,105 @@
 package com.lru.account;
 
-import com.lru.account.lru.AccountLRUCacheThreadSafe;
+import com.lru.account.event.Subscription;
+import com.lru.account.event.SubscriptionOptions;
+import com.lru.account.lru.Cache;
+import com.lru.account.stats.CacheStats;
 
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 /**
 
  * Keeps track of accounts in memory, providing methods to query the
  * accounts by different criteria.
  */
-public interface AccountCache {
+public interface AccountCache extends AutoCloseable {
     /**
-     * @return account by its unique id
+     * @return account by its unique id; on a miss, the account is loaded
+     * with the {@link AccountLoader}, if any
+     * @throws java.util.concurrent.CompletionException if loading failed
      */
     Account getAccountById(long id);
+    /**
+     * Same as {@link #getAccountById(long)} without blocking on a load
+     */
+    CompletableFuture<Account> getAccountByIdAsync(long id);
     /**
      * Registers a listener that will be notified when an account is
      * registered or updated via the {@link #putAccount(Account)}
-     * method
+     * method. Listeners are called on their own thread, in update order.
      */
     void subscribeForAccountUpdates(Consumer<Account> listener);
+    /**
+     * Same as {@link #subscribeForAccountUpdates(Consumer)} with a custom
+     * buffer size and backpressure policy
+     */
+    Subscription subscribeForAccountUpdates(Consumer<Account> listener, SubscriptionOptions options);
+    /**
+     * Registers a listener that receives the updates in batches of up to
+     * {@link SubscriptionOptions#getMaxBatchSize()} accounts
+     */
+    Subscription subscribeForAccountUpdateBatches(Consumer<List<Account>> listener, SubscriptionOptions options);
     /**
      * @return top 3 accounts by balance, sorted from the largest balance
      * to the smallest one
      */
     List<Account> getTop3AccountsByBalance();
+    /**
+     * @return top n accounts by balance, sorted from the largest balance
+     * to the smallest one; accounts with equal balances are ordered by id
+     */
+    List<Account> getTopNAccountsByBalance(int n);
+    /**
+     * Same as {@link #getTopNAccountsByBalance(int)} with n the length of
+     * the array, filled in place without allocating
+     * @return the number of accounts stored
+     */
+    int getTopAccountsByBalance(Account[] into);
+    /**
+     * @return the number of cached accounts with a balance greater than
+     * {@code balance}. This and the other balance queries below need
+     * {@link com.lru.account.lru.CacheSettings#isRankIndex()} and run in
+     * O(log n); over s segments, in O(s log n), and the percentile in
+     * O(s log&sup2; n)
+     */
+    long countAccountsWithBalanceAbove(BigDecimal balance);
+    /**
+     * @return the cached accounts with a balance from {@code min} to
+     * {@code max} inclusive, from the largest balance to the smallest one,
+     * read lazily in batches
+     */
+    Stream<Account> getAccountsWithBalanceBetween(BigDecimal min, BigDecimal max);
+    /**
+     * @return the position of the account in the order of
+     * {@link #getTopNAccountsByBalance(int)}, 1 for the largest balance,
+     * or 0 if the account is not cached
+     */
+    long rankOf(long id);
+    /**
+     * @return the balance at the percentile {@code p} within [0, 100] by the
+     * nearest rank method, e.g. the median balance for 50, or {@code null}
+     * if no account is cached
+     */
+    BigDecimal percentile(double p);
     /**
      * @return the number of 'hits' (when an account was found) to
      * the 'getAccountById' method of this service
      */
     int getAccountByIdHitCount();
+    /**
+     * @return hits, misses, evictions and latencies of this service; only
+     * the hits are counted unless statistics were enabled with
+     * {@link com.lru.account.lru.CacheSettings#isRecordStats()}
+     */
+    CacheStats getStats();
     /**
      * Puts or updates an account in the service. If the cache is at
      * the full capacity, removes the least recently used account
@@ -38,7 +107,69 @@ public interface AccountCache {
      * or queried by the {@link #getAccountById(long)} method.
      */
     void putAccount(Account account);
+    /**
+     * Puts or updates all accounts in iteration order, with the same
+     * result as calling {@link #putAccount(Account)} for each of them but
+     * paying for locking and listener notification once per batch
+     */
+    void putAccounts(Collection<Account> accounts);
+    /**
+     * Atomically adds {@code delta} to the balance of a cached account,
+     * without taking the cache-wide write lock; subscribers are notified
+     * once if the balance changed
+     * @return the updated account, or {@code null} if the id is not cached
+     */
+    Account adjustBalance(long id, BigDecimal delta);
+    /**
+     * Atomically sets the balance of a cached account if it still equals
+     * {@code expected}, compared with {@link BigDecimal#compareTo}
+     * @return {@code true} if the account now has the new balance
+     */
+    boolean compareAndSetBalance(long id, BigDecimal expected, BigDecimal balance);
+    /**
+     * Atomically replaces a cached account with the one computed from it,
+     * like {@link #adjustBalance(long, BigDecimal)}; returning {@code null}
+     * leaves the account unchanged
+     * @return the account now cached, or {@code null} if the id is not cached
+     */
+    Account computeIfPresent(long id, UnaryOperator<Account> remapping);
+    /**
+     * @return the accounts for the ids, by position; absent accounts are
+     * {@code null}. Each found account counts as a hit. Misses are loaded
+     * together with the {@link AccountLoader}, if any
+     */
+    AccountBatch getAccountsByIds(long[] ids);
+    /**
+     * Same as {@link #getAccountsByIds(long[])}, reusing the given
+     * container
+     */
+    AccountBatch getAccountsByIds(long[] ids, AccountBatch into);
+    /**
+     * @return the cached accounts in no particular order, scanned without
+     * blocking writers or changing the LRU order and weakly consistent with
+     * concurrent writes; a parallel stream splits the scan over the common
+     * fork-join pool
+     */
+    Stream<Account> stream();
+    /**
+     * Applies the action to every cached account, on several threads at
+     * once if at least {@code parallelismThreshold} accounts are cached,
+     * like {@link java.util.concurrent.ConcurrentHashMap#forEach(long, Consumer)}
+     */
+    void forEach(long parallelismThreshold, Consumer<? super Account> action);
+    /**
+     * @return the non-null results of {@code transformer} for the cached
+     * accounts combined with {@code reducer}, or {@code null} if there are
+     * none, in parallel like {@link #forEach(long, Consumer)}
+     */
+    <U> U reduce(long parallelismThreshold, Function<? super Account, ? extends U> transformer,
+                 BiFunction<? super U, ? super U, ? extends U> reducer);
 
-    AccountLRUCacheThreadSafe getLruCache();
+    Cache<Long, Account> getLruCache();
+    /**
+     * Stops delivering account updates to the listeners
+     */
+    @Override
+    void close();
 
 }
@@ -1,23 +1,101 @@
 package com.lru.account;
 
+import com.lru.account.event.Subscription;
+import com.lru.account.event.SubscriptionOptions;
 import com.lru.account.lru.AccountLRUCacheThreadSafe;
+import com.lru.account.lru.Cache;
+import com.lru.account.lru.LongKeyedCache;
+import com.lru.account.stats.CacheStats;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
-import java.util.*;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+@Slf4j
 @Getter // debug to investigate the cache
 public class AccountCacheImpl implements AccountCache {
 
-    private final AccountLRUCacheThreadSafe lruCache;
+    private final Cache<Long, Account> lruCache;
+    private final LongKeyedCache<Account> keyedCache;
+    private final AccountLoader loader;
+    private final Executor loaderExecutor;
+    private final ExecutorService ownedExecutor;
+    private final Map<Long, CompletableFuture<Account>> loading = new ConcurrentHashMap<>();
 
     public AccountCacheImpl(int size) {
-        this.lruCache = new AccountLRUCacheThreadSafe(size);
+        this(new AccountLRUCacheThreadSafe(size));
+    }
+
+    /**
+     * @param lruCache the engine backing this service, e.g. a
+     * {@link com.lru.account.lru.SegmentedAccountLRUCache} for highly
+     * concurrent workloads
+     */
+    public AccountCacheImpl(Cache<Long, Account> lruCache) {
+        this(lruCache, null, null);
+    }
+
+    /**
+     * Read-through service loading misses on virtual threads.
+     */
+    public AccountCacheImpl(Cache<Long, Account> lruCache, AccountLoader loader) {
+        this(lruCache, loader, null);
+    }
+
+    /**
+     * @param loaderExecutor runs the loads and refreshes; a virtual thread
+     * per task executor, shut down on {@link #close()}, if {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public AccountCacheImpl(Cache<Long, Account> lruCache, AccountLoader loader, Executor loaderExecutor) {
+        this.lruCache = lruCache;
+        this.keyedCache = lruCache instanceof LongKeyedCache<?> keyed ? (LongKeyedCache<Account>) keyed : null;
+        this.loader = loader;
+        this.ownedExecutor = loader != null && loaderExecutor == null ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.loaderExecutor = loaderExecutor != null ? loaderExecutor : this.ownedExecutor;
     }
 
     @Override
     public Account getAccountById(long id) {
-        return lruCache.get(id).orElse(null);
+        Account account = find(id);
+        if (loader == null) {
+            return account;
+        }
+        if (account != null) {
+            refreshIfNeeded(id, account);
+            return account;
+        }
+        return load(id).join();
+    }
+
+    @Override
+    public CompletableFuture<Account> getAccountByIdAsync(long id) {
+        Account account = find(id);
+        if (loader == null || account != null) {
+            if (account != null && loader != null) {
+                refreshIfNeeded(id, account);
+            }
+            return CompletableFuture.completedFuture(account);
+        }
+        return load(id).copy();
     }
 
     @Override
@@ -25,17 +103,57 @@ public class AccountCacheImpl implements AccountCache {
         lruCache.delegateListener(listener);
     }
 
+    @Override
+    public Subscription subscribeForAccountUpdates(Consumer<Account> listener, SubscriptionOptions options) {
+        return lruCache.getDispatcher().subscribe(listener, options);
+    }
+
+    @Override
+    public Subscription subscribeForAccountUpdateBatches(Consumer<List<Account>> listener, SubscriptionOptions options) {
+        return lruCache.getDispatcher().subscribeBatch(listener, options);
+    }
+
     @Override
     public List<Account> getTop3AccountsByBalance() {
-        int max = 3;
-        int init = 0;
-        Iterator<Map.Entry<Account, Long>> iterator = lruCache.getTops().entrySet().iterator();
-        List<Account> result = new ArrayList<>();
-        while (iterator.hasNext() && init < max) {
-            result.add(iterator.next().getKey());
-            init++;
+        return getTopNAccountsByBalance(3);
+    }
+
+    @Override
+    public List<Account> getTopNAccountsByBalance(int n) {
+        return lruCache.getTop(n);
+    }
+
+    @Override
+    public int getTopAccountsByBalance(Account[] into) {
+        if (keyedCache != null) {
+            return keyedCache.getTopInto(into);
         }
-        return result;
+        List<Account> top = lruCache.getTop(into.length);
+        for (int i = 0; i < top.size(); i++) {
+            into[i] = top.get(i);
+        }
+        return top.size();
+    }
+
+    @Override
+    public long countAccountsWithBalanceAbove(BigDecimal balance) {
+        return lruCache.countWithBalanceAbove(balance);
+    }
+
+    @Override
+    public Stream<Account> getAccountsWithBalanceBetween(BigDecimal min, BigDecimal max) {
+        return lruCache.getWithBalanceBetween(min, max);
+    }
+
+    @Override
+    public long rankOf(long id) {
+        return lruCache.rankOf(id);
+    }
+
+    @Override
+    public BigDecimal percentile(double p) {
+        Account account = lruCache.getAtPercentile(p);
+        return account != null ? account.getBalance() : null;
     }
 
     @Override
@@ -43,8 +161,204 @@ public class AccountCacheImpl implements AccountCache {
         return lruCache.getHits();
     }
 
+    @Override
+    public CacheStats getStats() {
+        return lruCache.getStatsCounter().snapshot();
+    }
+
     @Override
     public void putAccount(Account account) {
         lruCache.put(account.getId(), account);
     }
+
+    @Override
+    public void putAccounts(Collection<Account> accounts) {
+        lruCache.putAll(accounts);
+    }
+
+    @Override
+    public Account adjustBalance(long id, BigDecimal delta) {
+        return computeIfPresent(id, account -> Account.builder().id(id).balance(account.getBalance().add(delta)).build());
+    }
+
+    @Override
+    public boolean compareAndSetBalance(long id, BigDecimal expected, BigDecimal balance) {
+        Account updated = Account.builder().id(id).balance(balance).build();
+        Account result = computeIfPresent(id, account -> account.getBalance().compareTo(expected) == 0 ? updated : null);
+        // an unchanged balance is returned as the cached account
+        return result != null && (result == updated
+            || (expected.compareTo(balance) == 0 && result.getBalance().compareTo(balance) == 0));
+    }
+
+    @Override
+    public Account computeIfPresent(long id, UnaryOperator<Account> remapping) {
+        return lruCache.computeIfPresent(id, remapping);
+    }
+
+    @Override
+    public AccountBatch getAccountsByIds(long[] ids) {
+        return getAccountsByIds(ids, new AccountBatch(ids.length));
+    }
+
+    /**
+     * With a loader, the misses not already being loaded are passed to one
+     * {@link AccountLoader#loadAll(long[])} call.
+     */
+    @Override
+    public AccountBatch getAccountsByIds(long[] ids, AccountBatch into) {
+        lruCache.getAll(ids, into);
+        if (loader == null) {
+            return into;
+        }
+        Map<Long, CompletableFuture<Account>> misses = new HashMap<>();
+        Map<Long, CompletableFuture<Account>> created = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            Account account = into.get(i);
+            if (account != null) {
+                refreshIfNeeded(ids[i], account);
+            } else if (!misses.containsKey(ids[i])) {
+                CompletableFuture<Account> future = new CompletableFuture<>();
+                CompletableFuture<Account> inFlight = loading.putIfAbsent(ids[i], future);
+                misses.put(ids[i], inFlight != null ? inFlight : future);
+                if (inFlight == null) {
+                    created.put(ids[i], future);
+                }
+            }
+        }
+        if (!created.isEmpty()) {
+            submit(() -> loadAll(created), created);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (into.get(i) == null) {
+                into.set(i, misses.get(ids[i]).join());
+            }
+        }
+        return into;
+    }
+
+    @Override
+    public Stream<Account> stream() {
+        return StreamSupport.stream(lruCache.spliterator(), false);
+    }
+
+    @Override
+    public void forEach(long parallelismThreshold, Consumer<? super Account> action) {
+        scan(parallelismThreshold).forEach(action);
+    }
+
+    @Override
+    public <U> U reduce(long parallelismThreshold, Function<? super Account, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return scan(parallelismThreshold)
+            .<U>map(transformer)
+            .filter(Objects::nonNull)
+            .reduce(reducer::apply)
+            .orElse(null);
+    }
+
+    @Override
+    public void close() {
+        lruCache.close();
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Looks the id up without boxing it when the engine allows.
+     */
+    private Account find(long id) {
+        return keyedCache != null ? keyedCache.getIfPresent(id) : lruCache.get(id).orElse(null);
+    }
+
+    /**
+     * @return the load of the account, shared by concurrent misses
+     */
+    private CompletableFuture<Account> load(long id) {
+        CompletableFuture<Account> future = new CompletableFuture<>();
+        CompletableFuture<Account> inFlight = loading.putIfAbsent(id, future);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        submit(() -> complete(id, future, () -> loader.load(id), null), Map.of(id, future));
+        return future;
+    }
+
+    /**
+     * Reloads the account in the background unless a load is running
+     * already; readers keep getting the cached account meanwhile.
+     */
+    private void refreshIfNeeded(long id, Account cached) {
+        if (!lruCache.needsRefresh(id)) {
+            return;
+        }
+        CompletableFuture<Account> future = new CompletableFuture<>();
+        if (loading.putIfAbsent(id, future) == null) {
+            submit(() -> complete(id, future, () -> loader.reload(id, cached), cached), Map.of(id, future));
+        }
+    }
+
+    /**
+     * Scans in parallel once the cache holds {@code parallelismThreshold} accounts.
+     */
+    private Stream<Account> scan(long parallelismThreshold) {
+        return StreamSupport.stream(lruCache.spliterator(), lruCache.size() >= parallelismThreshold);
+    }
+
+    /**
+     * Caches the loaded account without overwriting a concurrent put: a
+     * miss only fills an absent entry, and a refresh only replaces the
+     * balance it started from.
+     */
+    private void complete(long id, CompletableFuture<Account> future, Callable<Account> load, Account cached) {
+        try {
+            Account account = load.call();
+            if (cached == null) {
+                if (account != null) {
+                    lruCache.putIfAbsent(id, account);
+                }
+            } else {
+                // keeping the cached account still restarts its refresh period
+                account = account != null ? account : cached;
+                lruCache.replace(id, cached, account);
+            }
+            future.complete(account);
+        } catch (Exception e) {
+            if (cached != null) {
+                log.warn("Refreshing account {} failed", id, e);
+            }
+            future.completeExceptionally(e);
+        } finally {
+            loading.remove(id, future);
+        }
+    }
+
+    private void loadAll(Map<Long, CompletableFuture<Account>> futures) {
+        long[] ids = futures.keySet().stream().mapToLong(Long::longValue).toArray();
+        try {
+            Map<Long, Account> accounts = loader.loadAll(ids);
+            futures.forEach((id, future) -> {
+                Account account = accounts.get(id);
+                if (account != null) {
+                    lruCache.putIfAbsent(id, account);
+                }
+                future.complete(account);
+            });
+        } catch (Exception e) {
+            futures.values().forEach(future -> future.completeExceptionally(e));
+        } finally {
+            futures.forEach(loading::remove);
+        }
+    }
+
+    private void submit(Runnable task, Map<Long, CompletableFuture<Account>> futures) {
+        try {
+            loaderExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            futures.forEach((id, future) -> {
+                loading.remove(id, future);
+                future.completeExceptionally(e);
+            });
+        }
+    }
 }
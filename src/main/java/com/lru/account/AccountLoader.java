@@ -0,0 +1,42 @@
+package com.lru.account;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Source of the accounts missing from an {@link AccountCacheImpl}, e.g. the
+ * database. Calls run on the cache's loader executor; concurrent misses of
+ * the same id share one call.
+ */
+public interface AccountLoader {
+    /**
+     * @return the account, or {@code null} if it does not exist
+     */
+    Account load(long id) throws Exception;
+
+    /**
+     * Loads the misses of a batched lookup at once; override it with a
+     * bulk query, the default loads the ids one by one.
+     *
+     * @return the existing accounts by id
+     */
+    default Map<Long, Account> loadAll(long[] ids) throws Exception {
+        Map<Long, Account> accounts = new HashMap<>(ids.length * 2);
+        for (long id : ids) {
+            Account account = load(id);
+            if (account != null) {
+                accounts.put(id, account);
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Reloads a cached account due for refresh, in the background.
+     *
+     * @return the current account, or {@code null} to keep the cached one
+     */
+    default Account reload(long id, Account cached) throws Exception {
+        return load(id);
+    }
+}
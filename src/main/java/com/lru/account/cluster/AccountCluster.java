@@ -0,0 +1,279 @@
+package com.lru.account.cluster;
+
+import com.lru.account.Account;
+import com.lru.account.lru.SegmentedAccountLRUCache;
+import com.lru.account.lru.TopBalanceIndex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accounts partitioned over several {@link ClusterNode}s by a consistent
+ * {@link HashRing}: every id lives on the node owning it, so a lookup is
+ * one call to one node and a top-N query asks every node for its own top N.
+ * <p>
+ * Adding or removing a node only moves the ids whose owner changed, in
+ * batches of {@link ClusterSettings#getTransferBatch()} by
+ * {@link #rebalanceStep()}. Until the move is done the previous ring is
+ * kept: writes go to the new owner, and a read missing there falls back to
+ * the previous owner, so every cached account stays readable meanwhile.
+ */
+@Slf4j
+public class AccountCluster implements AutoCloseable {
+    private final ClusterSettings settings;
+    private final Map<String, ClusterNode> nodes = new ConcurrentHashMap<>();
+    private final Deque<Transfer> transfers = new ArrayDeque<>();
+    private volatile State state;
+    private long moved;
+
+    private AccountCluster(ClusterSettings settings, List<String> names) {
+        this.settings = settings;
+        for (String name : names) {
+            nodes.put(name, newNode(name));
+        }
+        this.state = new State(HashRing.of(names, settings.getVirtualNodes()), null);
+    }
+
+    public static AccountCluster start(ClusterSettings settings, String... names) {
+        if (names.length == 0) {
+            throw new IllegalArgumentException("a cluster needs at least one node");
+        }
+        return new AccountCluster(settings, List.of(names));
+    }
+
+    public Account getAccountById(long id) {
+        State current = state;
+        ClusterNode owner = nodes.get(current.ring.ownerOf(id));
+        Account account = owner.get(id);
+        if (account != null || current.previous == null) {
+            return account;
+        }
+        ClusterNode previous = nodes.get(current.previous.ownerOf(id));
+        if (previous == null || previous == owner) {
+            return null;
+        }
+        account = previous.get(id);
+        // a transfer copies before it removes, so if the previous owner
+        // missed, the account has reached the owner by now
+        return account != null ? account : owner.get(id);
+    }
+
+    public void putAccount(Account account) {
+        nodes.get(state.ring.ownerOf(account.getId())).put(account);
+    }
+
+    /**
+     * Scatter-gather: every node is asked for its top N at once and the
+     * answers are merged. During a rebalance an account may be on two nodes;
+     * the copy of its current owner wins.
+     */
+    public List<Account> getTopNAccountsByBalance(int n) {
+        State current = state;
+        Map<String, CompletableFuture<List<Account>>> answers = new HashMap<>();
+        nodes.forEach((name, node) -> answers.put(name, node.top(n)));
+        Map<Long, Account> merged = new HashMap<>();
+        answers.forEach((name, answer) -> {
+            for (Account account : answer.join()) {
+                if (name.equals(current.ring.ownerOf(account.getId()))) {
+                    merged.put(account.getId(), account);
+                } else {
+                    merged.putIfAbsent(account.getId(), account);
+                }
+            }
+        });
+        List<Account> top = new ArrayList<>(merged.values());
+        top.sort(TopBalanceIndex.ORDER);
+        return top.size() > n ? new ArrayList<>(top.subList(0, n)) : top;
+    }
+
+    public String ownerOf(long id) {
+        return state.ring.ownerOf(id);
+    }
+
+    /**
+     * @return the nodes of the ring, without those being drained
+     */
+    public Set<String> nodeNames() {
+        return state.ring.nodes();
+    }
+
+    public ClusterNode node(String name) {
+        return nodes.get(name);
+    }
+
+    /**
+     * Adds a node to the ring, first finishing any running rebalance; the
+     * accounts it now owns are moved by {@link #rebalanceStep()}.
+     */
+    public synchronized void addNode(String name) {
+        rebalance();
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("node already in the cluster: " + name);
+        }
+        nodes.put(name, newNode(name));
+        state = new State(state.ring.withNode(name), state.ring);
+        planTransfers();
+    }
+
+    /**
+     * Removes a node from the ring, first finishing any running rebalance;
+     * the node is closed once {@link #rebalanceStep()} has moved all its
+     * accounts away.
+     */
+    public synchronized void removeNode(String name) {
+        if (!state.ring.nodes().contains(name)) {
+            throw new IllegalArgumentException("node not in the cluster: " + name);
+        }
+        if (state.ring.nodes().size() == 1) {
+            throw new IllegalStateException("cannot remove the last node: " + name);
+        }
+        rebalance();
+        state = new State(state.ring.withoutNode(name), state.ring);
+        planTransfers();
+    }
+
+    public boolean isRebalancing() {
+        return state.previous != null;
+    }
+
+    /**
+     * Moves up to one batch of accounts to their new owners.
+     *
+     * @return {@code true} while accounts remain to be moved
+     */
+    public synchronized boolean rebalanceStep() {
+        if (state.previous == null) {
+            return false;
+        }
+        int budget = settings.getTransferBatch();
+        while (budget > 0 && !transfers.isEmpty()) {
+            Transfer transfer = transfers.peek();
+            while (budget > 0 && transfer.next < transfer.ids.length) {
+                move(transfer.source, transfer.ids[transfer.next++]);
+                budget--;
+            }
+            if (transfer.next == transfer.ids.length) {
+                transfers.poll();
+            }
+        }
+        if (transfers.isEmpty()) {
+            // puts routed by the previous ring may still have landed after
+            // the plan; sweep again until a pass finds nothing to move
+            planTransfers();
+            if (transfers.isEmpty()) {
+                finishRebalance();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs {@link #rebalanceStep()} until every account is on its owner.
+     */
+    public synchronized void rebalance() {
+        while (rebalanceStep()) {
+            // next batch
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        nodes.values().forEach(ClusterNode::close);
+        nodes.clear();
+        transfers.clear();
+    }
+
+    private ClusterNode newNode(String name) {
+        try {
+            return new ClusterNode(name, settings);
+        } catch (IOException e) {
+            throw new UncheckedIOException("starting node " + name + " failed", e);
+        }
+    }
+
+    /**
+     * Lists the accounts of every node that the current ring places
+     * elsewhere, least recently used first so that the hottest accounts are
+     * also the most recent ones on their new node.
+     */
+    private void planTransfers() {
+        HashRing ring = state.ring;
+        for (ClusterNode node : nodes.values()) {
+            List<Account> accounts = node.getCache().getLruCache().snapshot();
+            long[] ids = new long[accounts.size()];
+            int count = 0;
+            for (int i = accounts.size() - 1; i >= 0; i--) {
+                long id = accounts.get(i).getId();
+                if (!node.getName().equals(ring.ownerOf(id))) {
+                    ids[count++] = id;
+                }
+            }
+            if (count > 0) {
+                transfers.add(new Transfer(node, count == ids.length ? ids : Arrays.copyOf(ids, count)));
+            }
+        }
+    }
+
+    /**
+     * Copies the account before removing it from its source so a concurrent
+     * read always finds it on one of the two; a newer value written to the
+     * owner meanwhile is kept. The source copy is removed only if it is
+     * still the one copied: a put routed by a stale ring may land there in
+     * between, and is then copied over the previous copy instead. The source
+     * is only peeked at, so that moving counts as no read there.
+     */
+    private void move(ClusterNode source, long id) {
+        SegmentedAccountLRUCache from = source.getLruCache();
+        SegmentedAccountLRUCache to = nodes.get(state.ring.ownerOf(id)).getLruCache();
+        Account copied = null;
+        for (Account account = from.peek(id); account != null; account = from.peek(id)) {
+            if (copied == null ? to.putIfAbsent(id, account) : to.replace(id, copied, account)) {
+                copied = account;
+            }
+            if (from.remove(id, account)) {
+                moved++;
+                return;
+            }
+        }
+    }
+
+    private void finishRebalance() {
+        Set<String> members = state.ring.nodes();
+        state = new State(state.ring, null);
+        nodes.values().removeIf(node -> {
+            if (members.contains(node.getName())) {
+                return false;
+            }
+            node.close();
+            return true;
+        });
+        log.info("Rebalanced {} accounts over {}", moved, members);
+        moved = 0;
+    }
+
+    private record State(HashRing ring, HashRing previous) {
+    }
+
+    private static final class Transfer {
+        private final ClusterNode source;
+        private final long[] ids;
+        private int next;
+
+        Transfer(ClusterNode source, long[] ids) {
+            this.source = source;
+            this.ids = ids;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.lru.account.cluster;
+
+import com.lru.account.Account;
+import com.lru.account.AccountCacheImpl;
+import com.lru.account.lru.SegmentedAccountLRUCache;
+import com.lru.account.server.AccountClient;
+import com.lru.account.server.AccountServer;
+import com.lru.account.server.ServerSettings;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A member of an {@link AccountCluster}: a local {@link AccountCacheImpl}
+ * and, with {@link ClusterSettings.Transport#LOOPBACK}, the server exposing
+ * it and the cluster's connection to that server.
+ */
+@Getter
+public class ClusterNode implements AutoCloseable {
+    private final String name;
+    private final AccountCacheImpl cache;
+    private final SegmentedAccountLRUCache lruCache;
+    private final AccountServer server;
+    private final AccountClient client;
+
+    ClusterNode(String name, ClusterSettings settings) throws IOException {
+        this.name = name;
+        this.lruCache = new SegmentedAccountLRUCache(settings.getNodeCacheSize());
+        this.cache = new AccountCacheImpl(lruCache);
+        if (settings.getTransport() == ClusterSettings.Transport.LOOPBACK) {
+            this.server = AccountServer.start(cache, ServerSettings.builder().build());
+            this.client = AccountClient.connect(server.address());
+        } else {
+            this.server = null;
+            this.client = null;
+        }
+    }
+
+    Account get(long id) {
+        return client != null ? client.getAccountById(id).join() : cache.getAccountById(id);
+    }
+
+    void put(Account account) {
+        if (client != null) {
+            client.putAccount(account).join();
+        } else {
+            cache.putAccount(account);
+        }
+    }
+
+    /**
+     * Asynchronous, so that a scatter-gather sends every node its request
+     * before waiting for the first answer.
+     */
+    CompletableFuture<List<Account>> top(int n) {
+        return client != null ? client.getTopNAccountsByBalance(n)
+            : CompletableFuture.completedFuture(cache.getTopNAccountsByBalance(n));
+    }
+
+    @Override
+    public void close() {
+        if (client != null) {
+            client.close();
+            server.close();
+        }
+        cache.close();
+    }
+}
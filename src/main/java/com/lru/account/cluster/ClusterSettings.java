@@ -0,0 +1,50 @@
+package com.lru.account.cluster;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class ClusterSettings {
+    /**
+     * Points per node on the {@link HashRing}; more points spread the ids
+     * more evenly.
+     */
+    @Builder.Default
+    private final int virtualNodes = 128;
+
+    /**
+     * Capacity of the cache of each node.
+     */
+    @Builder.Default
+    private final int nodeCacheSize = 100_000;
+
+    /**
+     * How requests reach the nodes.
+     */
+    @Builder.Default
+    private final Transport transport = Transport.LOCAL;
+
+    /**
+     * Maximum number of accounts moved by one
+     * {@link AccountCluster#rebalanceStep()}.
+     */
+    @Builder.Default
+    private final int transferBatch = 1024;
+
+    public enum Transport {
+        /**
+         * Direct calls to the nodes' caches.
+         */
+        LOCAL,
+        /**
+         * Every node serves its cache with an
+         * {@link com.lru.account.server.AccountServer} on a loopback port,
+         * which the cluster calls through an
+         * {@link com.lru.account.server.AccountClient}.
+         */
+        LOOPBACK
+    }
+}
@@ -0,0 +1,109 @@
+package com.lru.account.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable consistent-hash ring mapping account ids to node names. Every
+ * node is placed at {@code virtualNodes} pseudo-random points; an id belongs
+ * to the node of the first point at or after its hash, wrapping around. A
+ * joining or leaving node therefore only takes or hands over the ids next
+ * to its own points, about {@code 1 / nodes} of them, spread evenly over the
+ * other nodes.
+ */
+public final class HashRing {
+    private final Set<String> nodes;
+    private final int virtualNodes;
+    private final long[] points;
+    private final String[] owners;
+
+    private HashRing(Set<String> nodes, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+        }
+        this.nodes = Set.copyOf(nodes);
+        this.virtualNodes = virtualNodes;
+        long[] hashes = new long[nodes.size() * virtualNodes];
+        String[] names = new String[hashes.length];
+        List<String> sorted = new ArrayList<>(nodes);
+        sorted.sort(null);
+        int i = 0;
+        for (String node : sorted) {
+            for (int v = 0; v < virtualNodes; v++) {
+                hashes[i] = hash(node + '#' + v);
+                names[i++] = node;
+            }
+        }
+        // sort the points and their owners together
+        Integer[] order = new Integer[hashes.length];
+        Arrays.setAll(order, index -> index);
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(hashes[a], hashes[b]));
+        this.points = new long[hashes.length];
+        this.owners = new String[hashes.length];
+        for (int j = 0; j < order.length; j++) {
+            points[j] = hashes[order[j]];
+            owners[j] = names[order[j]];
+        }
+    }
+
+    public static HashRing of(Collection<String> nodes, int virtualNodes) {
+        return new HashRing(new LinkedHashSet<>(nodes), virtualNodes);
+    }
+
+    public HashRing withNode(String node) {
+        Set<String> joined = new LinkedHashSet<>(nodes);
+        joined.add(node);
+        return new HashRing(joined, virtualNodes);
+    }
+
+    public HashRing withoutNode(String node) {
+        Set<String> left = new LinkedHashSet<>(nodes);
+        left.remove(node);
+        return new HashRing(left, virtualNodes);
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the node owning the id, or {@code null} if the ring is empty
+     */
+    public String ownerOf(long id) {
+        if (points.length == 0) {
+            return null;
+        }
+        long hash = mix(id);
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[middle], hash) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    private static long hash(String value) {
+        // FNV-1a, then mixed so that similar names land far apart
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+}
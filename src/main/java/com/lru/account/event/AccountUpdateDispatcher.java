@@ -0,0 +1,347 @@
+package com.lru.account.event;
+
+import com.lru.account.Account;
+import com.lru.account.lru.LongHashIndex;
+import com.lru.account.stats.HitCounter;
+import com.lru.account.stats.StatsCounter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Fans account updates out to any number of subscribers. Every subscriber
+ * owns a bounded ring buffer and a dedicated daemon thread, so publishing
+ * only costs an enqueue and a slow listener delays nobody but itself.
+ * <p>
+ * Publishing never waits, as caches publish under their locks: updates
+ * that find a {@link BackpressurePolicy#BLOCK} or
+ * {@link BackpressurePolicy#COALESCE_BY_ID} buffer full are queued behind
+ * it, and the publisher waits in {@link #awaitCapacity()} once it has
+ * released its locks, until its own updates have moved into the buffer.
+ * The queue behind a buffer is therefore unbounded only in theory: it holds
+ * at most one operation's updates per publishing thread, plus whatever
+ * listeners publish, as they never wait.
+ * <p>
+ * Updates are delivered to each subscriber in publication order.
+ */
+@Slf4j
+public class AccountUpdateDispatcher implements AutoCloseable {
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final StatsCounter statsCounter;
+    private volatile boolean closed;
+
+    public AccountUpdateDispatcher() {
+        this(new HitCounter());
+    }
+
+    /**
+     * @param statsCounter receives the time listeners spend on their updates
+     */
+    public AccountUpdateDispatcher(StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    public Subscription subscribe(Consumer<Account> listener) {
+        return subscribe(listener, SubscriptionOptions.DEFAULTS);
+    }
+
+    public Subscription subscribe(Consumer<Account> listener, SubscriptionOptions options) {
+        return subscribeBatch(batch -> batch.forEach(listener), options);
+    }
+
+    /**
+     * Registers a listener receiving up to
+     * {@link SubscriptionOptions#getMaxBatchSize()} updates per call. The
+     * list is reused once the call returns.
+     */
+    public Subscription subscribeBatch(Consumer<List<Account>> listener, SubscriptionOptions options) {
+        if (closed) {
+            throw new IllegalStateException("dispatcher is closed");
+        }
+        Subscriber subscriber = new Subscriber(listener, options);
+        subscribers.add(subscriber);
+        subscriber.start();
+        return subscriber;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * Waits until the updates the calling thread queued behind full buffers
+     * have moved into them, to be called by publishers holding no lock. Listener threads return
+     * at once, so that a listener writing to a cache cannot wait for
+     * itself or for another listener waiting for it.
+     */
+    public void awaitCapacity() {
+        if (Thread.currentThread() instanceof DeliveryThread) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.awaitCapacity();
+        }
+    }
+
+    public void publish(Account account) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(account);
+        }
+    }
+
+    /**
+     * Publishes the removal of an account to the subscribers asking for
+     * {@link SubscriptionOptions#isRemovals() removals}.
+     */
+    public void publishRemoval(long id) {
+        Account removed = null;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.removals) {
+                if (removed == null) {
+                    removed = Account.builder().id(id).build();
+                }
+                subscriber.offer(removed);
+            }
+        }
+    }
+
+    /**
+     * Publishes the accounts in order, taking each subscriber's lock once.
+     */
+    public void publishAll(List<Account> accounts) {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offerAll(accounts);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        subscribers.forEach(Subscriber::close);
+    }
+
+    private final class Subscriber implements Subscription, Runnable {
+        private final Consumer<List<Account>> listener;
+        private final BackpressurePolicy backpressure;
+        private final boolean removals;
+        private final int maxBatchSize;
+        private final Account[] ring;
+        private final int mask;
+        private final LongHashIndex pendingById;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Deque<Account> overflow = new ArrayDeque<>();
+        /**
+         * The sequence of the last update each publisher queued behind the
+         * buffer; update {@code s} is in the buffer once {@code tail > s}
+         */
+        private final ThreadLocal<long[]> tickets = ThreadLocal.withInitial(() -> new long[]{-1L});
+        private final Thread thread;
+        private long head;
+        private long tail;
+        private long dropped;
+        private volatile boolean overflowing;
+        private volatile boolean running = true;
+
+        Subscriber(Consumer<List<Account>> listener, SubscriptionOptions options) {
+            int capacity = Integer.highestOneBit(Math.max(options.getBufferSize(), 2) - 1) << 1;
+            this.listener = listener;
+            this.backpressure = options.getBackpressure();
+            this.removals = options.isRemovals();
+            this.maxBatchSize = Math.max(options.getMaxBatchSize(), 1);
+            this.ring = new Account[capacity];
+            this.mask = capacity - 1;
+            this.pendingById = backpressure == BackpressurePolicy.COALESCE_BY_ID ? new LongHashIndex(capacity) : null;
+            this.thread = new DeliveryThread(this, "account-updates-" + THREAD_IDS.incrementAndGet());
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void offer(Account account) {
+            lock.lock();
+            try {
+                enqueue(account);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void offerAll(List<Account> accounts) {
+            lock.lock();
+            try {
+                for (Account account : accounts) {
+                    enqueue(account);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void enqueue(Account account) {
+            if (!running) {
+                return;
+            }
+            if (pendingById != null) {
+                int position = pendingById.get(account.getId());
+                if (position != LongHashIndex.NO_VALUE) {
+                    ring[position] = account;
+                    return;
+                }
+            }
+            if (tail - head == ring.length && backpressure == BackpressurePolicy.DROP_OLDEST) {
+                ring[(int) (head++ & mask)] = null;
+                dropped++;
+            }
+            if (tail - head == ring.length || !overflow.isEmpty()) {
+                // behind the updates already queued, to keep the order
+                overflow.add(account);
+                overflowing = true;
+                tickets.get()[0] = tail + overflow.size() - 1;
+                return;
+            }
+            append(account);
+            notEmpty.signal();
+        }
+
+        private void append(Account account) {
+            int position = (int) (tail++ & mask);
+            ring[position] = account;
+            if (pendingById != null) {
+                pendingById.put(account.getId(), position);
+            }
+        }
+
+        /**
+         * Moves the updates queued behind the buffer into the room the
+         * listener has made.
+         */
+        private void refill() {
+            while (!overflow.isEmpty() && tail - head < ring.length) {
+                append(overflow.poll());
+            }
+            overflowing = !overflow.isEmpty();
+        }
+
+        void awaitCapacity() {
+            if (!overflowing) {
+                return;
+            }
+            long ticket = tickets.get()[0];
+            lock.lock();
+            try {
+                // updates queued later by other publishers do not hold this one up
+                while (running && tail <= ticket) {
+                    notFull.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Account> batch = new ArrayList<>(maxBatchSize);
+            while (running) {
+                lock.lock();
+                try {
+                    while (running && head == tail) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    while (head != tail && batch.size() < maxBatchSize) {
+                        int position = (int) (head++ & mask);
+                        Account account = ring[position];
+                        ring[position] = null;
+                        if (pendingById != null) {
+                            pendingById.remove(account.getId());
+                        }
+                        batch.add(account);
+                    }
+                    long refilled = tail;
+                    refill();
+                    if (tail != refilled) {
+                        notFull.signalAll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (!batch.isEmpty() && running) {
+                    deliver(batch);
+                }
+                batch.clear();
+            }
+        }
+
+        private void deliver(List<Account> batch) {
+            long start = statsCounter.isEnabled() ? System.nanoTime() : 0L;
+            try {
+                listener.accept(batch);
+            } catch (RuntimeException e) {
+                log.error("Account update listener failed", e);
+            }
+            if (statsCounter.isEnabled()) {
+                statsCounter.recordListenerTime(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public long getDropped() {
+            lock.lock();
+            try {
+                return dropped;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int getPending() {
+            lock.lock();
+            try {
+                return (int) (tail - head) + overflow.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            subscribers.remove(this);
+            lock.lock();
+            try {
+                running = false;
+                overflow.clear();
+                overflowing = false;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Runs a subscriber's listener; see {@link #awaitCapacity()}.
+     */
+    private static final class DeliveryThread extends Thread {
+        DeliveryThread(Runnable task, String name) {
+            super(task, name);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.lru.account.event;
+
+/**
+ * What a publisher does when a subscriber's buffer is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Queue updates behind the full buffer, and have the publisher wait
+     * until the subscriber catches up once it has released the cache's
+     * locks; no update is lost.
+     */
+    BLOCK,
+    /**
+     * Discard the oldest pending update to make room.
+     */
+    DROP_OLDEST,
+    /**
+     * Replace a pending update for the same account in place, so only its
+     * latest state is delivered; when the buffer is full of distinct
+     * accounts, like {@link #BLOCK}.
+     */
+    COALESCE_BY_ID
+}
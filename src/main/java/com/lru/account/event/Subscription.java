@@ -0,0 +1,23 @@
+package com.lru.account.event;
+
+/**
+ * Handle of a registered update listener.
+ */
+public interface Subscription extends AutoCloseable {
+
+    /**
+     * @return the number of updates discarded by the backpressure policy
+     */
+    long getDropped();
+
+    /**
+     * @return the number of updates waiting to be delivered
+     */
+    int getPending();
+
+    /**
+     * Stops delivery; updates still pending are discarded.
+     */
+    @Override
+    void close();
+}
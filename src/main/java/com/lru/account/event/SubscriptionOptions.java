@@ -0,0 +1,33 @@
+package com.lru.account.event;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class SubscriptionOptions {
+    public static final SubscriptionOptions DEFAULTS = SubscriptionOptions.builder().build();
+
+    /**
+     * Capacity of the subscriber's ring buffer, rounded up to a power of two.
+     */
+    @Builder.Default
+    private final int bufferSize = 1024;
+
+    /**
+     * Maximum number of updates handed to a batch listener at once.
+     */
+    @Builder.Default
+    private final int maxBatchSize = 1;
+
+    @Builder.Default
+    private final BackpressurePolicy backpressure = BackpressurePolicy.BLOCK;
+
+    /**
+     * Also deliver removed accounts, each as an account with its id and a
+     * {@code null} balance.
+     */
+    private final boolean removals;
+}
@@ -1,86 +1,406 @@
 package com.lru.account.lru;
 
 import com.lru.account.Account;
+import com.lru.account.AccountBatch;
+import com.lru.account.event.AccountUpdateDispatcher;
+import com.lru.account.stats.StatsCounter;
+import com.lru.account.wal.WriteAheadLog;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
-import java.util.Comparator;
-import java.util.Map;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+@Slf4j
 @Getter // debug to investigate the cache
-public class AccountLRUCacheThreadSafe implements Cache<Long, Account> {
+public class AccountLRUCacheThreadSafe implements Cache<Long, Account>, LongKeyedCache<Account> {
+    private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+    private static final int UNCHANGED = 0;
+    private static final int UPDATED = 1;
+    private static final int REJECTED = 2;
+    private static final int SKIPPED = 3;
+    private static final int DROPPED = 4;
+    private static final int DRAIN_THRESHOLD = 64;
+    private static final int RANGE_BATCH = 256;
+    private static final Account ANY = Account.builder().build();
+
     private final int size;
-    private final Map<Long, LinkedListNode<Account>> linkedListNodeMap;
-    private final DoublyLinkedList<Account> doublyLinkedList;
+    private final int entryLimit;
+    private final long maximumWeight;
+    private final AccountWeigher weigher;
+    private final LongHashIndex index;
+    private final SlotLruList lruList;
+    private final EvictionPolicy policy;
+    private final AccountStore store;
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    private final AtomicInteger hits = new AtomicInteger(0);
-    private final ConcurrentSkipListMap<Account, Long> tops;
-    private Consumer<Account> listener;
+    private final ReentrantLock[] stripes;
+    private final Queue<Account> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private final StatsCounter statsCounter;
+    private final boolean timed;
+    private final TopBalanceIndex tops;
+    private final BalanceRankIndex ranks;
+    private final ReadBuffer<Account> readBuffer = new ReadBuffer<>();
+    private final Consumer<Account> applyRead = this::applyRead;
+    private final AccountUpdateDispatcher dispatcher;
+    private final FrequencySketch sketch;
+    private final WriteAheadLog writeAheadLog;
+    private final ExpiryPolicy expiry;
+    private final long refreshAfterWriteNanos;
+    private final TimerWheel wheel;
+    private final LongSupplier ticker;
+    private final IntConsumer expire = this::expire;
+    private final BiConsumer<Account, RemovalCause> removalListener;
+    private int[] slotWeights;
+    private long weight;
 
     public AccountLRUCacheThreadSafe(int size) {
-        this.size = size;
-        this.linkedListNodeMap = new ConcurrentHashMap<>(size);
-        this.doublyLinkedList = new DoublyLinkedList<>();
-        this.tops = new ConcurrentSkipListMap<>(Comparator.comparing(Account::getBalance).reversed());
+        this(CacheSettings.builder().size(size).build());
+    }
+
+    public AccountLRUCacheThreadSafe(CacheSettings settings) {
+        this.size = settings.getSize();
+        this.maximumWeight = settings.getMaximumWeight();
+        this.weigher = this.maximumWeight > 0 ? settings.getWeigher() : null;
+        this.entryLimit = this.size > 0 || this.weigher == null ? this.size : Integer.MAX_VALUE;
+        int initialCapacity = Math.max(Math.min(this.size, MAX_INITIAL_CAPACITY), 16);
+        this.index = new LongHashIndex(initialCapacity);
+        this.store = switch (settings.getStorageMode()) {
+            case ON_HEAP -> new HeapAccountStore(initialCapacity);
+            case OFF_HEAP -> new OffHeapAccountStore(initialCapacity);
+        };
+        this.lruList = new SlotLruList(this.store.links());
+        this.policy = settings.getEviction().apply(this.lruList);
+        this.tops = new TopBalanceIndex(settings.getTopLimit());
+        this.ranks = settings.isRankIndex() ? new BalanceRankIndex(initialCapacity) : null;
+        this.statsCounter = settings.newStatsCounter();
+        this.timed = this.statsCounter.isEnabled();
+        this.dispatcher = settings.getDispatcher() != null ? settings.getDispatcher() : new AccountUpdateDispatcher(this.statsCounter);
+        this.sketch = settings.getAdmission() == AdmissionPolicy.TINY_LFU ? new FrequencySketch(this.expectedEntries()) : null;
+        this.writeAheadLog = settings.getWriteAheadLog();
+        this.expiry = settings.expiryPolicy();
+        this.refreshAfterWriteNanos = settings.getRefreshAfterWrite() != null
+            ? settings.getRefreshAfterWrite().toNanos() : TimerWheel.NEVER;
+        this.ticker = settings.getTicker();
+        boolean timesWrites = this.expiry != null || this.refreshAfterWriteNanos != TimerWheel.NEVER;
+        this.wheel = timesWrites ? new TimerWheel(initialCapacity, this.ticker.getAsLong()) : null;
+        this.removalListener = settings.getRemovalListener();
+        this.slotWeights = this.weigher != null ? new int[initialCapacity] : null;
+        this.stripes = new ReentrantLock[Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
     }
 
     @Override
     public boolean put(Long key, Account value) {
+        return this.write(key, value, ANY);
+    }
+
+    @Override
+    public boolean putIfAbsent(Long key, Account value) {
+        return this.write(key, value, null);
+    }
+
+    @Override
+    public boolean replace(Long key, Account expected, Account value) {
+        return this.write(key, value, expected);
+    }
+
+    /**
+     * Replaces the cached account without the cache lock: a lock striped by
+     * id orders the changes of each account, which writers of the id take
+     * too, and the slot is replaced only if no eviction or reuse of it
+     * happened since it was read. The change is logged and published at
+     * once; the LRU order, top-N index, expiration and weight catch up on the
+     * next maintenance, which {@link #getTop(int)} runs first.
+     */
+    @Override
+    public Account computeIfPresent(Long key, UnaryOperator<Account> remapping) {
+        Account result;
+        long sequence;
+        ReentrantLock stripe = this.stripe(key);
+        stripe.lock();
+        try {
+            int slot = this.index.get(key);
+            Account current = slot != LongHashIndex.NO_VALUE ? this.store.get(slot) : null;
+            if (current == null || current.getId() != (long) key
+                || (this.expiry != null && this.wheel.isExpired(slot, this.ticker.getAsLong()))) {
+                return null;
+            }
+            result = remapping.apply(current);
+            if (result == null || result.getBalance().compareTo(current.getBalance()) == 0) {
+                return current;
+            }
+            if (result.getId() != (long) key) {
+                throw new IllegalArgumentException("account " + result.getId() + " computed for id " + key);
+            }
+            if (!this.store.replace(slot, current, result)) {
+                // evicted, expired or removed meanwhile: puts of the id wait for the stripe, so it is not cached
+                return null;
+            }
+            this.statsCounter.recordUpdate();
+            this.dispatcher.publish(result);
+            sequence = this.log(result);
+            this.changes.offer(result);
+        } finally {
+            stripe.unlock();
+        }
+        this.awaitDurable(sequence);
+        this.dispatcher.awaitCapacity();
+        if (this.pendingChanges.incrementAndGet() >= DRAIN_THRESHOLD) {
+            this.tryToMaintain();
+        }
+        return result;
+    }
+
+    /**
+     * Puts the accounts under a single write lock acquisition, in iteration
+     * order, so the resulting LRU order is the same as calling
+     * {@link #put(Long, Account)} for each of them. Listeners receive the
+     * effective updates in one enqueue per subscriber.
+     */
+    @Override
+    public void putAll(Collection<? extends Account> values) {
+        List<Account> updated = new ArrayList<>(values.size());
+        long sequence = 0L;
+        this.lockTimed();
+        // the updates are published at the end, so no change may slip in between
+        this.lockStripes();
+        try {
+            this.maintain();
+            for (Account value : values) {
+                int result = this.putLocked(value.getId(), value);
+                if (result == DROPPED) {
+                    // published in order with the updates before it
+                    this.dispatcher.publishAll(updated);
+                    updated.clear();
+                    this.dispatcher.publishRemoval(value.getId());
+                    sequence = this.logRemoval(value.getId());
+                } else if (result != UNCHANGED) {
+                    updated.add(value);
+                    sequence = this.log(value);
+                }
+            }
+            this.dispatcher.publishAll(updated);
+            this.publishTops();
+        } finally {
+            this.unlockStripes();
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(sequence);
+        this.dispatcher.awaitCapacity();
+    }
+
+    /**
+     * Clears the cache and {@link #fill(Account[]) fills} it under one
+     * write lock acquisition.
+     */
+    @Override
+    public void bulkLoad(Collection<? extends Account> values) {
         this.lock.writeLock().lock();
         try {
-            LinkedListNode<Account> newNode;
-            if (this.linkedListNodeMap.containsKey(key)) {
-                LinkedListNode<Account> node = this.linkedListNodeMap.get(key);
-                if (node.getElement().getBalance().compareTo(value.getBalance()) != 0) {
-                    listener.accept(value);
-                    this.tops.remove(node.getElement());
-                    this.tops.put(value, value.getId());
+            this.clear();
+            this.fill(values.toArray(Account[]::new));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Bulk path of a cold start, for a cache nobody reads yet: the result is
+     * that of putting the accounts in order into an empty cache, but the
+     * accounts that would be evicted again are skipped instead of inserted,
+     * and nothing is counted, logged or published. The top-N index is built
+     * once at the end.
+     */
+    void fill(Account[] accounts) {
+        this.lock.writeLock().lock();
+        try {
+            if (this.lruList.size() > 0) {
+                throw new IllegalStateException("fill needs an empty cache");
+            }
+            // the last put of an id wins and the last puts are the most recently used: keep them, newest
+            // first, with the index telling the ids already seen apart until it maps them to their slots
+            int[] kept = new int[Math.min(accounts.length, this.entryLimit)];
+            BitSet overweight = new BitSet();
+            int count = 0;
+            long keptWeight = 0L;
+            for (int i = accounts.length - 1; i >= 0 && count < kept.length; i--) {
+                Account account = accounts[i];
+                if (this.index.containsKey(account.getId())) {
+                    continue;
                 }
-                newNode = doublyLinkedList.updateAndMoveToFront(node, value);
-            } else {
-                if (this.size() >= this.size) {
-                    this.evictElement();
+                if (this.weigher != null) {
+                    int weight = this.weigh(account);
+                    if (weight > this.maximumWeight) {
+                        // like a put outweighing the cache, which drops the older ones of the id too
+                        this.index.put(account.getId(), i);
+                        overweight.set(i);
+                        continue;
+                    }
+                    if (keptWeight + weight > this.maximumWeight) {
+                        break;
+                    }
+                    keptWeight += weight;
                 }
-                listener.accept(value);
-                this.tops.put(value, value.getId());
-                newNode = this.doublyLinkedList.add(value);
+                this.index.put(account.getId(), i);
+                kept[count++] = i;
             }
-            if (newNode.isEmpty()) {
-                return false;
+            for (int i = overweight.nextSetBit(0); i >= 0; i = overweight.nextSetBit(i + 1)) {
+                this.index.remove(accounts[i].getId());
             }
-            this.linkedListNodeMap.put(key, newNode);
-            return true;
+            // sized once, so that the slots never grow while filled
+            this.store.links().ensureCapacity(count);
+            int capacity = this.lruList.capacity();
+            this.ensureStoreCapacity(capacity);
+            if (this.wheel != null) {
+                this.wheel.ensureCapacity(capacity);
+            }
+            if (this.weigher != null) {
+                this.ensureWeightCapacity(capacity);
+            }
+            Account[] byBalance = this.ranks != null ? new Account[count] : null;
+            for (int k = count - 1; k >= 0; k--) {
+                Account account = accounts[kept[k]];
+                int slot = this.lruList.addFirst();
+                this.store.set(slot, account);
+                this.policy.onInsert(slot);
+                if (this.weigher != null) {
+                    this.slotWeights[slot] = this.weigh(account);
+                }
+                if (byBalance != null) {
+                    byBalance[k] = account;
+                }
+                this.scheduleWrite(slot, account);
+                this.index.put(account.getId(), slot);
+            }
+            if (byBalance != null) {
+                // sorting and building the treap at once beats inserting into it one by one
+                Arrays.sort(byBalance, TopBalanceIndex.ORDER);
+                int[] slots = new int[count];
+                for (int i = 0; i < count; i++) {
+                    slots[i] = this.index.get(byBalance[i].getId());
+                }
+                this.ranks.ensureCapacity(capacity);
+                this.ranks.build(slots, byBalance);
+            }
+            this.weight = keptWeight;
+            this.tops.rebuild();
+            for (int slot = lruList.head(); slot != SlotLruList.NIL; slot = lruList.next(slot)) {
+                this.tops.offer(store.get(slot));
+            }
+            this.tops.publish();
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Lock-free lookup: the hit is recorded in the read buffer and the LRU
+     * reordering is applied later in a batch, on the next write or when a
+     * buffer stripe fills up.
+     */
     @Override
     public Optional<Account> get(Long key) {
+        return Optional.ofNullable(this.getIfPresent(key));
+    }
+
+    /**
+     * Logs and publishes the removal like a put, so that it survives a
+     * restart and reaches the subscribers asking for removals.
+     */
+    @Override
+    public Account remove(Long key) {
+        return this.removeMatching(key, ANY);
+    }
+
+    @Override
+    public boolean remove(Long key, Account expected) {
+        return this.removeMatching(key, expected) != null;
+    }
+
+    @Override
+    public Account getIfPresent(long key) {
+        if (!this.timed) {
+            return this.find(key);
+        }
+        long start = System.nanoTime();
+        Account account = this.find(key);
+        this.statsCounter.recordGetLatency(System.nanoTime() - start);
+        return account;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        int slot = this.index.get(key);
+        Account account = slot != LongHashIndex.NO_VALUE ? this.store.get(slot) : null;
+        return account != null && account.getId() == key
+            && (this.expiry == null || !this.wheel.isExpired(slot, this.ticker.getAsLong()));
+    }
+
+    @Override
+    public boolean getBalanceInto(long key, BigDecimal[] into, int index) {
+        Account account = this.getIfPresent(key);
+        if (account == null) {
+            return false;
+        }
+        into[index] = account.getBalance();
+        return true;
+    }
+
+    @Override
+    public void getAll(long[] keys, AccountBatch into) {
+        into.reset(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            into.set(i, this.find(keys[i]));
+        }
+    }
+
+    @Override
+    public int size() {
         this.lock.readLock().lock();
         try {
-            LinkedListNode<Account> linkedListNode = this.linkedListNodeMap.get(key);
-            if (linkedListNode != null && !linkedListNode.isEmpty()) {
-                hits.incrementAndGet();
-                this.doublyLinkedList.moveToFront(linkedListNode);
-                return Optional.of(linkedListNode.getElement());
-            }
-            return Optional.empty();
+            return lruList.size();
         } finally {
             this.lock.readLock().unlock();
         }
     }
 
+    /**
+     * @return the total weight of the cached accounts, or their number if
+     * no maximum weight is set
+     */
     @Override
-    public int size() {
+    public long weightedSize() {
+        if (this.weigher == null) {
+            return size();
+        }
         this.lock.readLock().lock();
         try {
-            return doublyLinkedList.size();
+            return this.weight;
         } finally {
             this.lock.readLock().unlock();
         }
@@ -95,9 +415,43 @@ public class AccountLRUCacheThreadSafe implements Cache<Long, Account> {
     public void clear() {
         this.lock.writeLock().lock();
         try {
-            linkedListNodeMap.clear();
+            this.readBuffer.drainTo(account -> { });
+            this.drainChanges();
+            index.clear();
+            lruList.clear();
+            policy.clear();
             tops.clear();
-            doublyLinkedList.clear();
+            if (ranks != null) {
+                ranks.clear();
+            }
+            if (sketch != null) {
+                sketch.clear();
+            }
+            store.clear();
+            if (wheel != null) {
+                wheel.clear();
+            }
+            weight = 0L;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean needsRefresh(Long key) {
+        if (this.refreshAfterWriteNanos == TimerWheel.NEVER) {
+            return false;
+        }
+        int slot = this.index.get(key);
+        return slot != LongHashIndex.NO_VALUE
+            && this.ticker.getAsLong() - this.wheel.writeTime(slot) >= this.refreshAfterWriteNanos;
+    }
+
+    @Override
+    public void cleanUp() {
+        this.lock.writeLock().lock();
+        try {
+            this.maintain();
         } finally {
             this.lock.writeLock().unlock();
         }
@@ -105,25 +459,790 @@ public class AccountLRUCacheThreadSafe implements Cache<Long, Account> {
 
     @Override
     public int getHits() {
-        return this.hits.get();
+        return (int) this.statsCounter.hitCount();
     }
 
     @Override
     public void delegateListener(Consumer<Account> listener) {
-        this.listener = listener;
+        this.dispatcher.subscribe(listener);
     }
 
-    private void evictElement() {
+    @Override
+    public void close() {
+        this.dispatcher.close();
+    }
+
+    /**
+     * Served from the top-N index without locking when {@code limit} is
+     * within {@link CacheSettings#getTopLimit()}, otherwise by a full scan.
+     */
+    @Override
+    public List<Account> getTop(int limit) {
+        List<Account> top = this.topCandidates(limit);
+        return limit < top.size() ? top.subList(0, limit) : top;
+    }
+
+    @Override
+    public int getTopInto(Account[] into) {
+        List<Account> top = this.topCandidates(into.length);
+        int count = Math.min(into.length, top.size());
+        for (int i = 0; i < count; i++) {
+            into[i] = top.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the top {@code limit} accounts, best first, possibly followed
+     * by the next ones
+     */
+    List<Account> topCandidates(int limit) {
+        this.catchUp();
+        List<Account> top = this.tops.snapshot();
+        if (limit <= top.size()) {
+            return top;
+        }
+        this.lock.readLock().lock();
+        try {
+            if (top.size() >= this.lruList.size()) {
+                return this.tops.snapshot();
+            }
+            if (this.ranks != null) {
+                Account[] selected = new Account[Math.min(limit, this.ranks.size())];
+                for (int i = 0; i < selected.length; i++) {
+                    selected[i] = this.store.get(this.ranks.select(i));
+                }
+                return List.of(selected);
+            }
+            List<Account> all = new ArrayList<>(this.lruList.size());
+            for (int slot = lruList.head(); slot != SlotLruList.NIL; slot = lruList.next(slot)) {
+                all.add(store.get(slot));
+            }
+            all.sort(TopBalanceIndex.ORDER);
+            return List.copyOf(all.subList(0, Math.min(limit, all.size())));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long countWithBalanceAbove(BigDecimal balance) {
+        BalanceRankIndex ranks = this.rankIndex();
+        this.lock.readLock().lock();
+        try {
+            return ranks.countAbove(balance);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Each batch of {@value #RANGE_BATCH} accounts is read under the read
+     * lock, resuming after the last account returned.
+     */
+    @Override
+    public Stream<Account> getWithBalanceBetween(BigDecimal min, BigDecimal max) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this.rangeIterator(min, max),
+            Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public long rankOf(Long key) {
+        BalanceRankIndex ranks = this.rankIndex();
+        this.lock.readLock().lock();
+        try {
+            int slot = this.index.get(key);
+            return slot != LongHashIndex.NO_VALUE ? ranks.rank(slot) + 1 : 0;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Account getAtPercentile(double percentile) {
+        BalanceRankIndex ranks = this.rankIndex();
+        this.lock.readLock().lock();
+        try {
+            int size = ranks.size();
+            long rank = nearestRank(percentile, size);
+            return size == 0 ? null : this.store.get(ranks.select(size - (int) rank));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the one-based position, counted from the smallest balance, of
+     * the value at the percentile
+     */
+    static long nearestRank(double percentile, long size) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile must be within [0, 100]: " + percentile);
+        }
+        return Math.max(1L, (long) Math.ceil(percentile / 100 * size));
+    }
+
+    int rankedSize() {
+        BalanceRankIndex ranks = this.rankIndex();
+        this.lock.readLock().lock();
+        try {
+            return ranks.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of accounts ordered before the given balance and
+     * id in {@link TopBalanceIndex#ORDER}
+     */
+    int countBefore(BigDecimal balance, long id) {
+        BalanceRankIndex ranks = this.rankIndex();
+        this.lock.readLock().lock();
+        try {
+            return ranks.countBefore(balance, id);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the account at the zero-based position in
+     * {@link TopBalanceIndex#ORDER}, or {@code null}
+     */
+    Account select(int position) {
+        BalanceRankIndex ranks = this.rankIndex();
+        this.lock.readLock().lock();
+        try {
+            int slot = ranks.select(position);
+            return slot != BalanceRankIndex.NIL ? this.store.get(slot) : null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Account peek(long key) {
+        int slot = this.index.get(key);
+        Account account = slot != LongHashIndex.NO_VALUE ? this.store.get(slot) : null;
+        return account != null && account.getId() == key
+            && (this.expiry == null || !this.wheel.isExpired(slot, this.ticker.getAsLong())) ? account : null;
+    }
+
+    Iterator<Account> rangeIterator(BigDecimal min, BigDecimal max) {
+        this.rankIndex();
+        return new RangeIterator(min, max);
+    }
+
+    /**
+     * Only copies the references under the write lock, so writers wait for
+     * one pass over the LRU list rather than for whatever the caller does
+     * with the accounts.
+     */
+    @Override
+    public List<Account> snapshot() {
         this.lock.writeLock().lock();
         try {
-            LinkedListNode<Account> linkedListNode = doublyLinkedList.removeTail();
-            if (linkedListNode.isEmpty()) {
-                return;
+            this.maintain();
+            Account[] accounts = new Account[this.lruList.size()];
+            int i = 0;
+            for (int slot = lruList.head(); slot != SlotLruList.NIL; slot = lruList.next(slot)) {
+                accounts[i++] = store.get(slot);
+            }
+            return Arrays.asList(accounts);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Spliterator<Account> spliterator() {
+        return new ScanSpliterator(new AccountLRUCacheThreadSafe[]{this});
+    }
+
+    /**
+     * @return the account in the slot unless it is free or expired, read
+     * without a lock and without recording a use
+     */
+    Account scan(int slot) {
+        Account account = this.store.get(slot);
+        if (account != null && this.expiry != null && this.wheel.isExpired(slot, this.ticker.getAsLong())) {
+            return null;
+        }
+        return account;
+    }
+
+    /**
+     * @return a bound of the slots {@link #scan(int)} may find an account
+     * in, read without a lock
+     */
+    int scanLimit() {
+        return this.store.allocatedSlots();
+    }
+
+    /**
+     * Visits the cached accounts from the most to the least recently used
+     * one, without changing their order.
+     */
+    public void forEach(Consumer<? super Account> action) {
+        this.lock.writeLock().lock();
+        try {
+            this.maintain();
+            for (int slot = lruList.head(); slot != SlotLruList.NIL; slot = lruList.next(slot)) {
+                action.accept(store.get(slot));
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Looks the account up and records the hit or miss. With an
+     * {@link ExpiryPolicy}, expired accounts are misses and a hit moves the
+     * deadline at once; the timer wheel catches up when the read is applied.
+     */
+    Account find(long key) {
+        int slot = this.index.get(key);
+        Account account = slot != LongHashIndex.NO_VALUE ? this.store.get(slot) : null;
+        // the slot may have been evicted and reused since the index was read
+        if (account == null || account.getId() != key) {
+            this.statsCounter.recordMisses(1);
+            return null;
+        }
+        if (this.expiry != null) {
+            long now = this.ticker.getAsLong();
+            if (this.wheel.isExpired(slot, now)) {
+                this.statsCounter.recordMisses(1);
+                return null;
+            }
+            long deadline = this.wheel.deadline(slot);
+            long remaining = deadline == TimerWheel.NEVER ? TimerWheel.NEVER : deadline - now;
+            long extended = this.expiry.expireAfterRead(account, remaining, now - this.wheel.writeTime(slot));
+            if (extended != remaining) {
+                long moved = deadline(now, extended);
+                if (this.wheel.touch(slot, deadline, moved)) {
+                    Account cached = this.store.get(slot);
+                    if (cached == null || cached.getId() != key) {
+                        // reused in between, by an account that may have the same deadline: give it back
+                        this.wheel.touch(slot, moved, deadline);
+                    }
+                }
+            }
+        }
+        this.statsCounter.recordHits(1);
+        // the frequency sketch and expiry want every hit replayed under the lock, whatever the policy
+        boolean buffered = this.policy.recordHit(slot) || this.sketch != null || this.expiry != null;
+        if (buffered && this.readBuffer.offer(account) == ReadBuffer.FULL) {
+            this.tryToMaintain();
+        }
+        return account;
+    }
+
+    /**
+     * @param expected {@link #ANY} for an unconditional put, {@code null} to
+     * put only an absent account, or the account whose balance must still
+     * be cached
+     */
+    private boolean write(long key, Account value, Account expected) {
+        int result;
+        long sequence = 0L;
+        long start = this.lockTimed();
+        ReentrantLock stripe = this.stripe(key);
+        stripe.lock();
+        try {
+            this.maintain();
+            result = this.matches(key, expected) ? this.putLocked(key, value) : SKIPPED;
+            if (result == UPDATED || result == REJECTED) {
+                this.dispatcher.publish(value);
+                sequence = this.log(value);
+            } else if (result == DROPPED) {
+                this.dispatcher.publishRemoval(key);
+                sequence = this.logRemoval(key);
             }
-            linkedListNodeMap.remove(linkedListNode.getElement().getId());
-            tops.remove(linkedListNode.getElement());
+            this.publishTops();
         } finally {
+            stripe.unlock();
             this.lock.writeLock().unlock();
         }
+        // with a write-ahead log, the sync is awaited outside the lock so that concurrent puts share it,
+        // and so is room in the subscribers' buffers, so that a slow listener stalls its publishers only
+        this.awaitDurable(sequence);
+        this.dispatcher.awaitCapacity();
+        if (this.timed) {
+            this.statsCounter.recordPutLatency(System.nanoTime() - start);
+        }
+        return result == UPDATED || result == UNCHANGED;
+    }
+
+    private boolean matches(long key, Account expected) {
+        if (expected == ANY) {
+            return true;
+        }
+        int slot = this.index.get(key);
+        boolean present = slot != LongHashIndex.NO_VALUE
+            && (this.wheel == null || !this.wheel.isExpired(slot, this.ticker.getAsLong()));
+        if (expected == null) {
+            return !present;
+        }
+        return present && this.store.get(slot).getBalance().compareTo(expected.getBalance()) == 0;
+    }
+
+    /**
+     * @param expected {@link #ANY}, or the account whose balance must still
+     * be cached
+     */
+    private Account removeMatching(long key, Account expected) {
+        Account account;
+        long sequence;
+        this.lockTimed();
+        ReentrantLock stripe = this.stripe(key);
+        stripe.lock();
+        try {
+            this.maintain();
+            int slot = this.index.get(key);
+            if (slot == LongHashIndex.NO_VALUE || !this.matches(key, expected)) {
+                return null;
+            }
+            account = this.store.get(slot);
+            this.remove(slot, RemovalCause.EXPLICIT);
+            this.dispatcher.publishRemoval(key);
+            sequence = this.logRemoval(key);
+            this.publishTops();
+        } finally {
+            stripe.unlock();
+            this.lock.writeLock().unlock();
+        }
+        this.awaitDurable(sequence);
+        this.dispatcher.awaitCapacity();
+        return account;
+    }
+
+    /**
+     * @return {@link #UPDATED} if the account is new or its balance changed,
+     * {@link #REJECTED} if the admission policy kept a new account out (its
+     * listeners are still notified), {@link #DROPPED} if an update outweighs
+     * the whole cache and its account was evicted instead, or
+     * {@link #UNCHANGED}
+     */
+    private int putLocked(long key, Account value) {
+        if (this.sketch != null) {
+            this.sketch.increment(key);
+        }
+        int slot = this.index.get(key);
+        int weight = this.weigh(value);
+        if (slot != LongHashIndex.NO_VALUE) {
+            if (this.weigher != null && weight > this.maximumWeight) {
+                // like an overweight new account, which is never cached
+                this.remove(slot, RemovalCause.EVICTED);
+                return DROPPED;
+            }
+            Account current = this.store.get(slot);
+            this.store.set(slot, value);
+            this.policy.onUpdate(slot);
+            this.scheduleWrite(slot, value);
+            if (this.weigher != null) {
+                this.weight += weight - this.slotWeights[slot];
+                this.slotWeights[slot] = weight;
+                this.evictOverweight(slot);
+            }
+            if (current.getBalance().compareTo(value.getBalance()) == 0) {
+                return UNCHANGED;
+            }
+            if (this.ranks != null) {
+                this.ranks.update(slot, key, value.getBalance());
+            }
+            this.statsCounter.recordUpdate();
+        } else {
+            if (this.weigher != null && weight > this.maximumWeight) {
+                this.statsCounter.recordRejection();
+                return REJECTED;
+            }
+            if (this.isFull(weight)) {
+                if (!this.admit(key)) {
+                    this.statsCounter.recordRejection();
+                    return REJECTED;
+                }
+                do {
+                    this.evictElement();
+                } while (this.isFull(weight) && this.lruList.size() > 0);
+            }
+            slot = this.lruList.addFirst();
+            this.ensureStoreCapacity(this.lruList.capacity());
+            this.store.set(slot, value);
+            this.policy.onInsert(slot);
+            if (this.wheel != null) {
+                this.wheel.ensureCapacity(this.lruList.capacity());
+            }
+            if (this.weigher != null) {
+                this.ensureWeightCapacity(this.lruList.capacity());
+                this.slotWeights[slot] = weight;
+                this.weight += weight;
+            }
+            if (this.ranks != null) {
+                this.ranks.ensureCapacity(this.lruList.capacity());
+                this.ranks.update(slot, key, value.getBalance());
+            }
+            this.scheduleWrite(slot, value);
+            this.index.put(key, slot);
+            this.statsCounter.recordInsertion();
+        }
+        this.tops.update(value, this.lruList.size());
+        return UPDATED;
+    }
+
+    /**
+     * Evicts the policy's victims while over the maximum weight, sparing
+     * the last account and the one in {@code spared}, e.g. the account
+     * being put, which is indexed again after the eviction. A policy
+     * choosing the spared slot is passed an access so that it moves on.
+     *
+     * @param spared the slot never to evict, or {@link SlotLruList#NIL}
+     */
+    private void evictOverweight(int spared) {
+        while (this.weigher != null && this.weight > this.maximumWeight && this.lruList.size() > 1) {
+            int slot = this.policy.victim();
+            if (slot == spared) {
+                this.policy.onAccess(spared);
+                slot = this.policy.victim();
+            }
+            if (slot == SlotLruList.NIL || slot == spared) {
+                return;
+            }
+            this.remove(slot, RemovalCause.EVICTED);
+        }
+    }
+
+    private boolean isFull(int incomingWeight) {
+        return this.lruList.size() >= this.entryLimit
+            || (this.weigher != null && this.weight + incomingWeight > this.maximumWeight);
+    }
+
+    private int weigh(Account value) {
+        if (this.weigher == null) {
+            return 1;
+        }
+        int weight = this.weigher.weigh(value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("negative weight " + weight + " for account " + value.getId());
+        }
+        return weight;
+    }
+
+    /**
+     * Grows the store with every stripe held, since a
+     * {@link #computeIfPresent} replacing an account in the old slots would
+     * be lost.
+     */
+    private void ensureStoreCapacity(int capacity) {
+        if (capacity > this.store.allocatedSlots()) {
+            this.lockStripes();
+            try {
+                this.store.ensureCapacity(capacity);
+            } finally {
+                this.unlockStripes();
+            }
+        }
+    }
+
+    private void ensureWeightCapacity(int capacity) {
+        if (capacity > this.slotWeights.length) {
+            this.slotWeights = Arrays.copyOf(this.slotWeights, Math.max(capacity, this.slotWeights.length * 2));
+        }
+    }
+
+    /**
+     * @return the number of accounts the cache holds when full; weighted
+     * caches are assumed to hold about 128 bytes per account
+     */
+    private int expectedEntries() {
+        if (this.weigher == null || this.size > 0) {
+            return this.size;
+        }
+        return (int) Math.min(this.maximumWeight >>> 7, 1 << 24);
+    }
+
+    /**
+     * TinyLFU: the candidate replaces the policy's victim only if it was used
+     * more often recently. A warm candidate is occasionally admitted anyway
+     * so that an attacker cannot pin the victim by colliding in the sketch.
+     */
+    private boolean admit(long candidate) {
+        int victimSlot = this.policy.victim();
+        if (this.sketch == null || victimSlot == SlotLruList.NIL) {
+            return true;
+        }
+        int candidateFrequency = this.sketch.frequency(candidate);
+        int victimFrequency = this.sketch.frequency(this.store.get(victimSlot).getId());
+        if (candidateFrequency > victimFrequency) {
+            return true;
+        }
+        return candidateFrequency >= 6 && ThreadLocalRandom.current().nextInt(128) == 0;
+    }
+
+    private ReentrantLock stripe(long key) {
+        return this.stripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (this.stripes.length - 1)];
+    }
+
+    private void lockStripes() {
+        for (ReentrantLock stripe : this.stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void unlockStripes() {
+        for (ReentrantLock stripe : this.stripes) {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Takes the write lock, recording the wait when statistics are enabled.
+     *
+     * @return the time the wait started, if timed
+     */
+    private long lockTimed() {
+        if (!this.timed) {
+            this.lock.writeLock().lock();
+            return 0L;
+        }
+        long start = System.nanoTime();
+        this.lock.writeLock().lock();
+        this.statsCounter.recordLockWait(System.nanoTime() - start);
+        return start;
+    }
+
+    private long log(Account value) {
+        return this.writeAheadLog != null ? this.writeAheadLog.append(value) : 0L;
+    }
+
+    private long logRemoval(long key) {
+        return this.writeAheadLog != null ? this.writeAheadLog.appendRemoval(key) : 0L;
+    }
+
+    private void awaitDurable(long sequence) {
+        if (sequence != 0L) {
+            this.writeAheadLog.awaitDurable(sequence);
+        }
+    }
+
+    private void scheduleWrite(int slot, Account value) {
+        if (this.wheel == null) {
+            return;
+        }
+        long now = this.ticker.getAsLong();
+        this.wheel.setWriteTime(slot, now);
+        if (this.expiry != null) {
+            this.wheel.schedule(slot, deadline(now, this.expiry.expireAfterWrite(value)));
+        }
+    }
+
+    private static long deadline(long now, long duration) {
+        return duration == TimerWheel.NEVER ? TimerWheel.NEVER : now + Math.max(duration, 0L);
+    }
+
+    /**
+     * Applies the pending {@link #computeIfPresent} changes, and expires
+     * accounts if nobody else is maintaining, before a query of the indexes.
+     */
+    private void catchUp() {
+        if (!this.changes.isEmpty()) {
+            this.lock.writeLock().lock();
+            try {
+                this.maintain();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        } else if (this.expiry != null) {
+            this.tryToMaintain();
+        }
+    }
+
+    private BalanceRankIndex rankIndex() {
+        if (this.ranks == null) {
+            throw new IllegalStateException("balance queries need CacheSettings.rankIndex");
+        }
+        this.catchUp();
+        return this.ranks;
+    }
+
+    private void tryToMaintain() {
+        if (this.lock.writeLock().tryLock()) {
+            try {
+                this.maintain();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies the buffered reads and removes the expired accounts.
+     */
+    private void maintain() {
+        this.readBuffer.drainTo(this.applyRead);
+        this.drainChanges();
+        if (this.expiry != null) {
+            this.wheel.advance(this.ticker.getAsLong(), this.expire);
+            this.publishTops();
+        }
+    }
+
+    private void applyRead(Account account) {
+        if (this.sketch != null) {
+            this.sketch.increment(account.getId());
+        }
+        int slot = this.index.get(account.getId());
+        // the account may have been evicted since the read was recorded
+        if (slot != LongHashIndex.NO_VALUE) {
+            this.policy.onAccess(slot);
+            if (this.expiry != null) {
+                this.wheel.reschedule(slot);
+            }
+        }
+    }
+
+    /**
+     * Applies the bookkeeping of the {@link #computeIfPresent} changes, in
+     * order: a changed account counts as used and as written. Every writer
+     * drains the changes before evicting, so the queued accounts are still
+     * cached.
+     */
+    private void drainChanges() {
+        int drained = 0;
+        for (Account account; (account = this.changes.poll()) != null; drained++) {
+            int slot = this.index.get(account.getId());
+            if (slot == LongHashIndex.NO_VALUE) {
+                continue;
+            }
+            this.policy.onAccess(slot);
+            this.scheduleWrite(slot, account);
+            if (this.weigher != null) {
+                int weight = this.weigh(account);
+                if (weight > this.maximumWeight && this.store.get(slot).getBalance().compareTo(account.getBalance()) == 0) {
+                    this.remove(slot, RemovalCause.EVICTED);
+                    this.dispatcher.publishRemoval(account.getId());
+                    continue;
+                }
+                this.weight += weight - this.slotWeights[slot];
+                this.slotWeights[slot] = weight;
+            }
+            this.tops.update(account, this.lruList.size());
+            if (this.ranks != null) {
+                this.ranks.update(slot, account.getId(), account.getBalance());
+            }
+        }
+        if (drained > 0) {
+            this.pendingChanges.addAndGet(-drained);
+            this.evictOverweight(SlotLruList.NIL);
+            this.publishTops();
+        }
+    }
+
+    private void evictElement() {
+        int slot = policy.victim();
+        if (slot != SlotLruList.NIL) {
+            remove(slot, RemovalCause.EVICTED);
+        }
+    }
+
+    private void expire(int slot) {
+        remove(slot, RemovalCause.EXPIRED);
+    }
+
+    private void remove(int slot, RemovalCause cause) {
+        Account victim = store.get(slot);
+        index.remove(victim.getId());
+        policy.onRemove(slot);
+        lruList.remove(slot);
+        store.remove(slot);
+        tops.remove(victim.getId());
+        if (ranks != null) {
+            ranks.remove(slot);
+        }
+        if (wheel != null) {
+            wheel.unlink(slot);
+        }
+        if (weigher != null) {
+            weight -= slotWeights[slot];
+        }
+        if (cause != RemovalCause.EXPLICIT) {
+            statsCounter.recordEviction();
+        }
+        if (removalListener != null) {
+            try {
+                removalListener.accept(victim, cause);
+            } catch (RuntimeException e) {
+                log.error("Removal listener failed", e);
+            }
+        }
+    }
+
+    private void publishTops() {
+        if (tops.needsRebuild(lruList.size())) {
+            tops.rebuild();
+            for (int slot = lruList.head(); slot != SlotLruList.NIL; slot = lruList.next(slot)) {
+                tops.offer(store.get(slot));
+            }
+        }
+        tops.publish();
+    }
+
+    /**
+     * Walks the accounts with a balance from {@code min} to {@code max} in
+     * batches, resuming after the balance and id last read so that
+     * concurrent writes neither break nor repeat the iteration.
+     */
+    private final class RangeIterator implements Iterator<Account> {
+        private final BigDecimal min;
+        private final BigDecimal max;
+        private final Account[] batch = new Account[RANGE_BATCH];
+        private int position;
+        private int length;
+        private BigDecimal lastBalance;
+        private long lastId;
+        private boolean exhausted;
+
+        RangeIterator(BigDecimal min, BigDecimal max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (position == length && !exhausted) {
+                fill();
+            }
+            return position < length;
+        }
+
+        @Override
+        public Account next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Account account = batch[position];
+            batch[position++] = null;
+            return account;
+        }
+
+        private void fill() {
+            catchUp();
+            position = 0;
+            length = 0;
+            lock.readLock().lock();
+            try {
+                int slot = lastBalance == null ? ranks.ceiling(max, Long.MIN_VALUE, true)
+                    : ranks.ceiling(lastBalance, lastId, false);
+                while (slot != BalanceRankIndex.NIL && length < batch.length && ranks.balance(slot).compareTo(min) >= 0) {
+                    batch[length++] = store.get(slot);
+                    lastBalance = ranks.balance(slot);
+                    lastId = ranks.id(slot);
+                    slot = ranks.ceiling(lastBalance, lastId, false);
+                }
+                exhausted = length < batch.length;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
     }
 }
@@ -0,0 +1,46 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+/**
+ * Slot-addressed storage for the cached accounts. Writes are serialized by
+ * the cache write lock, except {@link #replace(int, Account, Account)};
+ * {@link #get(int)} may be called concurrently without a lock and must
+ * return a consistent account or {@code null}.
+ */
+public interface AccountStore {
+
+    /**
+     * @return the links for the LRU list over this store's slots
+     */
+    SlotLinks links();
+
+    void ensureCapacity(int minCapacity);
+
+    /**
+     * @return the number of slots allocated so far, read without a lock;
+     * every slot at or above it is free
+     */
+    int allocatedSlots();
+
+    /**
+     * @return the account in the slot, or {@code null} if the slot is free
+     */
+    Account get(int slot);
+
+    void set(int slot, Account account);
+
+    /**
+     * Sets the slot only if it still holds {@code expected}, as returned by
+     * {@link #get(int)}, atomically with respect to every other write of
+     * the slot. May be called without the cache write lock, but not while
+     * the store grows.
+     *
+     * @return {@code false} if the slot was set or removed in between
+     */
+    boolean replace(int slot, Account expected, Account account);
+
+    void remove(int slot);
+
+    void clear();
+}
@@ -0,0 +1,17 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+/**
+ * Weight of a cached account, counted against
+ * {@link CacheSettings#getMaximumWeight()}. It is computed once when the
+ * account is put.
+ */
+@FunctionalInterface
+public interface AccountWeigher {
+
+    /**
+     * @return a non-negative weight, e.g. an estimate in bytes
+     */
+    int weigh(Account account);
+}
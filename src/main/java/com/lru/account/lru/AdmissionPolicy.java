@@ -0,0 +1,15 @@
+package com.lru.account.lru;
+
+public enum AdmissionPolicy {
+    /**
+     * Every new account is cached, evicting the victim of the
+     * {@link EvictionPolicy}.
+     */
+    ALWAYS,
+    /**
+     * A new account only replaces the eviction victim if it has been used
+     * more often recently, according to a {@link FrequencySketch}, so
+     * one-off scans cannot flush the hot working set.
+     */
+    TINY_LFU
+}
@@ -0,0 +1,308 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Order-statistic index of the cached accounts in {@link TopBalanceIndex#ORDER},
+ * largest balance first and ties by id, answering counts, ranks and
+ * selections in O(log n). It is a treap whose nodes are the cache slots:
+ * children, subtree sizes, priorities and the indexed balance and id live in
+ * per-slot arrays, so indexing an account allocates nothing.
+ * <p>
+ * Mutations are serialized by the cache write lock; queries need the read
+ * lock.
+ */
+public class BalanceRankIndex {
+    public static final int NIL = -1;
+
+    private int[] left;
+    private int[] right;
+    private int[] counts;
+    private int[] priorities;
+    private long[] ids;
+    private BigDecimal[] balances;
+    private int root = NIL;
+    private int splitLeft;
+    private int splitRight;
+
+    public BalanceRankIndex(int capacity) {
+        this.left = new int[0];
+        this.right = new int[0];
+        this.counts = new int[0];
+        this.priorities = new int[0];
+        this.ids = new long[0];
+        this.balances = new BigDecimal[0];
+        ensureCapacity(capacity);
+    }
+
+    public void ensureCapacity(int slots) {
+        int length = balances.length;
+        if (slots <= length) {
+            return;
+        }
+        int grown = Math.max(slots, length + (length >>> 1));
+        left = Arrays.copyOf(left, grown);
+        right = Arrays.copyOf(right, grown);
+        counts = Arrays.copyOf(counts, grown);
+        priorities = Arrays.copyOf(priorities, grown);
+        ids = Arrays.copyOf(ids, grown);
+        balances = Arrays.copyOf(balances, grown);
+    }
+
+    public int size() {
+        return count(root);
+    }
+
+    public long id(int slot) {
+        return ids[slot];
+    }
+
+    public BigDecimal balance(int slot) {
+        return balances[slot];
+    }
+
+    /**
+     * Indexes the account in the slot, replacing what the slot held.
+     */
+    public void update(int slot, long id, BigDecimal balance) {
+        if (balances[slot] != null) {
+            remove(slot);
+        }
+        ids[slot] = id;
+        balances[slot] = balance;
+        left[slot] = NIL;
+        right[slot] = NIL;
+        counts[slot] = 1;
+        priorities[slot] = ThreadLocalRandom.current().nextInt();
+        root = insert(root, slot);
+    }
+
+    public void remove(int slot) {
+        if (balances[slot] == null) {
+            return;
+        }
+        root = remove(root, slot);
+        balances[slot] = null;
+    }
+
+    public void clear() {
+        root = NIL;
+        Arrays.fill(balances, null);
+    }
+
+    /**
+     * Replaces the contents in linear time with accounts already sorted in
+     * {@link TopBalanceIndex#ORDER}: the treap is the Cartesian tree of their
+     * priorities, built left to right on a stack of its right spine.
+     *
+     * @param slots the slot of each account
+     */
+    public void build(int[] slots, Account[] sorted) {
+        clear();
+        int[] spine = new int[sorted.length];
+        int top = -1;
+        for (int i = 0; i < sorted.length; i++) {
+            int slot = slots[i];
+            ids[slot] = sorted[i].getId();
+            balances[slot] = sorted[i].getBalance();
+            priorities[slot] = ThreadLocalRandom.current().nextInt();
+            right[slot] = NIL;
+            int last = NIL;
+            while (top >= 0 && priorities[spine[top]] < priorities[slot]) {
+                last = spine[top--];
+            }
+            left[slot] = last;
+            if (top >= 0) {
+                right[spine[top]] = slot;
+            }
+            spine[++top] = slot;
+        }
+        root = top >= 0 ? spine[0] : NIL;
+        pullAll(root);
+    }
+
+    /**
+     * @return the number of accounts with a balance greater than {@code balance}
+     */
+    public int countAbove(BigDecimal balance) {
+        int count = 0;
+        int node = root;
+        while (node != NIL) {
+            if (balances[node].compareTo(balance) > 0) {
+                count += count(left[node]) + 1;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of accounts ordered before the given balance and id
+     */
+    public int countBefore(BigDecimal balance, long id) {
+        int count = 0;
+        int node = root;
+        while (node != NIL) {
+            if (compare(node, balance, id) < 0) {
+                count += count(left[node]) + 1;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the zero-based position of the slot's account
+     */
+    public int rank(int slot) {
+        return countBefore(balances[slot], ids[slot]);
+    }
+
+    /**
+     * @return the slot at the zero-based position, or {@link #NIL}
+     */
+    public int select(int position) {
+        if (position < 0 || position >= size()) {
+            return NIL;
+        }
+        int node = root;
+        while (true) {
+            int before = count(left[node]);
+            if (position < before) {
+                node = left[node];
+            } else if (position == before) {
+                return node;
+            } else {
+                position -= before + 1;
+                node = right[node];
+            }
+        }
+    }
+
+    /**
+     * @return the first slot ordered at or after ({@code inclusive}) or
+     * strictly after the given balance and id, or {@link #NIL}
+     */
+    public int ceiling(BigDecimal balance, long id, boolean inclusive) {
+        int found = NIL;
+        int node = root;
+        while (node != NIL) {
+            int comparison = compare(node, balance, id);
+            if (comparison > 0 || (inclusive && comparison == 0)) {
+                found = node;
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return found;
+    }
+
+    private int insert(int node, int slot) {
+        if (node == NIL) {
+            return slot;
+        }
+        if (priorities[slot] > priorities[node]) {
+            split(node, slot);
+            left[slot] = splitLeft;
+            right[slot] = splitRight;
+            pull(slot);
+            return slot;
+        }
+        if (compare(slot, balances[node], ids[node]) < 0) {
+            left[node] = insert(left[node], slot);
+        } else {
+            right[node] = insert(right[node], slot);
+        }
+        pull(node);
+        return node;
+    }
+
+    /**
+     * Splits the subtree into the nodes before and after the slot's
+     * account, left in {@link #splitLeft} and {@link #splitRight}.
+     */
+    private void split(int node, int slot) {
+        if (node == NIL) {
+            splitLeft = NIL;
+            splitRight = NIL;
+        } else if (compare(node, balances[slot], ids[slot]) < 0) {
+            split(right[node], slot);
+            right[node] = splitLeft;
+            pull(node);
+            splitLeft = node;
+        } else {
+            split(left[node], slot);
+            left[node] = splitRight;
+            pull(node);
+            splitRight = node;
+        }
+    }
+
+    private int remove(int node, int slot) {
+        if (node == slot) {
+            return merge(left[node], right[node]);
+        }
+        if (compare(slot, balances[node], ids[node]) < 0) {
+            left[node] = remove(left[node], slot);
+        } else {
+            right[node] = remove(right[node], slot);
+        }
+        pull(node);
+        return node;
+    }
+
+    /**
+     * Joins two subtrees whose nodes in {@code first} all come before the
+     * nodes in {@code second}.
+     */
+    private int merge(int first, int second) {
+        if (first == NIL) {
+            return second;
+        }
+        if (second == NIL) {
+            return first;
+        }
+        if (priorities[first] > priorities[second]) {
+            right[first] = merge(right[first], second);
+            pull(first);
+            return first;
+        }
+        left[second] = merge(first, left[second]);
+        pull(second);
+        return second;
+    }
+
+    private int compare(int node, BigDecimal balance, long id) {
+        int comparison = balance.compareTo(balances[node]);
+        return comparison != 0 ? comparison : Long.compare(ids[node], id);
+    }
+
+    /**
+     * Computes the subtree sizes bottom-up; the recursion is as deep as the
+     * treap, O(log n) expected.
+     */
+    private int pullAll(int node) {
+        if (node == NIL) {
+            return 0;
+        }
+        counts[node] = pullAll(left[node]) + pullAll(right[node]) + 1;
+        return counts[node];
+    }
+
+    private void pull(int node) {
+        counts[node] = count(left[node]) + count(right[node]) + 1;
+    }
+
+    private int count(int node) {
+        return node == NIL ? 0 : counts[node];
+    }
+}
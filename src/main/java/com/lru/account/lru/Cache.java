@@ -1,24 +1,182 @@
 package com.lru.account.lru;
 
 import com.lru.account.Account;
+import com.lru.account.AccountBatch;
+import com.lru.account.event.AccountUpdateDispatcher;
+import com.lru.account.stats.StatsCounter;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
 import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
-public interface Cache<K, V> {
+public interface Cache<K, V> extends AutoCloseable {
 
     boolean put(K key, V value);
 
+    /**
+     * Puts the value only if no value is cached for the key, e.g. for a
+     * value loaded after a miss that must not overwrite a concurrent put.
+     *
+     * @return {@code true} if the value was cached
+     */
+    boolean putIfAbsent(K key, V value);
+
+    /**
+     * Puts the value only if the cached value for the key still has the
+     * balance of {@code expected}, e.g. for a value reloaded in the
+     * background.
+     *
+     * @return {@code true} if the value was cached
+     */
+    boolean replace(K key, V expected, V value);
+
+    /**
+     * Atomically replaces the cached value with the result of
+     * {@code remapping}, which runs once while the key is locked and must
+     * not call back into the cache. A {@code null} result or one with an
+     * equal balance leaves the value as it is.
+     *
+     * @return the value now cached, or {@code null} if none was
+     */
+    V computeIfPresent(K key, UnaryOperator<V> remapping);
+
     Optional<V> get(K key);
 
+    /**
+     * Removes the value for the key, logging the removal like a put.
+     *
+     * @return the removed value, or {@code null} if none was cached
+     */
+    V remove(K key);
+
+    /**
+     * Removes the value only if it still has the balance of
+     * {@code expected}, e.g. for a value copied elsewhere that must not
+     * take a concurrent put with it.
+     *
+     * @return {@code true} if the value was removed
+     */
+    boolean remove(K key, V expected);
+
+    /**
+     * Puts every value, keyed by its own id, with the same resulting LRU
+     * order as putting them one by one.
+     */
+    void putAll(Collection<? extends V> values);
+
+    /**
+     * Replaces the contents with the values, as if they were put in order
+     * into an empty cache, without notifying listeners, counting or
+     * logging them; for a cold start.
+     */
+    void bulkLoad(Collection<? extends V> values);
+
+    /**
+     * Looks up every key, storing the results in {@code into} at the
+     * position of their key.
+     */
+    void getAll(long[] keys, AccountBatch into);
+
     int size();
 
+    /**
+     * @return the total weight of the cached values, or their number if the
+     * cache is not weighted
+     */
+    long weightedSize();
+
+    /**
+     * @return the weigher of a cache bounded by
+     * {@link CacheSettings#getMaximumWeight()}, or {@code null}
+     */
+    AccountWeigher getWeigher();
+
+    /**
+     * @return {@code true} if the value for the key is older than
+     * {@link CacheSettings#getRefreshAfterWrite()} and should be reloaded
+     */
+    boolean needsRefresh(K key);
+
+    /**
+     * Applies buffered reads and removes expired values now rather than on
+     * the next write.
+     */
+    void cleanUp();
+
     boolean isEmpty();
 
     void clear();
 
     int getHits();
 
+    /**
+     * @return the statistics of this cache, of which {@link #getHits()} is
+     * a part
+     */
+    StatsCounter getStatsCounter();
+
+    /**
+     * Adds a listener notified asynchronously of registered or updated
+     * accounts; previously added listeners keep being notified.
+     */
     void delegateListener(Consumer<Account> listener);
 
+    AccountUpdateDispatcher getDispatcher();
+
+    List<V> getTop(int limit);
+
+    /**
+     * The balance queries below need {@link CacheSettings#isRankIndex()}
+     * and run in O(log n); over s segments, in O(s log n), and the
+     * percentile in O(s log&sup2; n).
+     *
+     * @return the number of cached values with a balance greater than
+     * {@code balance}
+     */
+    long countWithBalanceAbove(BigDecimal balance);
+
+    /**
+     * @return the cached values with a balance from {@code min} to
+     * {@code max}, largest first, read in batches while the stream is
+     * consumed and weakly consistent with concurrent writes
+     */
+    Stream<V> getWithBalanceBetween(BigDecimal min, BigDecimal max);
+
+    /**
+     * @return the one-based position of the key's value by balance, largest
+     * first and ties by id, or 0 if nothing is cached for the key
+     */
+    long rankOf(K key);
+
+    /**
+     * @return the value at the percentile of the balances by the nearest
+     * rank method, e.g. the median at 50, or {@code null} if empty
+     */
+    V getAtPercentile(double percentile);
+
+    /**
+     * @return the cached values from the most to the least recently used
+     * one, copied under the lock without changing their order; with an
+     * {@link EvictionPolicy} other than LRU, in the order of its list
+     */
+    List<V> snapshot();
+
+    /**
+     * @return the cached values in no particular order, read without locking
+     * out writers or changing the LRU order; weakly consistent with
+     * concurrent writes and splittable for parallel streams
+     */
+    Spliterator<V> spliterator();
+
+
+    /**
+     * Stops the listener threads.
+     */
+    @Override
+    void close();
 }
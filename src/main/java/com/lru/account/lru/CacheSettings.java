@@ -0,0 +1,150 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+import com.lru.account.event.AccountUpdateDispatcher;
+import com.lru.account.stats.ConcurrentStatsCounter;
+import com.lru.account.stats.HitCounter;
+import com.lru.account.stats.StatsCounter;
+import com.lru.account.wal.WriteAheadLog;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class CacheSettings {
+    /**
+     * Maximum number of cached accounts; unbounded if 0 while a
+     * {@link #getMaximumWeight()} is set.
+     */
+    private final int size;
+
+    /**
+     * Maximum total {@link #getWeigher() weight} of the cached accounts; no
+     * limit if 0.
+     */
+    private final long maximumWeight;
+
+    /**
+     * Weighs the accounts when a {@link #getMaximumWeight()} is set.
+     */
+    @Builder.Default
+    private final AccountWeigher weigher = new RetainedSizeWeigher();
+
+    @Builder.Default
+    private final StorageMode storageMode = StorageMode.ON_HEAP;
+
+    /**
+     * Number of top accounts by balance answered from the incremental index;
+     * larger top-N queries fall back to a scan.
+     */
+    @Builder.Default
+    private final int topLimit = 16;
+
+    /**
+     * Maintains an order-statistic index of the balances on every write,
+     * needed by the balance count, range, rank and percentile queries.
+     */
+    private final boolean rankIndex;
+
+    @Builder.Default
+    private final AdmissionPolicy admission = AdmissionPolicy.ALWAYS;
+
+    /**
+     * Creates the eviction policy of each cache, e.g. of each segment, over
+     * its LRU list; strict LRU by default, or {@code ClockPolicy::new} and
+     * {@code SievePolicy::new} for hits that take no lock.
+     */
+    @Builder.Default
+    private final Function<SlotLruList, EvictionPolicy> eviction = LruPolicy::new;
+
+    /**
+     * Dispatcher for account updates, e.g. shared by the segments of a
+     * {@link SegmentedAccountLRUCache}; a new one is created when not set.
+     */
+    private final AccountUpdateDispatcher dispatcher;
+
+    /**
+     * Records misses, evictions and latencies besides the hits; off by
+     * default so that lookups are not timed.
+     */
+    private final boolean recordStats;
+
+    /**
+     * Statistics shared with other caches, e.g. by the segments of a
+     * {@link SegmentedAccountLRUCache}; overrides {@link #isRecordStats()}.
+     */
+    private final StatsCounter statsCounter;
+
+    /**
+     * Log every effective update is appended to before {@code put} returns,
+     * for caches holding updates not yet stored elsewhere; none by default.
+     */
+    private final WriteAheadLog writeAheadLog;
+
+    /**
+     * Time to live of an account after it was put; no expiration if unset.
+     */
+    private final Duration expireAfterWrite;
+
+    /**
+     * Time an account stays cached without being put or read; no
+     * expiration if unset.
+     */
+    private final Duration expireAfterAccess;
+
+    /**
+     * Per-account expiration, taking precedence over
+     * {@link #getExpireAfterWrite()} and {@link #getExpireAfterAccess()}.
+     */
+    private final ExpiryPolicy expiry;
+
+    /**
+     * Age after which a read account is due for a background reload, see
+     * {@link Cache#needsRefresh(Object)}; never if unset.
+     */
+    private final Duration refreshAfterWrite;
+
+    /**
+     * Called under the cache's write lock with every evicted or expired
+     * account; it must be quick and must not call back into the cache.
+     */
+    private final BiConsumer<Account, RemovalCause> removalListener;
+
+    /**
+     * Source of the current time in nanoseconds for expiration and refresh.
+     */
+    @Builder.Default
+    private final LongSupplier ticker = System::nanoTime;
+
+    /**
+     * @return the expiration policy, or {@code null} if accounts never
+     * expire
+     */
+    public ExpiryPolicy expiryPolicy() {
+        if (expiry != null) {
+            return expiry;
+        }
+        if (expireAfterWrite == null && expireAfterAccess == null) {
+            return null;
+        }
+        return ExpiryPolicy.of(expireAfterWrite, expireAfterAccess);
+    }
+
+    /**
+     * @return the shared {@link #getStatsCounter()} if set, otherwise a new
+     * counter as selected by {@link #isRecordStats()}
+     */
+    public StatsCounter newStatsCounter() {
+        if (statsCounter != null) {
+            return statsCounter;
+        }
+        return recordStats ? new ConcurrentStatsCounter() : new HitCounter();
+    }
+}
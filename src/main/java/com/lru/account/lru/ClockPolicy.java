@@ -0,0 +1,63 @@
+package com.lru.account.lru;
+
+/**
+ * CLOCK, or second chance: a hit only sets the slot's visited flag, without
+ * a lock or relinking. The hand starts at the tail, the oldest slot; a
+ * visited slot has its flag cleared and goes back to the front, and the
+ * first one not visited since it last passed is evicted.
+ */
+public class ClockPolicy implements EvictionPolicy {
+    private final SlotLruList list;
+    private final VisitedBits visited = new VisitedBits();
+
+    public ClockPolicy(SlotLruList list) {
+        this.list = list;
+    }
+
+    @Override
+    public boolean recordHit(int slot) {
+        visited.set(slot);
+        return false;
+    }
+
+    @Override
+    public void onAccess(int slot) {
+        visited.set(slot);
+    }
+
+    @Override
+    public void onInsert(int slot) {
+        visited.ensureCapacity(list.capacity());
+        visited.clear(slot);
+    }
+
+    @Override
+    public void onUpdate(int slot) {
+        visited.set(slot);
+    }
+
+    @Override
+    public void onRemove(int slot) {
+    }
+
+    /**
+     * Gives up after one turn, in case readers keep setting the flags
+     * behind the hand, and evicts the tail.
+     */
+    @Override
+    public int victim() {
+        for (int turn = list.size(); turn > 0; turn--) {
+            int slot = list.tail();
+            if (!visited.clear(slot)) {
+                return slot;
+            }
+            list.moveToFront(slot);
+        }
+        return list.tail();
+    }
+
+    @Override
+    public void clear() {
+        visited.clearAll();
+    }
+}
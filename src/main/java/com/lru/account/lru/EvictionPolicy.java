@@ -0,0 +1,51 @@
+package com.lru.account.lru;
+
+/**
+ * Chooses which cached account is evicted next. A policy orders the slots
+ * of the cache's {@link SlotLruList}, into which every new account is
+ * linked as the first slot before {@link #onInsert(int)}; one instance is
+ * created per cache, see {@link CacheSettings#getEviction()}.
+ * <p>
+ * Apart from {@link #recordHit(int)}, the methods are called under the
+ * cache's write lock.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Records a hit from the reading thread, without a lock. The slot may
+     * have been reused for another account meanwhile.
+     *
+     * @return {@code true} if the hit must also be passed to
+     * {@link #onAccess(int)}, which the cache does in batches
+     */
+    boolean recordHit(int slot);
+
+    /**
+     * The account in the slot was read or changed in place.
+     */
+    void onAccess(int slot);
+
+    /**
+     * A new account was linked into the slot.
+     */
+    void onInsert(int slot);
+
+    /**
+     * The account in the slot was replaced by a put.
+     */
+    void onUpdate(int slot);
+
+    /**
+     * The slot is about to be unlinked and freed.
+     */
+    void onRemove(int slot);
+
+    /**
+     * @return the slot to evict next, or {@link SlotLruList#NIL} if the
+     * cache is empty; the policy may reorder slots to find it, so the same
+     * slot need not be returned twice in a row
+     */
+    int victim();
+
+    void clear();
+}
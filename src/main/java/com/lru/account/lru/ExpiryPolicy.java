@@ -0,0 +1,51 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+import java.time.Duration;
+
+/**
+ * Decides per account how long it stays cached. Durations are in
+ * nanoseconds, {@link TimerWheel#NEVER} meaning no expiration.
+ */
+public interface ExpiryPolicy {
+
+    /**
+     * @return how long the account may stay cached after being put
+     */
+    long expireAfterWrite(Account account);
+
+    /**
+     * @param remainingNanos the time it had left before this read
+     * @param sinceWriteNanos the time since it was put
+     * @return how long the account may stay cached after being read
+     */
+    default long expireAfterRead(Account account, long remainingNanos, long sinceWriteNanos) {
+        return remainingNanos;
+    }
+
+    /**
+     * @param afterWrite time to live after a put, or {@code null}
+     * @param afterAccess idle time after the last put or read, or
+     * {@code null}
+     * @return a policy expiring every account after whichever comes first
+     */
+    static ExpiryPolicy of(Duration afterWrite, Duration afterAccess) {
+        long ttl = afterWrite != null ? afterWrite.toNanos() : TimerWheel.NEVER;
+        long idle = afterAccess != null ? afterAccess.toNanos() : TimerWheel.NEVER;
+        return new ExpiryPolicy() {
+            @Override
+            public long expireAfterWrite(Account account) {
+                return Math.min(ttl, idle);
+            }
+
+            @Override
+            public long expireAfterRead(Account account, long remainingNanos, long sinceWriteNanos) {
+                if (idle == TimerWheel.NEVER) {
+                    return remainingNanos;
+                }
+                return ttl == TimerWheel.NEVER ? idle : Math.min(idle, ttl - sinceWriteNanos);
+            }
+        };
+    }
+}
@@ -0,0 +1,63 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+public class HeapAccountStore implements AccountStore {
+    private static final VarHandle ACCOUNTS = MethodHandles.arrayElementVarHandle(Account[].class);
+
+    private final HeapSlotLinks links;
+    private volatile Account[] accounts;
+
+    public HeapAccountStore(int initialCapacity) {
+        this.links = new HeapSlotLinks(initialCapacity);
+        this.accounts = new Account[initialCapacity];
+    }
+
+    @Override
+    public SlotLinks links() {
+        return links;
+    }
+
+    @Override
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > accounts.length) {
+            accounts = Arrays.copyOf(accounts, minCapacity);
+        }
+    }
+
+    @Override
+    public int allocatedSlots() {
+        return accounts.length;
+    }
+
+    @Override
+    public Account get(int slot) {
+        Account[] table = this.accounts;
+        return slot < table.length ? (Account) ACCOUNTS.getAcquire(table, slot) : null;
+    }
+
+    @Override
+    public void set(int slot, Account account) {
+        ACCOUNTS.setRelease(this.accounts, slot, account);
+    }
+
+    @Override
+    public boolean replace(int slot, Account expected, Account account) {
+        // accounts are immutable, so the instance is the version of the slot
+        return ACCOUNTS.compareAndSet(this.accounts, slot, expected, account);
+    }
+
+    @Override
+    public void remove(int slot) {
+        ACCOUNTS.setRelease(this.accounts, slot, null);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.accounts, null);
+    }
+}
@@ -0,0 +1,46 @@
+package com.lru.account.lru;
+
+import java.util.Arrays;
+
+public class HeapSlotLinks implements SlotLinks {
+    private int[] prev;
+    private int[] next;
+
+    public HeapSlotLinks(int initialCapacity) {
+        this.prev = new int[initialCapacity];
+        this.next = new int[initialCapacity];
+    }
+
+    @Override
+    public int capacity() {
+        return prev.length;
+    }
+
+    @Override
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > prev.length) {
+            prev = Arrays.copyOf(prev, minCapacity);
+            next = Arrays.copyOf(next, minCapacity);
+        }
+    }
+
+    @Override
+    public int prev(int slot) {
+        return prev[slot];
+    }
+
+    @Override
+    public int next(int slot) {
+        return next[slot];
+    }
+
+    @Override
+    public void setPrev(int slot, int value) {
+        prev[slot] = value;
+    }
+
+    @Override
+    public void setNext(int slot, int value) {
+        next[slot] = value;
+    }
+}
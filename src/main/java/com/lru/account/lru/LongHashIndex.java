@@ -0,0 +1,206 @@
+package com.lru.account.lru;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.IntConsumer;
+
+/**
+ * Open-addressing {@code long -> int} hash index with linear probing, used
+ * to map account ids to their cache slot. Keys and values live in parallel
+ * primitive arrays, so a lookup never boxes the key and an entry costs 12
+ * bytes per table slot instead of a {@code Long} plus a map node.
+ * <p>
+ * Lookups are lock-free. Mutations must be serialized by the caller (the
+ * cache write lock): removed slots are tombstoned rather than shifted so a
+ * concurrent reader can never skip over a live key, and tombstones are
+ * dropped when the table is rehashed into a fresh array and republished.
+ */
+public class LongHashIndex {
+    public static final int NO_VALUE = -1;
+
+    // values are stored shifted by one so that a zeroed array means "empty"
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private volatile Table table;
+    private volatile int size;
+    private int used;
+
+    public LongHashIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashIndex(int expectedSize) {
+        this.table = new Table(capacityFor(expectedSize));
+    }
+
+    /**
+     * @return the value mapped to the key or {@link #NO_VALUE}
+     */
+    public int get(long key) {
+        Table t = this.table;
+        long[] keys = t.keys;
+        int[] values = t.values;
+        int mask = values.length - 1;
+        int index = mix(key) & mask;
+        while (true) {
+            int value = (int) VALUES.getAcquire(values, index);
+            if (value == EMPTY) {
+                return NO_VALUE;
+            }
+            if (keys[index] == key) {
+                return value == TOMBSTONE ? NO_VALUE : value - 1;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != NO_VALUE;
+    }
+
+    /**
+     * @param value a non-negative value
+     * @return the previous value or {@link #NO_VALUE}
+     */
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative: " + value);
+        }
+        Table t = this.table;
+        long[] keys = t.keys;
+        int[] values = t.values;
+        int mask = values.length - 1;
+        int index = mix(key) & mask;
+        while (true) {
+            int current = values[index];
+            if (current == EMPTY) {
+                keys[index] = key;
+                VALUES.setRelease(values, index, value + 1);
+                this.size = this.size + 1;
+                if (++this.used > t.threshold) {
+                    this.rehash();
+                }
+                return NO_VALUE;
+            }
+            if (keys[index] == key) {
+                VALUES.setRelease(values, index, value + 1);
+                if (current == TOMBSTONE) {
+                    this.size = this.size + 1;
+                    return NO_VALUE;
+                }
+                return current - 1;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the removed value or {@link #NO_VALUE}
+     */
+    public int remove(long key) {
+        Table t = this.table;
+        long[] keys = t.keys;
+        int[] values = t.values;
+        int mask = values.length - 1;
+        int index = mix(key) & mask;
+        while (true) {
+            int current = values[index];
+            if (current == EMPTY) {
+                return NO_VALUE;
+            }
+            if (keys[index] == key) {
+                if (current == TOMBSTONE) {
+                    return NO_VALUE;
+                }
+                VALUES.setRelease(values, index, TOMBSTONE);
+                this.size = this.size - 1;
+                return current - 1;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        this.table = new Table(MIN_CAPACITY);
+        this.size = 0;
+        this.used = 0;
+    }
+
+    /**
+     * @return the number of slots currently allocated, for capacity planning
+     */
+    public int capacity() {
+        return this.table.values.length;
+    }
+
+    public void forEachValue(IntConsumer action) {
+        int[] values = this.table.values;
+        for (int i = 0; i < values.length; i++) {
+            int value = (int) VALUES.getAcquire(values, i);
+            if (value != EMPTY && value != TOMBSTONE) {
+                action.accept(value - 1);
+            }
+        }
+    }
+
+    private void rehash() {
+        Table old = this.table;
+        // grow only when live entries need it, otherwise just drop the tombstones
+        Table fresh = new Table(capacityFor(this.size));
+        long[] keys = fresh.keys;
+        int[] values = fresh.values;
+        int mask = values.length - 1;
+        for (int i = 0; i < old.values.length; i++) {
+            int value = old.values[i];
+            if (value == EMPTY || value == TOMBSTONE) {
+                continue;
+            }
+            long key = old.keys[i];
+            int index = mix(key) & mask;
+            while (values[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            values[index] = value;
+        }
+        this.used = this.size;
+        this.table = fresh;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long wanted = Math.max((long) expectedSize * 2, MIN_CAPACITY);
+        if (wanted >= MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    private static final class Table {
+        final long[] keys;
+        final int[] values;
+        final int threshold;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            this.threshold = capacity - (capacity >>> 2);
+        }
+    }
+}
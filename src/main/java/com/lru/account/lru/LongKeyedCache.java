@@ -0,0 +1,50 @@
+package com.lru.account.lru;
+
+import java.math.BigDecimal;
+
+/**
+ * Primitive-keyed lookups for the hot path. Unlike {@link Cache#get(Object)}
+ * they box no key and wrap no result, so with heap storage a hit allocates
+ * nothing; off-heap storage still materializes the account it returns.
+ */
+public interface LongKeyedCache<V> {
+
+    /**
+     * Same as {@link Cache#get(Object)}, recording the hit or miss.
+     *
+     * @return the cached value or {@code null}
+     */
+    V getIfPresent(long key);
+
+    /**
+     * @return {@code true} if a value is cached for the key; neither a hit
+     * nor a use of the value
+     */
+    boolean containsKey(long key);
+
+    /**
+     * Looks the key up like {@link #containsKey(long)}: neither a hit nor
+     * a use of the value, e.g. to move it elsewhere.
+     *
+     * @return the cached value or {@code null}
+     */
+    V peek(long key);
+
+    /**
+     * Looks the key up like {@link #getIfPresent(long)}, storing only the
+     * balance of the value at {@code into[index]}.
+     *
+     * @return {@code false}, leaving {@code into} unchanged, on a miss
+     */
+    boolean getBalanceInto(long key, BigDecimal[] into, int index);
+
+    /**
+     * Fills {@code into} with the values with the largest balances, best
+     * first. Arrays no longer than {@link CacheSettings#getTopLimit()} are
+     * served from the top-N index without allocating.
+     *
+     * @return the number of values stored, less than the array length if
+     * the cache holds fewer values
+     */
+    int getTopInto(V[] into);
+}
@@ -0,0 +1,46 @@
+package com.lru.account.lru;
+
+/**
+ * Strict LRU: every use moves the slot to the front of the list and the
+ * tail is evicted. Hits are relinked under the write lock, in the batches
+ * of the cache's read buffer.
+ */
+public class LruPolicy implements EvictionPolicy {
+    private final SlotLruList list;
+
+    public LruPolicy(SlotLruList list) {
+        this.list = list;
+    }
+
+    @Override
+    public boolean recordHit(int slot) {
+        return true;
+    }
+
+    @Override
+    public void onAccess(int slot) {
+        list.moveToFront(slot);
+    }
+
+    @Override
+    public void onInsert(int slot) {
+    }
+
+    @Override
+    public void onUpdate(int slot) {
+        list.moveToFront(slot);
+    }
+
+    @Override
+    public void onRemove(int slot) {
+    }
+
+    @Override
+    public int victim() {
+        return list.tail();
+    }
+
+    @Override
+    public void clear() {
+    }
+}
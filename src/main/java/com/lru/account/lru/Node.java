@@ -1,68 +0,0 @@
-package com.lru.account.lru;
-
-public class Node<T> implements LinkedListNode<T> {
-    private final T value;
-    private final DoublyLinkedList<T> list;
-    private LinkedListNode<T> next;
-    private LinkedListNode<T> prev;
-
-    public Node(T value, LinkedListNode<T> next, DoublyLinkedList<T> list) {
-        this.value = value;
-        this.next = next;
-        this.setPrev(next.getPrev());
-        this.prev.setNext(this);
-        this.next.setPrev(this);
-        this.list = list;
-    }
-
-    @Override
-    public boolean hasElement() {
-        return true;
-    }
-
-    @Override
-    public boolean isEmpty() {
-        return false;
-    }
-
-    public T getElement() {
-        return value;
-    }
-
-    public void detach() {
-        this.prev.setNext(this.getNext());
-        this.next.setPrev(this.getPrev());
-    }
-
-    @Override
-    public DoublyLinkedList<T> getListReference() {
-        return this.list;
-    }
-
-    @Override
-    public LinkedListNode<T> setPrev(LinkedListNode<T> prev) {
-        this.prev = prev;
-        return this;
-    }
-
-    @Override
-    public LinkedListNode<T> setNext(LinkedListNode<T> next) {
-        this.next = next;
-        return this;
-    }
-
-    @Override
-    public LinkedListNode<T> getPrev() {
-        return this.prev;
-    }
-
-    @Override
-    public LinkedListNode<T> getNext() {
-        return this.next;
-    }
-
-    @Override
-    public LinkedListNode<T> search(T value) {
-        return this.getElement() == value ? this : this.getNext().search(value);
-    }
-}
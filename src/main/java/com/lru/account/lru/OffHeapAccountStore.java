@@ -0,0 +1,259 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps ids, balances and LRU links in direct memory, in fixed 32 byte
+ * records allocated in chunks:
+ * <pre>
+ *  0  long id
+ *  8  long unscaled balance
+ * 16  int  balance scale, or a marker for free slots and overflowed balances
+ * 20  int  version (seqlock, odd while a write is in progress)
+ * 24  int  prev slot
+ * 28  int  next slot
+ * </pre>
+ * Balances whose unscaled value does not fit in a {@code long} fall back to
+ * an on-heap map keyed by slot. Lock-free readers retry until they observe
+ * the same even version before and after reading a record, and writers
+ * compare-and-set the version, so that a {@link #replace} without the
+ * cache lock is detected.
+ */
+public class OffHeapAccountStore implements AccountStore, SlotLinks {
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int RECORD_SIZE = 32;
+    private static final int ID = 0;
+    private static final int UNSCALED = 8;
+    private static final int SCALE = 16;
+    private static final int VERSION = 20;
+    private static final int PREV = 24;
+    private static final int NEXT = 28;
+
+    private static final int FREE_SCALE = Integer.MIN_VALUE;
+    private static final int OVERFLOW_SCALE = Integer.MIN_VALUE + 1;
+
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+
+    private final Map<Integer, BigDecimal> overflow = new ConcurrentHashMap<>();
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int capacity;
+
+    public OffHeapAccountStore(int initialCapacity) {
+        ensureCapacity(Math.max(initialCapacity, 16));
+    }
+
+    @Override
+    public SlotLinks links() {
+        return this;
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity <= capacity) {
+            return;
+        }
+        ByteBuffer[] current = this.chunks;
+        if (current.length <= 1 && capacity < CHUNK_SLOTS) {
+            // small caches get a single, doubling first chunk before full chunks are added
+            int slots = Math.min(Integer.highestOneBit(Math.max(minCapacity, 16) - 1) << 1, CHUNK_SLOTS);
+            ByteBuffer first = allocate(slots);
+            if (current.length == 1) {
+                first.put(0, current[0], 0, current[0].capacity());
+            }
+            current = new ByteBuffer[]{first};
+            this.capacity = slots;
+        }
+        if (minCapacity > this.capacity) {
+            int chunkCount = (int) (((long) minCapacity + CHUNK_MASK) >>> CHUNK_SHIFT);
+            int existing = current.length;
+            current = Arrays.copyOf(current, chunkCount);
+            for (int i = existing; i < chunkCount; i++) {
+                current[i] = allocate(CHUNK_SLOTS);
+            }
+            this.capacity = (int) Math.min((long) chunkCount << CHUNK_SHIFT, Integer.MAX_VALUE - 8);
+        }
+        this.chunks = current;
+    }
+
+    @Override
+    public int allocatedSlots() {
+        ByteBuffer[] current = this.chunks;
+        if (current.length == 1) {
+            return current[0].capacity() / RECORD_SIZE;
+        }
+        return (int) Math.min((long) current.length << CHUNK_SHIFT, Integer.MAX_VALUE - 8);
+    }
+
+    @Override
+    public Account get(int slot) {
+        ByteBuffer[] current = this.chunks;
+        int chunk = slot >>> CHUNK_SHIFT;
+        if (chunk >= current.length) {
+            return null;
+        }
+        ByteBuffer buffer = current[chunk];
+        int offset = offset(slot);
+        while (true) {
+            int version = (int) INT.getAcquire(buffer, offset + VERSION);
+            if ((version & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long id = (long) LONG.get(buffer, offset + ID);
+            long unscaled = (long) LONG.get(buffer, offset + UNSCALED);
+            int scale = (int) INT.get(buffer, offset + SCALE);
+            BigDecimal overflowed = scale == OVERFLOW_SCALE ? overflow.get(slot) : null;
+            VarHandle.acquireFence();
+            if ((int) INT.get(buffer, offset + VERSION) != version) {
+                continue;
+            }
+            if (scale == FREE_SCALE || (scale == OVERFLOW_SCALE && overflowed == null)) {
+                return null;
+            }
+            BigDecimal balance = scale == OVERFLOW_SCALE ? overflowed : BigDecimal.valueOf(unscaled, scale);
+            return Account.builder().id(id).balance(balance).build();
+        }
+    }
+
+    @Override
+    public void set(int slot, Account account) {
+        ByteBuffer buffer = chunks[slot >>> CHUNK_SHIFT];
+        int offset = offset(slot);
+        write(buffer, offset, slot, beginWrite(buffer, offset), account);
+    }
+
+    @Override
+    public boolean replace(int slot, Account expected, Account account) {
+        ByteBuffer buffer = chunks[slot >>> CHUNK_SHIFT];
+        int offset = offset(slot);
+        int version;
+        while (((version = (int) INT.getAcquire(buffer, offset + VERSION)) & 1) != 0) {
+            Thread.onSpinWait();
+        }
+        // a torn read of a record being written fails the version check below
+        long id = (long) LONG.get(buffer, offset + ID);
+        long unscaled = (long) LONG.get(buffer, offset + UNSCALED);
+        int scale = (int) INT.get(buffer, offset + SCALE);
+        BigDecimal balance = expected.getBalance();
+        boolean holds = id == expected.getId() && (fitsInLong(balance)
+            ? scale == balance.scale() && unscaled == balance.unscaledValue().longValue()
+            : scale == OVERFLOW_SCALE && balance.equals(overflow.get(slot)));
+        if (!holds || !INT.compareAndSet(buffer, offset + VERSION, version, version + 1)) {
+            return false;
+        }
+        write(buffer, offset, slot, version, account);
+        return true;
+    }
+
+    private void write(ByteBuffer buffer, int offset, int slot, int version, Account account) {
+        BigDecimal balance = account.getBalance();
+        long unscaled = 0;
+        int scale = OVERFLOW_SCALE;
+        if (fitsInLong(balance)) {
+            unscaled = balance.unscaledValue().longValue();
+            scale = balance.scale();
+        }
+        if (scale == OVERFLOW_SCALE) {
+            overflow.put(slot, balance);
+        } else {
+            overflow.remove(slot);
+        }
+        LONG.set(buffer, offset + ID, account.getId());
+        LONG.set(buffer, offset + UNSCALED, unscaled);
+        INT.set(buffer, offset + SCALE, scale);
+        INT.setRelease(buffer, offset + VERSION, version + 2);
+    }
+
+    @Override
+    public void remove(int slot) {
+        ByteBuffer buffer = chunks[slot >>> CHUNK_SHIFT];
+        int offset = offset(slot);
+        int version = beginWrite(buffer, offset);
+        overflow.remove(slot);
+        INT.set(buffer, offset + SCALE, FREE_SCALE);
+        INT.setRelease(buffer, offset + VERSION, version + 2);
+    }
+
+    @Override
+    public void clear() {
+        for (int slot = 0; slot < capacity; slot++) {
+            remove(slot);
+        }
+    }
+
+    @Override
+    public int prev(int slot) {
+        return (int) INT.get(chunks[slot >>> CHUNK_SHIFT], offset(slot) + PREV);
+    }
+
+    @Override
+    public int next(int slot) {
+        return (int) INT.get(chunks[slot >>> CHUNK_SHIFT], offset(slot) + NEXT);
+    }
+
+    @Override
+    public void setPrev(int slot, int value) {
+        INT.set(chunks[slot >>> CHUNK_SHIFT], offset(slot) + PREV, value);
+    }
+
+    @Override
+    public void setNext(int slot, int value) {
+        INT.set(chunks[slot >>> CHUNK_SHIFT], offset(slot) + NEXT, value);
+    }
+
+    /**
+     * @return {@code true} if the balance is stored inline rather than in
+     * the on-heap overflow map
+     */
+    static boolean fitsInLong(BigDecimal balance) {
+        int scale = balance.scale();
+        if (scale == FREE_SCALE || scale == OVERFLOW_SCALE) {
+            return false;
+        }
+        return balance.precision() <= 18 || balance.unscaledValue().bitLength() <= 63;
+    }
+
+    /**
+     * Makes the version odd, waiting for a concurrent {@link #replace} of
+     * the record to finish.
+     */
+    private static int beginWrite(ByteBuffer buffer, int offset) {
+        while (true) {
+            int version = (int) INT.getAcquire(buffer, offset + VERSION);
+            if ((version & 1) == 0 && INT.compareAndSet(buffer, offset + VERSION, version, version + 1)) {
+                return version;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static int offset(int slot) {
+        return (slot & CHUNK_MASK) * RECORD_SIZE;
+    }
+
+    private static ByteBuffer allocate(int slots) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(slots * RECORD_SIZE).order(ByteOrder.nativeOrder());
+        for (int slot = 0; slot < slots; slot++) {
+            INT.set(buffer, slot * RECORD_SIZE + SCALE, FREE_SCALE);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,103 @@
+package com.lru.account.lru;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Striped, lossy ring buffers recording cache hits so that the LRU
+ * reordering can be replayed later in a batch by a single drainer instead
+ * of taking the write lock on every read. Producers pick a stripe by thread
+ * and never block: when a stripe is full or contended the access is simply
+ * dropped, which only makes the recency order slightly less precise.
+ * <p>
+ * {@link #drainTo(Consumer)} must only be called by one thread at a time,
+ * in practice while holding the cache write lock.
+ */
+public class ReadBuffer<E> {
+    public static final int SUCCESS = 0;
+    public static final int FAILED = 1;
+    public static final int FULL = 2;
+
+    static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    private final Stripe<E>[] stripes;
+    private final int stripeMask;
+
+    public ReadBuffer() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public ReadBuffer(int stripeCount) {
+        int count = Integer.highestOneBit(Math.max(stripeCount - 1, 1)) << 1;
+        @SuppressWarnings("unchecked")
+        Stripe<E>[] stripes = (Stripe<E>[]) new Stripe<?>[count];
+        this.stripes = stripes;
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe<>();
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Records an access without blocking.
+     *
+     * @return {@link #SUCCESS} if recorded, {@link #FAILED} if dropped
+     * because of contention, or {@link #FULL} if dropped because the stripe
+     * is full and should be drained
+     */
+    public int offer(E element) {
+        return stripes[probe() & stripeMask].offer(element);
+    }
+
+    /**
+     * Hands every recorded access to the consumer, stripe by stripe.
+     */
+    public void drainTo(Consumer<E> consumer) {
+        for (Stripe<E> stripe : stripes) {
+            stripe.drainTo(consumer);
+        }
+    }
+
+    private static int probe() {
+        long h = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static final class Stripe<E> {
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        int offer(E element) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            if (tail - head >= BUFFER_SIZE) {
+                return FULL;
+            }
+            if (!writeCounter.compareAndSet(tail, tail + 1)) {
+                return FAILED;
+            }
+            buffer.lazySet((int) (tail & BUFFER_MASK), element);
+            return SUCCESS;
+        }
+
+        void drainTo(Consumer<E> consumer) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            while (head < tail) {
+                int index = (int) (head & BUFFER_MASK);
+                E element = buffer.get(index);
+                if (element == null) {
+                    // the producer claimed the slot but has not published yet
+                    break;
+                }
+                buffer.lazySet(index, null);
+                consumer.accept(element);
+                head++;
+            }
+            readCounter = head;
+        }
+    }
+}
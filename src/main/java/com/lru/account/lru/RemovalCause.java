@@ -0,0 +1,17 @@
+package com.lru.account.lru;
+
+public enum RemovalCause {
+    /**
+     * Removed to make room for a new account.
+     */
+    EVICTED,
+    /**
+     * Removed because its {@link ExpiryPolicy} deadline passed.
+     */
+    EXPIRED,
+    /**
+     * Removed by {@link Cache#remove(Object)}, e.g. when moved to another
+     * node of a cluster.
+     */
+    EXPLICIT
+}
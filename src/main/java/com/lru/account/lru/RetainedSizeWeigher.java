@@ -0,0 +1,40 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+import java.math.BigDecimal;
+
+/**
+ * Estimates the heap retained by an account, assuming a 64-bit JVM with
+ * compressed references: the {@code Account}, its boxed id, the
+ * {@code BigDecimal} balance and, for balances whose unscaled value does
+ * not fit a {@code long}, the {@code BigInteger} and its magnitude array.
+ * The cache's own bookkeeping per entry is not included.
+ */
+public class RetainedSizeWeigher implements AccountWeigher {
+    private static final int ACCOUNT_BYTES = 24;
+    private static final int LONG_BYTES = 16;
+    private static final int BIG_DECIMAL_BYTES = 40;
+    private static final int BIG_INTEGER_BYTES = 40;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    @Override
+    public int weigh(Account account) {
+        int bytes = ACCOUNT_BYTES + LONG_BYTES;
+        BigDecimal balance = account.getBalance();
+        if (balance != null) {
+            bytes += BIG_DECIMAL_BYTES;
+            // up to 18 digits the unscaled value is held in a long, without allocating it here
+            int bits = balance.precision() <= 18 ? 0 : balance.unscaledValue().bitLength();
+            if (bits >= Long.SIZE) {
+                int magnitudeInts = (bits + 31) >>> 5;
+                bytes += BIG_INTEGER_BYTES + align(ARRAY_HEADER_BYTES + magnitudeInts * Integer.BYTES);
+            }
+        }
+        return bytes;
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+}
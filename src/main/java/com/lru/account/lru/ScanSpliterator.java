@@ -0,0 +1,133 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Weakly consistent scan over the slots of one or more caches, reading each
+ * slot without a lock and without recording a use, so that neither writers
+ * nor the LRU order notice it. A range of several caches splits between
+ * them; a single cache splits its slot range in halves.
+ * <p>
+ * An account cached for the whole scan is reported exactly once, with its
+ * balance at some point of the scan; accounts put or removed meanwhile may
+ * or may not be, and one evicted and put again may be reported twice.
+ */
+final class ScanSpliterator implements Spliterator<Account> {
+    private static final int MIN_SPLIT = 1 << 12;
+    private static final int UNBOUND = -1;
+
+    private final AccountLRUCacheThreadSafe[] caches;
+    private int cache;
+    private int cacheFence;
+    private int slot;
+    private int slotFence;
+
+    ScanSpliterator(AccountLRUCacheThreadSafe[] caches) {
+        this(caches, 0, caches.length, 0, UNBOUND);
+    }
+
+    private ScanSpliterator(AccountLRUCacheThreadSafe[] caches, int cache, int cacheFence, int slot, int slotFence) {
+        this.caches = caches;
+        this.cache = cache;
+        this.cacheFence = cacheFence;
+        this.slot = slot;
+        this.slotFence = slotFence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Account> action) {
+        for (; cache < cacheFence; nextCache()) {
+            AccountLRUCacheThreadSafe current = caches[cache];
+            int fence = bindFence();
+            while (slot < fence) {
+                Account account = current.scan(slot++);
+                if (account != null) {
+                    action.accept(account);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Account> action) {
+        for (; cache < cacheFence; nextCache()) {
+            AccountLRUCacheThreadSafe current = caches[cache];
+            int fence = bindFence();
+            for (; slot < fence; slot++) {
+                Account account = current.scan(slot);
+                if (account != null) {
+                    action.accept(account);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands out the first half of the remaining caches, or of the remaining
+     * slots once a single cache is left.
+     */
+    @Override
+    public Spliterator<Account> trySplit() {
+        if (cacheFence - cache > 1) {
+            int middle = (cache + cacheFence) >>> 1;
+            ScanSpliterator prefix = new ScanSpliterator(caches, cache, middle, slot, slotFence);
+            cache = middle;
+            slot = 0;
+            slotFence = UNBOUND;
+            return prefix;
+        }
+        if (cache == cacheFence) {
+            return null;
+        }
+        int fence = bindFence();
+        if (fence - slot < 2 * MIN_SPLIT) {
+            return null;
+        }
+        int middle = (slot + fence) >>> 1;
+        ScanSpliterator prefix = new ScanSpliterator(caches, cache, cache + 1, slot, middle);
+        slot = middle;
+        return prefix;
+    }
+
+    /**
+     * @return the number of remaining slots, an upper bound of the accounts
+     */
+    @Override
+    public long estimateSize() {
+        if (cache == cacheFence) {
+            return 0;
+        }
+        long size = (slotFence == UNBOUND ? caches[cache].scanLimit() : slotFence) - slot;
+        for (int i = cache + 1; i < cacheFence; i++) {
+            size += caches[i].scanLimit();
+        }
+        return Math.max(size, 0);
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL | CONCURRENT;
+    }
+
+    /**
+     * Fixes the end of the current cache's slots when its scan starts, so
+     * that a split is not chased by slots added later.
+     */
+    private int bindFence() {
+        if (slotFence == UNBOUND) {
+            slotFence = caches[cache].scanLimit();
+        }
+        return slotFence;
+    }
+
+    private void nextCache() {
+        cache++;
+        slot = 0;
+        slotFence = UNBOUND;
+    }
+}
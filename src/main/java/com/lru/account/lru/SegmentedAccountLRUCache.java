@@ -0,0 +1,513 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+import com.lru.account.AccountBatch;
+import com.lru.account.event.AccountUpdateDispatcher;
+import com.lru.account.stats.StatsCounter;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Splits the key space by account id across independent
+ * {@link AccountLRUCacheThreadSafe} segments, each with its own LRU list,
+ * node map and lock. The capacity is divided between the segments so the
+ * total number of cached accounts never exceeds {@code size}; LRU order is
+ * kept per segment.
+ */
+@Getter // debug to investigate the cache
+public class SegmentedAccountLRUCache implements Cache<Long, Account>, LongKeyedCache<Account> {
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    private final int size;
+    private final CacheSettings settings;
+    private final int segmentMask;
+    private final AccountUpdateDispatcher dispatcher;
+    private final StatsCounter statsCounter;
+    private volatile AccountLRUCacheThreadSafe[] segments;
+
+    public SegmentedAccountLRUCache(int size) {
+        this(size, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SegmentedAccountLRUCache(int size, int concurrencyLevel) {
+        this(CacheSettings.builder().size(size).build(), concurrencyLevel);
+    }
+
+    /**
+     * @param settings settings applied to every segment, with the size being
+     * the total capacity shared by all segments
+     */
+    public SegmentedAccountLRUCache(CacheSettings settings, int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+        }
+        int size = settings.getSize();
+        this.size = size;
+        // a cache bounded by weight alone is split as if it held an account per kilobyte
+        int segmentCount = segmentCount(size > 0 || settings.getMaximumWeight() == 0 ? size
+            : (int) Math.min(settings.getMaximumWeight() >>> 10, Integer.MAX_VALUE), concurrencyLevel);
+        this.segmentMask = segmentCount - 1;
+        this.statsCounter = settings.newStatsCounter();
+        this.dispatcher = settings.getDispatcher() != null ? settings.getDispatcher() : new AccountUpdateDispatcher(this.statsCounter);
+        this.settings = settings.toBuilder().dispatcher(this.dispatcher).statsCounter(this.statsCounter).build();
+        this.segments = newSegments(segmentCount);
+    }
+
+    @Override
+    public boolean put(Long key, Account value) {
+        return segmentFor(key).put(key, value);
+    }
+
+    @Override
+    public boolean putIfAbsent(Long key, Account value) {
+        return segmentFor(key).putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean replace(Long key, Account expected, Account value) {
+        return segmentFor(key).replace(key, expected, value);
+    }
+
+    @Override
+    public Optional<Account> get(Long key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public Account computeIfPresent(Long key, UnaryOperator<Account> remapping) {
+        return segmentFor(key).computeIfPresent(key, remapping);
+    }
+
+    @Override
+    public Account remove(Long key) {
+        return segmentFor(key).remove(key);
+    }
+
+    @Override
+    public boolean remove(Long key, Account expected) {
+        return segmentFor(key).remove(key, expected);
+    }
+
+    @Override
+    public Account getIfPresent(long key) {
+        return segmentFor(key).getIfPresent(key);
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return segmentFor(key).containsKey(key);
+    }
+
+    @Override
+    public Account peek(long key) {
+        return segmentFor(key).peek(key);
+    }
+
+    @Override
+    public boolean getBalanceInto(long key, BigDecimal[] into, int index) {
+        return segmentFor(key).getBalanceInto(key, into, index);
+    }
+
+    /**
+     * Splits the values by segment, keeping their order, and puts each part
+     * under one lock acquisition of its segment.
+     */
+    @Override
+    public void putAll(Collection<? extends Account> values) {
+        AccountLRUCacheThreadSafe[] segments = this.segments;
+        List<List<Account>> parts = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Account value : values) {
+            parts.get(spread(value.getId()) & segmentMask).add(value);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            if (!parts.get(i).isEmpty()) {
+                segments[i].putAll(parts.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void getAll(long[] keys, AccountBatch into) {
+        into.reset(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            into.set(i, segmentFor(keys[i]).find(keys[i]));
+        }
+    }
+
+    @Override
+    public int size() {
+        int total = 0;
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            total += segment.size();
+        }
+        return total;
+    }
+
+    @Override
+    public long weightedSize() {
+        long total = 0;
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            total += segment.weightedSize();
+        }
+        return total;
+    }
+
+    @Override
+    public AccountWeigher getWeigher() {
+        return segments[0].getWeigher();
+    }
+
+    @Override
+    public boolean needsRefresh(Long key) {
+        return segmentFor(key).needsRefresh(key);
+    }
+
+    @Override
+    public void cleanUp() {
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            segment.cleanUp();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            if (!segment.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * The segments share one {@link StatsCounter}, so this is the total of
+     * all segments.
+     */
+    @Override
+    public int getHits() {
+        return (int) this.statsCounter.hitCount();
+    }
+
+    @Override
+    public void delegateListener(Consumer<Account> listener) {
+        this.dispatcher.subscribe(listener);
+    }
+
+    @Override
+    public void close() {
+        this.dispatcher.close();
+    }
+
+    @Override
+    public List<Account> getTop(int limit) {
+        List<Account> candidates = new ArrayList<>(limit * segments.length);
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            candidates.addAll(segment.getTop(limit));
+        }
+        candidates.sort(TopBalanceIndex.ORDER);
+        return candidates.size() > limit ? List.copyOf(candidates.subList(0, limit)) : candidates;
+    }
+
+    /**
+     * Merges the top candidates of every segment straight into the array.
+     */
+    @Override
+    public int getTopInto(Account[] into) {
+        int count = 0;
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            List<Account> top = segment.topCandidates(into.length);
+            for (int i = 0; i < top.size(); i++) {
+                Account account = top.get(i);
+                if (count == into.length && (count == 0 || TopBalanceIndex.ORDER.compare(account, into[count - 1]) >= 0)) {
+                    // the candidates are sorted, the rest of the segment is no better
+                    break;
+                }
+                int position = count < into.length ? count++ : count - 1;
+                while (position > 0 && TopBalanceIndex.ORDER.compare(account, into[position - 1]) < 0) {
+                    into[position] = into[position - 1];
+                    position--;
+                }
+                into[position] = account;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long countWithBalanceAbove(BigDecimal balance) {
+        long total = 0;
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            total += segment.countWithBalanceAbove(balance);
+        }
+        return total;
+    }
+
+    /**
+     * Merges the ranges of the segments, each read in batches.
+     */
+    @Override
+    public Stream<Account> getWithBalanceBetween(BigDecimal min, BigDecimal max) {
+        PriorityQueue<PeekingIterator> heads = new PriorityQueue<>(segments.length,
+            Comparator.comparing(PeekingIterator::peek, TopBalanceIndex.ORDER));
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            PeekingIterator head = new PeekingIterator(segment.rangeIterator(min, max));
+            if (head.peek() != null) {
+                heads.add(head);
+            }
+        }
+        Iterator<Account> merged = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Account next() {
+                PeekingIterator head = heads.remove();
+                Account account = head.next();
+                if (head.peek() != null) {
+                    heads.add(head);
+                }
+                return account;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public long rankOf(Long key) {
+        Account account = segmentFor(key).peek(key);
+        return account != null ? positionOf(account) + 1 : 0;
+    }
+
+    /**
+     * Selects the wanted position over all segments at once: each round
+     * takes the middle candidate of every segment, counts the accounts
+     * before their weighted median in every segment and drops the
+     * candidates on the wrong side of it, at least a quarter of them. That
+     * is O(s log n) per round and O(s log&sup2; n) in all for s segments.
+     * With concurrent writes the positions may shift between segments, in
+     * which case the closest account before the wanted one is returned.
+     */
+    @Override
+    public Account getAtPercentile(double percentile) {
+        int[] low = new int[segments.length];
+        int[] high = new int[segments.length];
+        long size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            high[i] = segments[i].rankedSize();
+            size += high[i];
+        }
+        long rank = AccountLRUCacheThreadSafe.nearestRank(percentile, size);
+        if (size == 0) {
+            return null;
+        }
+        long wanted = size - rank;
+        Account[] middles = new Account[segments.length];
+        Integer[] order = new Integer[segments.length];
+        int[] before = new int[segments.length];
+        Account closest = null;
+        long closestPosition = -1;
+        while (true) {
+            long remaining = 0;
+            int candidates = 0;
+            for (int i = 0; i < segments.length; i++) {
+                middles[i] = low[i] < high[i] ? segments[i].select((low[i] + high[i]) >>> 1) : null;
+                if (middles[i] == null) {
+                    high[i] = low[i];
+                    continue;
+                }
+                remaining += high[i] - low[i];
+                order[candidates++] = i;
+            }
+            if (candidates == 0) {
+                return closest;
+            }
+            Arrays.sort(order, 0, candidates, Comparator.comparing(i -> middles[i], TopBalanceIndex.ORDER));
+            int pivotSegment = order[0];
+            long weight = 0;
+            for (int k = 0; k < candidates; k++) {
+                pivotSegment = order[k];
+                weight += high[pivotSegment] - low[pivotSegment];
+                if (2L * weight >= remaining) {
+                    break;
+                }
+            }
+            Account pivot = middles[pivotSegment];
+            long position = 0;
+            for (int i = 0; i < segments.length; i++) {
+                before[i] = segments[i].countBefore(pivot.getBalance(), pivot.getId());
+                position += before[i];
+            }
+            if (position == wanted) {
+                return pivot;
+            }
+            int pivotIndex = (low[pivotSegment] + high[pivotSegment]) >>> 1;
+            if (position < wanted) {
+                if (position > closestPosition) {
+                    closest = pivot;
+                    closestPosition = position;
+                }
+                for (int i = 0; i < segments.length; i++) {
+                    low[i] = Math.max(low[i], before[i]);
+                }
+                // the pivot's own index, so that a shifted count still makes progress
+                low[pivotSegment] = Math.max(low[pivotSegment], pivotIndex + 1);
+            } else {
+                for (int i = 0; i < segments.length; i++) {
+                    high[i] = Math.min(high[i], before[i]);
+                }
+                high[pivotSegment] = Math.min(high[pivotSegment], pivotIndex);
+            }
+        }
+    }
+
+    /**
+     * @return the number of accounts of all segments ordered before the account
+     */
+    private long positionOf(Account account) {
+        long position = 0;
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            position += segment.countBefore(account.getBalance(), account.getId());
+        }
+        return position;
+    }
+
+    /**
+     * Segments are copied one after the other, each under its own lock.
+     * Recency is only ordered within a segment, so the accounts of every
+     * segment are returned together; putting the list back in reverse
+     * restores the order of each segment.
+     */
+    @Override
+    public List<Account> snapshot() {
+        List<Account> accounts = new ArrayList<>(size());
+        for (AccountLRUCacheThreadSafe segment : segments) {
+            accounts.addAll(segment.snapshot());
+        }
+        return accounts;
+    }
+
+    /**
+     * Splits between the segments first, then within each one.
+     */
+    @Override
+    public Spliterator<Account> spliterator() {
+        return new ScanSpliterator(segments);
+    }
+
+    /**
+     * Replaces the contents with the accounts, as if they were put in order
+     * into an empty cache, for a cold start from millions of accounts: they
+     * are split by segment and every segment is built by {@code fill} in
+     * parallel, without locking per account, notifying listeners or writing
+     * to the log. The new segments are then published at once, so readers
+     * see either the previous or the loaded contents; writes made while
+     * loading are lost with the previous contents.
+     */
+    @Override
+    public void bulkLoad(Collection<? extends Account> accounts) {
+        Account[] all = accounts.toArray(Account[]::new);
+        AccountLRUCacheThreadSafe[] current = this.segments;
+        int[] segmentOf = new int[all.length];
+        IntStream.range(0, all.length).parallel().forEach(i -> segmentOf[i] = spread(all[i].getId()) & segmentMask);
+        int[] counts = new int[current.length];
+        for (int segment : segmentOf) {
+            counts[segment]++;
+        }
+        Account[][] parts = new Account[current.length][];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new Account[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < all.length; i++) {
+            parts[segmentOf[i]][counts[segmentOf[i]]++] = all[i];
+        }
+        AccountLRUCacheThreadSafe[] loaded = newSegments(current.length);
+        IntStream.range(0, loaded.length).parallel().forEach(i -> loaded[i].fill(parts[i]));
+        this.segments = loaded;
+    }
+
+    /**
+     * The segments share the dispatcher and statistics of this cache, so
+     * subscriptions and counts survive a {@link #bulkLoad(Collection)}.
+     */
+    private AccountLRUCacheThreadSafe[] newSegments(int segmentCount) {
+        AccountLRUCacheThreadSafe[] created = new AccountLRUCacheThreadSafe[segmentCount];
+        int segmentSize = Math.max(size, 0) / segmentCount;
+        int remainder = Math.max(size, 0) % segmentCount;
+        long segmentWeight = settings.getMaximumWeight() / segmentCount;
+        long weightRemainder = settings.getMaximumWeight() % segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            int capacity = i < remainder ? segmentSize + 1 : segmentSize;
+            long weight = i < weightRemainder ? segmentWeight + 1 : segmentWeight;
+            created[i] = new AccountLRUCacheThreadSafe(settings.toBuilder().size(capacity).maximumWeight(weight).build());
+        }
+        return created;
+    }
+
+    private AccountLRUCacheThreadSafe segmentFor(long key) {
+        return segments[spread(key) & segmentMask];
+    }
+
+    /**
+     * Account ids are usually sequential, so the low bits alone would
+     * stripe well but keep neighbouring ids in lock-step; mixing the whole
+     * key spreads both sequential and sparse ids evenly.
+     */
+    private static int spread(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int segmentCount(int size, int concurrencyLevel) {
+        int limit = Math.min(Math.min(concurrencyLevel, MAX_SEGMENTS), Math.max(size, 1));
+        return Integer.highestOneBit(limit);
+    }
+
+    private static final class PeekingIterator {
+        private final Iterator<Account> iterator;
+        private Account next;
+
+        PeekingIterator(Iterator<Account> iterator) {
+            this.iterator = iterator;
+            this.next = iterator.hasNext() ? iterator.next() : null;
+        }
+
+        Account peek() {
+            return next;
+        }
+
+        Account next() {
+            Account current = next;
+            next = iterator.hasNext() ? iterator.next() : null;
+            return current;
+        }
+    }
+}
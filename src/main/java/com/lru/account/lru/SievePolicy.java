@@ -0,0 +1,72 @@
+package com.lru.account.lru;
+
+/**
+ * SIEVE: like {@link ClockPolicy}, a hit only sets the slot's visited flag,
+ * but slots are never relinked. The list stays in insertion order and a
+ * hand walks it from the tail towards the front, clearing the flags of
+ * visited slots in place and stopping at the first one not visited; it
+ * carries on from there on the next eviction and wraps around at the
+ * front. New accounts are thereby evicted quickly unless they are read
+ * again, while popular ones stay put.
+ */
+public class SievePolicy implements EvictionPolicy {
+    private final SlotLruList list;
+    private final VisitedBits visited = new VisitedBits();
+    private int hand = SlotLruList.NIL;
+
+    public SievePolicy(SlotLruList list) {
+        this.list = list;
+    }
+
+    @Override
+    public boolean recordHit(int slot) {
+        visited.set(slot);
+        return false;
+    }
+
+    @Override
+    public void onAccess(int slot) {
+        visited.set(slot);
+    }
+
+    @Override
+    public void onInsert(int slot) {
+        visited.ensureCapacity(list.capacity());
+        visited.clear(slot);
+    }
+
+    @Override
+    public void onUpdate(int slot) {
+        visited.set(slot);
+    }
+
+    @Override
+    public void onRemove(int slot) {
+        if (slot == hand) {
+            hand = list.prev(slot);
+        }
+    }
+
+    /**
+     * Gives up after one turn, in case readers keep setting the flags
+     * behind the hand, and evicts the slot under it.
+     */
+    @Override
+    public int victim() {
+        int slot = hand != SlotLruList.NIL ? hand : list.tail();
+        for (int turn = list.size(); turn > 0 && visited.clear(slot); turn--) {
+            slot = list.prev(slot);
+            if (slot == SlotLruList.NIL) {
+                slot = list.tail();
+            }
+        }
+        hand = slot;
+        return slot;
+    }
+
+    @Override
+    public void clear() {
+        visited.clearAll();
+        hand = SlotLruList.NIL;
+    }
+}
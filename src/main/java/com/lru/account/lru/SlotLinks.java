@@ -0,0 +1,19 @@
+package com.lru.account.lru;
+
+/**
+ * Backing storage for the {@code prev/next} links of a {@link SlotLruList}.
+ */
+public interface SlotLinks {
+
+    int capacity();
+
+    void ensureCapacity(int minCapacity);
+
+    int prev(int slot);
+
+    int next(int slot);
+
+    void setPrev(int slot, int value);
+
+    void setNext(int slot, int value);
+}
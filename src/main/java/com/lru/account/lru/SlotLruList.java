@@ -0,0 +1,168 @@
+package com.lru.account.lru;
+
+/**
+ * Intrusive LRU ordering over integer slots. Links are kept in parallel
+ * {@code prev/next} arrays indexed by slot (on or off the heap, see
+ * {@link SlotLinks}), so moving an entry to the front is pure index
+ * relinking and never allocates. Slots released by {@link #remove(int)} are
+ * chained into a free list and handed out again by {@link #addFirst()}
+ * before the arrays grow.
+ * <p>
+ * Not thread-safe; the owning cache serializes access with its write lock.
+ */
+public class SlotLruList {
+    public static final int NIL = -1;
+    private static final int FREE = -2;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private final SlotLinks links;
+    private int head;
+    private int tail;
+    private int freeHead;
+    private int highWater;
+    private int size;
+
+    public SlotLruList() {
+        this(MIN_CAPACITY);
+    }
+
+    public SlotLruList(int initialCapacity) {
+        this(new HeapSlotLinks(Math.max(initialCapacity, MIN_CAPACITY)));
+    }
+
+    public SlotLruList(SlotLinks links) {
+        this.links = links;
+        this.links.ensureCapacity(MIN_CAPACITY);
+        clear();
+    }
+
+    public void clear() {
+        this.head = NIL;
+        this.tail = NIL;
+        this.freeHead = NIL;
+        this.highWater = 0;
+        this.size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of slots the links can hold without growing
+     */
+    public int capacity() {
+        return links.capacity();
+    }
+
+    /**
+     * Takes a free slot and links it as the most recently used one.
+     *
+     * @return the slot
+     */
+    public int addFirst() {
+        int slot;
+        if (freeHead != NIL) {
+            slot = freeHead;
+            freeHead = links.next(slot);
+        } else {
+            if (highWater == links.capacity()) {
+                grow();
+            }
+            slot = highWater++;
+        }
+        linkFirst(slot);
+        size++;
+        return slot;
+    }
+
+    public void moveToFront(int slot) {
+        if (slot == head) {
+            return;
+        }
+        unlink(slot);
+        linkFirst(slot);
+    }
+
+    /**
+     * Unlinks the slot and releases it for reuse.
+     */
+    public void remove(int slot) {
+        unlink(slot);
+        links.setPrev(slot, FREE);
+        links.setNext(slot, freeHead);
+        freeHead = slot;
+        size--;
+    }
+
+    public boolean isLinked(int slot) {
+        return slot >= 0 && slot < highWater && links.prev(slot) != FREE;
+    }
+
+    /**
+     * @return the most recently used slot or {@link #NIL}
+     */
+    public int head() {
+        return head;
+    }
+
+    /**
+     * @return the least recently used slot or {@link #NIL}
+     */
+    public int tail() {
+        return tail;
+    }
+
+    /**
+     * @return the next less recently used slot or {@link #NIL}
+     */
+    public int next(int slot) {
+        return links.next(slot);
+    }
+
+    /**
+     * @return the next more recently used slot or {@link #NIL}
+     */
+    public int prev(int slot) {
+        return links.prev(slot);
+    }
+
+    private void linkFirst(int slot) {
+        links.setPrev(slot, NIL);
+        links.setNext(slot, head);
+        if (head != NIL) {
+            links.setPrev(head, slot);
+        } else {
+            tail = slot;
+        }
+        head = slot;
+    }
+
+    private void unlink(int slot) {
+        int p = links.prev(slot);
+        int n = links.next(slot);
+        if (p != NIL) {
+            links.setNext(p, n);
+        } else {
+            head = n;
+        }
+        if (n != NIL) {
+            links.setPrev(n, p);
+        } else {
+            tail = p;
+        }
+    }
+
+    private void grow() {
+        int capacity = links.capacity();
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("LRU list is full");
+        }
+        links.ensureCapacity((int) Math.min((long) capacity << 1, MAX_CAPACITY));
+    }
+}
@@ -0,0 +1,15 @@
+package com.lru.account.lru;
+
+public enum StorageMode {
+    /**
+     * Accounts are kept as objects on the GC heap.
+     */
+    ON_HEAP,
+    /**
+     * Ids, balances and LRU links are kept in direct memory outside the GC
+     * heap; {@link com.lru.account.Account} instances are only created when
+     * an account is returned to the caller. Size the JVM with
+     * {@code -XX:MaxDirectMemorySize} accordingly (32 bytes per entry).
+     */
+    OFF_HEAP
+}
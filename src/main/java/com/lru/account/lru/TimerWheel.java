@@ -0,0 +1,210 @@
+package com.lru.account.lru;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hierarchical timing wheel tracking when cache slots expire. Four wheels
+ * of 64 buckets each cover about 1 second in 17 ms ticks, 69 seconds in
+ * 1 second ticks, 73 minutes in 69 second ticks and 3 days in 73 minute
+ * ticks; later deadlines wait in an overflow bucket. A slot is linked into
+ * the bucket of the finest wheel whose range covers its deadline, so
+ * scheduling and cancelling are O(1), and when time advances only the
+ * buckets of the ticks that passed or just began are visited: due slots
+ * expire and the others cascade into finer wheels.
+ * <p>
+ * Buckets are circular lists threaded through per-slot {@code int} links,
+ * with one sentinel per bucket stored before the slots. The wheel also
+ * keeps the write time of every slot.
+ * <p>
+ * Mutations are serialized by the cache write lock, except
+ * {@link #touch}; {@link #isExpired} and {@link #writeTime} may be called
+ * without it.
+ */
+public class TimerWheel {
+    public static final long NEVER = Long.MAX_VALUE;
+    private static final VarHandle DEADLINES = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int UNLINKED = -1;
+    private static final int WHEELS = 4;
+    private static final int BUCKETS = 64;
+    private static final int[] SHIFTS = {24, 30, 36, 42, 48};
+    private static final int OVERFLOW = WHEELS * BUCKETS;
+    private static final int SENTINELS = OVERFLOW + 1;
+
+    private int[] next;
+    private int[] prev;
+    private volatile long[] deadlines;
+    private volatile long[] writeTimes;
+    private long time;
+
+    public TimerWheel(int capacity, long now) {
+        this.next = new int[SENTINELS];
+        this.prev = new int[SENTINELS];
+        this.deadlines = new long[0];
+        this.writeTimes = new long[0];
+        this.time = now;
+        clear();
+        ensureCapacity(capacity);
+    }
+
+    public void ensureCapacity(int slots) {
+        int length = deadlines.length;
+        if (slots <= length) {
+            return;
+        }
+        int grown = Math.max(slots, length + (length >>> 1));
+        next = Arrays.copyOf(next, SENTINELS + grown);
+        prev = Arrays.copyOf(prev, SENTINELS + grown);
+        Arrays.fill(next, SENTINELS + length, SENTINELS + grown, UNLINKED);
+        Arrays.fill(prev, SENTINELS + length, SENTINELS + grown, UNLINKED);
+        long[] grownDeadlines = Arrays.copyOf(deadlines, grown);
+        Arrays.fill(grownDeadlines, length, grown, NEVER);
+        writeTimes = Arrays.copyOf(writeTimes, grown);
+        deadlines = grownDeadlines;
+    }
+
+    public void setWriteTime(int slot, long now) {
+        writeTimes[slot] = now;
+    }
+
+    public long writeTime(int slot) {
+        long[] times = writeTimes;
+        return slot < times.length ? times[slot] : 0L;
+    }
+
+    public long deadline(int slot) {
+        return deadlines[slot];
+    }
+
+    public boolean isExpired(int slot, long now) {
+        long[] current = deadlines;
+        if (slot >= current.length) {
+            return false;
+        }
+        long deadline = current[slot];
+        return deadline != NEVER && now - deadline >= 0;
+    }
+
+    /**
+     * Moves the deadline from {@code expected} without relinking the slot;
+     * lookups call this without the lock and the owner
+     * {@link #reschedule(int)}s the slot later. A slot found in a bucket
+     * before its deadline is just moved on. A deadline grown into a new
+     * array meanwhile is moved there too.
+     *
+     * @return {@code false} if the deadline was no longer {@code expected},
+     * e.g. because the slot was rescheduled or unlinked
+     */
+    public boolean touch(int slot, long expected, long deadline) {
+        long[] current = deadlines;
+        if (!DEADLINES.compareAndSet(current, slot, expected, deadline)) {
+            return false;
+        }
+        for (long[] grown; (grown = deadlines) != current; current = grown) {
+            // the copy holds the deadline from before or after the swap, unless the slot was written since
+            if (!DEADLINES.compareAndSet(grown, slot, expected, deadline) && (long) DEADLINES.getVolatile(grown, slot) != deadline) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void schedule(int slot, long deadline) {
+        unlink(slot);
+        deadlines[slot] = deadline;
+        if (deadline != NEVER) {
+            link(slot, deadline);
+        }
+    }
+
+    public void reschedule(int slot) {
+        schedule(slot, deadlines[slot]);
+    }
+
+    public void unlink(int slot) {
+        int node = SENTINELS + slot;
+        if (next[node] == UNLINKED) {
+            return;
+        }
+        next[prev[node]] = next[node];
+        prev[next[node]] = prev[node];
+        next[node] = UNLINKED;
+        prev[node] = UNLINKED;
+        deadlines[slot] = NEVER;
+    }
+
+    /**
+     * Advances the wheel to {@code now}, passing every slot whose deadline
+     * has been reached to {@code expired}, already unlinked.
+     */
+    public void advance(long now, IntConsumer expired) {
+        long previous = time;
+        time = now;
+        for (int wheel = 0; wheel <= WHEELS; wheel++) {
+            long previousTicks = previous >>> SHIFTS[wheel];
+            long ticks = (now >>> SHIFTS[wheel]) - previousTicks;
+            if (ticks <= 0) {
+                break;
+            }
+            if (wheel == WHEELS) {
+                expire(OVERFLOW, now, expired);
+                break;
+            }
+            // the bucket of the tick just entered is visited too, cascading its slots into finer wheels
+            int count = (int) Math.min(ticks + 1, BUCKETS);
+            for (int i = 0; i < count; i++) {
+                expire(wheel * BUCKETS + (int) ((previousTicks + i) & (BUCKETS - 1)), now, expired);
+            }
+        }
+    }
+
+    public void clear() {
+        for (int sentinel = 0; sentinel < SENTINELS; sentinel++) {
+            next[sentinel] = sentinel;
+            prev[sentinel] = sentinel;
+        }
+        Arrays.fill(next, SENTINELS, next.length, UNLINKED);
+        Arrays.fill(prev, SENTINELS, prev.length, UNLINKED);
+        Arrays.fill(deadlines, NEVER);
+    }
+
+    private void expire(int sentinel, long now, IntConsumer expired) {
+        int node = next[sentinel];
+        next[sentinel] = sentinel;
+        prev[sentinel] = sentinel;
+        while (node != sentinel) {
+            int following = next[node];
+            int slot = node - SENTINELS;
+            next[node] = UNLINKED;
+            prev[node] = UNLINKED;
+            long deadline = deadlines[slot];
+            if (now - deadline >= 0) {
+                deadlines[slot] = NEVER;
+                expired.accept(slot);
+            } else {
+                link(slot, deadline);
+            }
+            node = following;
+        }
+    }
+
+    private void link(int slot, long deadline) {
+        long due = Math.max(deadline - time, 0L);
+        int sentinel = OVERFLOW;
+        for (int wheel = 0; wheel < WHEELS; wheel++) {
+            if (due < 1L << SHIFTS[wheel + 1]) {
+                long at = Math.max(deadline, time);
+                sentinel = wheel * BUCKETS + (int) ((at >>> SHIFTS[wheel]) & (BUCKETS - 1));
+                break;
+            }
+        }
+        int node = SENTINELS + slot;
+        int last = prev[sentinel];
+        next[last] = node;
+        prev[node] = last;
+        next[node] = sentinel;
+        prev[sentinel] = node;
+    }
+}
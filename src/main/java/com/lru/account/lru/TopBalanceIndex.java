@@ -0,0 +1,148 @@
+package com.lru.account.lru;
+
+import com.lru.account.Account;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Bounded, incrementally maintained index of the accounts with the largest
+ * balances, ties broken by id. It tracks up to {@code 2 * limit} candidates
+ * in a small sorted array and keeps them equal to the exact top of the whole
+ * cache: an account that drops below the last tracked candidate is simply
+ * forgotten, and only when fewer than {@code limit} candidates remain while
+ * the cache holds more accounts does the owner have to {@link #rebuild()} the
+ * index from a full scan.
+ * <p>
+ * Mutations are serialized by the cache write lock. Readers get the last
+ * published immutable snapshot without locking.
+ */
+public class TopBalanceIndex {
+    public static final Comparator<Account> ORDER = Comparator.comparing(Account::getBalance).reversed()
+        .thenComparingLong(Account::getId);
+
+    private final int limit;
+    private final Account[] entries;
+    private int count;
+    private boolean dirty;
+    private volatile List<Account> snapshot = List.of();
+
+    public TopBalanceIndex(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        this.limit = limit;
+        this.entries = new Account[limit * 2];
+    }
+
+    /**
+     * @return the number of accounts this index always answers exactly
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Records a new account or a balance change.
+     *
+     * @param cacheSize the number of cached accounts, including this one
+     */
+    public void update(Account account, int cacheSize) {
+        int position = find(account.getId());
+        if (position >= 0) {
+            removeAt(position);
+        }
+        boolean othersAllTracked = cacheSize - 1 <= count;
+        if (othersAllTracked || (count > 0 && ORDER.compare(account, entries[count - 1]) < 0)) {
+            insert(account);
+        }
+    }
+
+    public void remove(long id) {
+        int position = find(id);
+        if (position >= 0) {
+            removeAt(position);
+        }
+    }
+
+    /**
+     * @return {@code true} if too few candidates are left to answer the
+     * top {@code limit} exactly and the index must be rebuilt
+     */
+    public boolean needsRebuild(int cacheSize) {
+        return count < Math.min(limit, cacheSize);
+    }
+
+    /**
+     * Forgets every candidate; the owner then {@link #offer(Account)}s all
+     * cached accounts.
+     */
+    public void rebuild() {
+        Arrays.fill(entries, 0, count, null);
+        count = 0;
+        dirty = true;
+    }
+
+    /**
+     * Adds an account while rebuilding, keeping only the best candidates.
+     */
+    public void offer(Account account) {
+        if (count < entries.length || ORDER.compare(account, entries[count - 1]) < 0) {
+            insert(account);
+        }
+    }
+
+    public void clear() {
+        rebuild();
+        publish();
+    }
+
+    /**
+     * Makes the changes since the last call visible to readers.
+     */
+    public void publish() {
+        if (dirty) {
+            snapshot = List.of(Arrays.copyOf(entries, count));
+            dirty = false;
+        }
+    }
+
+    /**
+     * @return all exactly known top accounts, best first; at least
+     * {@code min(limit, cache size)} of them
+     */
+    public List<Account> snapshot() {
+        return snapshot;
+    }
+
+    private int find(long id) {
+        for (int i = 0; i < count; i++) {
+            if (entries[i].getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(Account account) {
+        int position = count;
+        while (position > 0 && ORDER.compare(account, entries[position - 1]) < 0) {
+            position--;
+        }
+        if (position >= entries.length) {
+            return;
+        }
+        int moved = Math.min(count, entries.length - 1) - position;
+        System.arraycopy(entries, position, entries, position + 1, moved);
+        entries[position] = account;
+        count = Math.min(count + 1, entries.length);
+        dirty = true;
+    }
+
+    private void removeAt(int position) {
+        System.arraycopy(entries, position + 1, entries, position, count - position - 1);
+        entries[--count] = null;
+        dirty = true;
+    }
+}
@@ -0,0 +1,51 @@
+package com.lru.account.lru;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * One "visited" flag per slot, set by readers without a lock and cleared
+ * by the eviction hand under the write lock. A flag set on an array being
+ * replaced by {@link #ensureCapacity(int)} may be lost, which only costs
+ * its account a second chance.
+ */
+final class VisitedBits {
+    private static final VarHandle FLAGS = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private volatile byte[] flags = new byte[16];
+
+    void ensureCapacity(int slots) {
+        byte[] current = flags;
+        if (slots > current.length) {
+            flags = Arrays.copyOf(current, Math.max(slots, current.length * 2));
+        }
+    }
+
+    /**
+     * Sets the flag, skipping the write if it is already set so that hot
+     * slots do not bounce their cache line between readers.
+     */
+    void set(int slot) {
+        byte[] current = flags;
+        if (slot < current.length && (byte) FLAGS.getOpaque(current, slot) == 0) {
+            FLAGS.setOpaque(current, slot, (byte) 1);
+        }
+    }
+
+    /**
+     * @return whether the flag was set
+     */
+    boolean clear(int slot) {
+        byte[] current = flags;
+        if ((byte) FLAGS.getOpaque(current, slot) == 0) {
+            return false;
+        }
+        FLAGS.setOpaque(current, slot, (byte) 0);
+        return true;
+    }
+
+    void clearAll() {
+        Arrays.fill(flags, (byte) 0);
+    }
+}
@@ -0,0 +1,353 @@
+package com.lru.account.near;
+
+import com.lru.account.Account;
+import com.lru.account.AccountBatch;
+import com.lru.account.AccountCache;
+import com.lru.account.event.Subscription;
+import com.lru.account.event.SubscriptionOptions;
+import com.lru.account.lru.Cache;
+import com.lru.account.stats.CacheStats;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Small first-level cache of recently read accounts in front of a shared
+ * {@link AccountCache}, so that hot accounts are read without the backing
+ * cache's lock or network hop.
+ * <p>
+ * The slots are direct-mapped and lock-free: a lookup is one volatile read,
+ * and an account read from the backing cache simply displaces the one in
+ * its slot. Writes made through this cache invalidate the slot before they
+ * return; every other write, and every removal, reaches it through the
+ * backing cache's update subscription. A per-slot stamp, bumped by each invalidation, keeps a read
+ * racing with a write from caching the balance the write replaced. Accounts
+ * are re-read after {@link NearCacheSettings#getMaxStaleness()} in any case.
+ * <p>
+ * Balance queries, subscriptions and the other calls go to the backing
+ * cache, which stays open when this one is closed.
+ */
+public class NearAccountCache implements AccountCache {
+    private final AccountCache backing;
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLongArray stamps;
+    private final int shift;
+    private final long maxStalenessNanos;
+    private final Subscription invalidations;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    public NearAccountCache(AccountCache backing, NearCacheSettings settings) {
+        int capacity = Integer.highestOneBit(Math.max(settings.getSize(), 2) - 1) << 1;
+        this.backing = backing;
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.stamps = new AtomicLongArray(capacity);
+        this.shift = Long.numberOfLeadingZeros(capacity - 1);
+        this.maxStalenessNanos = settings.getMaxStaleness().toNanos();
+        this.invalidations = backing.subscribeForAccountUpdateBatches(
+            batch -> batch.forEach(account -> invalidate(account.getId())), settings.getInvalidationOptions());
+    }
+
+    @Override
+    public Account getAccountById(long id) {
+        int slot = slot(id);
+        Account account = lookup(slot, id);
+        if (account != null) {
+            return account;
+        }
+        long stamp = stamps.get(slot);
+        account = backing.getAccountById(id);
+        install(slot, stamp, account);
+        return account;
+    }
+
+    @Override
+    public CompletableFuture<Account> getAccountByIdAsync(long id) {
+        int slot = slot(id);
+        Account account = lookup(slot, id);
+        if (account != null) {
+            return CompletableFuture.completedFuture(account);
+        }
+        long stamp = stamps.get(slot);
+        return backing.getAccountByIdAsync(id).thenApply(loaded -> {
+            install(slot, stamp, loaded);
+            return loaded;
+        });
+    }
+
+    @Override
+    public AccountBatch getAccountsByIds(long[] ids) {
+        return getAccountsByIds(ids, new AccountBatch(ids.length));
+    }
+
+    /**
+     * The misses are read from the backing cache in one batch.
+     */
+    @Override
+    public AccountBatch getAccountsByIds(long[] ids, AccountBatch into) {
+        into.reset(ids.length);
+        long[] missed = null;
+        long[] missStamps = null;
+        int missCount = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int slot = slot(ids[i]);
+            Account account = lookup(slot, ids[i]);
+            if (account != null) {
+                into.set(i, account);
+                continue;
+            }
+            if (missed == null) {
+                missed = new long[ids.length - i];
+                missStamps = new long[missed.length];
+            }
+            missStamps[missCount] = stamps.get(slot);
+            missed[missCount++] = ids[i];
+        }
+        if (missCount == 0) {
+            return into;
+        }
+        AccountBatch loaded = backing.getAccountsByIds(missCount == missed.length ? missed : Arrays.copyOf(missed, missCount));
+        for (int i = 0, m = 0; i < ids.length; i++) {
+            if (into.get(i) == null) {
+                Account account = loaded.get(m);
+                install(slot(ids[i]), missStamps[m++], account);
+                into.set(i, account);
+            }
+        }
+        return into;
+    }
+
+    @Override
+    public void putAccount(Account account) {
+        backing.putAccount(account);
+        invalidate(account.getId());
+    }
+
+    @Override
+    public void putAccounts(Collection<Account> accounts) {
+        backing.putAccounts(accounts);
+        accounts.forEach(account -> invalidate(account.getId()));
+    }
+
+    @Override
+    public Account adjustBalance(long id, BigDecimal delta) {
+        try {
+            return backing.adjustBalance(id, delta);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public boolean compareAndSetBalance(long id, BigDecimal expected, BigDecimal balance) {
+        try {
+            return backing.compareAndSetBalance(id, expected, balance);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public Account computeIfPresent(long id, UnaryOperator<Account> remapping) {
+        try {
+            return backing.computeIfPresent(id, remapping);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public void subscribeForAccountUpdates(Consumer<Account> listener) {
+        backing.subscribeForAccountUpdates(listener);
+    }
+
+    @Override
+    public Subscription subscribeForAccountUpdates(Consumer<Account> listener, SubscriptionOptions options) {
+        return backing.subscribeForAccountUpdates(listener, options);
+    }
+
+    @Override
+    public Subscription subscribeForAccountUpdateBatches(Consumer<List<Account>> listener, SubscriptionOptions options) {
+        return backing.subscribeForAccountUpdateBatches(listener, options);
+    }
+
+    @Override
+    public List<Account> getTop3AccountsByBalance() {
+        return backing.getTop3AccountsByBalance();
+    }
+
+    @Override
+    public List<Account> getTopNAccountsByBalance(int n) {
+        return backing.getTopNAccountsByBalance(n);
+    }
+
+    @Override
+    public int getTopAccountsByBalance(Account[] into) {
+        return backing.getTopAccountsByBalance(into);
+    }
+
+    @Override
+    public long countAccountsWithBalanceAbove(BigDecimal balance) {
+        return backing.countAccountsWithBalanceAbove(balance);
+    }
+
+    @Override
+    public Stream<Account> getAccountsWithBalanceBetween(BigDecimal min, BigDecimal max) {
+        return backing.getAccountsWithBalanceBetween(min, max);
+    }
+
+    @Override
+    public long rankOf(long id) {
+        return backing.rankOf(id);
+    }
+
+    @Override
+    public BigDecimal percentile(double p) {
+        return backing.percentile(p);
+    }
+
+    /**
+     * Scans the backing cache, which holds every account this one does.
+     */
+    @Override
+    public Stream<Account> stream() {
+        return backing.stream();
+    }
+
+    @Override
+    public void forEach(long parallelismThreshold, Consumer<? super Account> action) {
+        backing.forEach(parallelismThreshold, action);
+    }
+
+    @Override
+    public <U> U reduce(long parallelismThreshold, Function<? super Account, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return backing.reduce(parallelismThreshold, transformer, reducer);
+    }
+
+    /**
+     * @return the hits of this cache and of the backing one
+     */
+    @Override
+    public int getAccountByIdHitCount() {
+        return (int) hits.sum() + backing.getAccountByIdHitCount();
+    }
+
+    /**
+     * @return the statistics of the backing cache; see
+     * {@link #getNearStats()} for this one
+     */
+    @Override
+    public CacheStats getStats() {
+        return backing.getStats();
+    }
+
+    /**
+     * @return the hits and misses of this cache; its updates are the
+     * invalidations, its evictions the accounts found too stale
+     */
+    public CacheStats getNearStats() {
+        return CacheStats.builder()
+            .hitCount(hits.sum())
+            .missCount(misses.sum())
+            .updateCount(invalidated.sum())
+            .evictionCount(expired.sum())
+            .build();
+    }
+
+    /**
+     * @return the number of occupied slots, counted on every call
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < entries.length(); i++) {
+            if (entries.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Drops the cached copy of the account, if any.
+     */
+    public void invalidate(long id) {
+        int slot = slot(id);
+        stamps.incrementAndGet(slot);
+        Entry entry = entries.get(slot);
+        if (entry != null && entry.id == id && entries.compareAndSet(slot, entry, null)) {
+            invalidated.increment();
+        }
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < entries.length(); i++) {
+            stamps.incrementAndGet(i);
+            entries.set(i, null);
+        }
+    }
+
+    @Override
+    public Cache<Long, Account> getLruCache() {
+        return backing.getLruCache();
+    }
+
+    /**
+     * Stops the invalidations; the backing cache stays open.
+     */
+    @Override
+    public void close() {
+        invalidations.close();
+        invalidateAll();
+    }
+
+    private Account lookup(int slot, long id) {
+        Entry entry = entries.get(slot);
+        if (entry != null && entry.id == id) {
+            if (System.nanoTime() - entry.readAt < maxStalenessNanos) {
+                hits.increment();
+                return entry.account;
+            }
+            entries.compareAndSet(slot, entry, null);
+            expired.increment();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches an account read from the backing cache after the slot had the
+     * given stamp, unless an invalidation came in between: it may have been
+     * for a write the read did not see.
+     */
+    private void install(int slot, long stamp, Account account) {
+        if (account == null || stamps.get(slot) != stamp) {
+            return;
+        }
+        Entry entry = new Entry(account.getId(), account, System.nanoTime());
+        entries.set(slot, entry);
+        if (stamps.get(slot) != stamp) {
+            entries.compareAndSet(slot, entry, null);
+        }
+    }
+
+    private int slot(long id) {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private record Entry(long id, Account account, long readAt) {
+    }
+}
@@ -0,0 +1,49 @@
+package com.lru.account.near;
+
+import com.lru.account.stats.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the statistics of a {@link NearAccountCache} under
+ * {@code account.near.*} meters tagged with the cache name, next to the
+ * {@code account.cache.*} meters of the backing cache.
+ */
+public class NearCacheMetrics implements MeterBinder {
+    private final NearAccountCache cache;
+    private final Tags tags;
+
+    public NearCacheMetrics(NearAccountCache cache, String name) {
+        this.cache = cache;
+        this.tags = Tags.of("cache", name);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("account.near.size", cache, NearAccountCache::size)
+            .tags(tags)
+            .description("Number of accounts in the near cache")
+            .register(registry);
+        Gauge.builder("account.near.hit.ratio", cache, near -> near.getNearStats().hitRate())
+            .tags(tags)
+            .register(registry);
+        counter(registry, "account.near.gets", "hit", CacheStats::getHitCount);
+        counter(registry, "account.near.gets", "miss", CacheStats::getMissCount);
+        counter(registry, "account.near.invalidations", null, CacheStats::getUpdateCount);
+        counter(registry, "account.near.expirations", null, CacheStats::getEvictionCount);
+    }
+
+    private void counter(MeterRegistry registry, String name, String result, ToDoubleFunction<CacheStats> count) {
+        FunctionCounter.Builder<NearAccountCache> builder = FunctionCounter.builder(name, cache,
+            near -> count.applyAsDouble(near.getNearStats())).tags(tags);
+        if (result != null) {
+            builder.tag("result", result);
+        }
+        builder.register(registry);
+    }
+}
@@ -0,0 +1,38 @@
+package com.lru.account.near;
+
+import com.lru.account.event.BackpressurePolicy;
+import com.lru.account.event.SubscriptionOptions;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class NearCacheSettings {
+    /**
+     * Number of slots, rounded up to a power of two; an account displaces
+     * the one in its slot, so keep it a few times the hot set.
+     */
+    @Builder.Default
+    private final int size = 4096;
+
+    /**
+     * Longest time an account is served without asking the backing cache,
+     * bounding the staleness left by updates not seen by the subscription,
+     * e.g. written to another node.
+     */
+    @Builder.Default
+    private final Duration maxStaleness = Duration.ofSeconds(1);
+
+    /**
+     * Delivery of the invalidations; coalescing keeps one pending
+     * invalidation per account, none is dropped. Removals must be
+     * delivered too, or a removed account is served until it is stale.
+     */
+    @Builder.Default
+    private final SubscriptionOptions invalidationOptions = SubscriptionOptions.builder()
+        .bufferSize(4096).maxBatchSize(256).backpressure(BackpressurePolicy.COALESCE_BY_ID).removals(true).build();
+}
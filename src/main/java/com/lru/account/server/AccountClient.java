@@ -0,0 +1,258 @@
+package com.lru.account.server;
+
+import com.lru.account.Account;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Pipelining client of an {@link AccountServer}. Requests never wait for
+ * earlier responses: they are encoded into a shared buffer that a writer
+ * thread sends whenever the previous write is done, so requests issued
+ * concurrently leave in one batch. A reader thread completes the futures
+ * and hands pushed updates to the subscriber.
+ */
+@Slf4j
+public class AccountClient implements AutoCloseable {
+    private final SocketChannel channel;
+    private final Map<Integer, CompletableFuture<?>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition requestsPending = lock.newCondition();
+    private final Thread writer;
+    private final Thread reader;
+    private FrameBuffer buffered = new FrameBuffer(64 << 10);
+    private FrameBuffer writing = new FrameBuffer(64 << 10);
+    private volatile Consumer<Account> listener;
+    private volatile boolean closed;
+
+    private AccountClient(SocketChannel channel) {
+        this.channel = channel;
+        this.writer = Thread.ofVirtual().name("account-client-writer").start(this::write);
+        this.reader = Thread.ofVirtual().name("account-client-reader").start(this::read);
+    }
+
+    public static AccountClient connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return new AccountClient(channel);
+    }
+
+    /**
+     * @return the account, or {@code null} if the server has none
+     */
+    public CompletableFuture<Account> getAccountById(long id) {
+        return send(AccountProtocol.GET, out -> out.putLong(id));
+    }
+
+    public CompletableFuture<Void> putAccount(Account account) {
+        AccountProtocol.unscaledBytes(account);
+        return send(AccountProtocol.PUT, out -> out.putAccount(account));
+    }
+
+    public CompletableFuture<List<Account>> getTopNAccountsByBalance(int n) {
+        return send(AccountProtocol.TOP, out -> out.putInt(n));
+    }
+
+    /**
+     * Subscribes this connection to the account updates, which are passed
+     * to the listener on the reader thread; it must not block.
+     */
+    public CompletableFuture<Void> subscribe(Consumer<Account> listener) {
+        this.listener = listener;
+        return send(AccountProtocol.SUBSCRIBE, out -> { });
+    }
+
+    public CompletableFuture<Void> unsubscribe() {
+        return this.<Void>send(AccountProtocol.UNSUBSCRIBE, out -> { }).thenRun(() -> listener = null);
+    }
+
+    /**
+     * @return the number of requests sent but not answered yet
+     */
+    public int pendingRequests() {
+        return pending.size();
+    }
+
+    /**
+     * Closes the connection; unanswered requests fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Closing {} failed", channel, e);
+        }
+        lock.lock();
+        try {
+            requestsPending.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        failPending(new ClosedChannelException());
+    }
+
+    private <T> CompletableFuture<T> send(byte opcode, Consumer<FrameBuffer> payload) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        int requestId = requestIds.incrementAndGet();
+        pending.put(requestId, future);
+        lock.lock();
+        try {
+            if (closed) {
+                pending.remove(requestId);
+                future.completeExceptionally(new ClosedChannelException());
+                return future;
+            }
+            if (buffered.size() == 0) {
+                requestsPending.signal();
+            }
+            buffered.begin(opcode, requestId);
+            payload.accept(buffered);
+            buffered.end();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    while (buffered.size() == 0 && !closed) {
+                        requestsPending.await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    FrameBuffer batch = buffered;
+                    buffered = writing;
+                    writing = batch;
+                } finally {
+                    lock.unlock();
+                }
+                writing.writeTo(channel);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void read() {
+        ByteBuffer in = ByteBuffer.allocate(64 << 10);
+        try {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                while (in.remaining() >= AccountProtocol.LENGTH_BYTES) {
+                    int length = in.getInt(in.position());
+                    if (length < AccountProtocol.HEADER_BYTES - AccountProtocol.LENGTH_BYTES || length > AccountProtocol.MAX_FRAME_BYTES) {
+                        throw new ProtocolException("bad frame length " + length);
+                    }
+                    int frameBytes = AccountProtocol.LENGTH_BYTES + length;
+                    if (in.remaining() < frameBytes) {
+                        if (in.capacity() < frameBytes) {
+                            in = ByteBuffer.allocate(frameBytes).put(in).flip();
+                        }
+                        break;
+                    }
+                    int end = in.position() + frameBytes;
+                    in.position(in.position() + AccountProtocol.LENGTH_BYTES);
+                    handle(in.get(), in.getInt(), in.get(), in.slice(in.position(), end - in.position()));
+                    in.position(end);
+                }
+                in.compact();
+            }
+            fail(new ClosedChannelException());
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            // e.g. a payload shorter than its contents, which leaves the stream out of step
+            fail(new IOException("malformed response", e));
+        }
+    }
+
+    private void handle(byte opcode, int requestId, byte status, ByteBuffer payload) throws ProtocolException {
+        if (opcode == AccountProtocol.UPDATE) {
+            Consumer<Account> current = listener;
+            if (current != null) {
+                Account account = AccountProtocol.readAccount(payload);
+                try {
+                    current.accept(account);
+                } catch (RuntimeException e) {
+                    log.error("Account update listener failed", e);
+                }
+            }
+            return;
+        }
+        CompletableFuture<?> future = pending.remove(requestId);
+        if (future == null) {
+            throw new ProtocolException("response to unknown request " + requestId);
+        }
+        Object result;
+        try {
+            if (status == AccountProtocol.ERROR) {
+                future.completeExceptionally(new IllegalStateException("server error: " + AccountProtocol.readError(payload)));
+                return;
+            }
+            result = switch (opcode) {
+                case AccountProtocol.GET -> status == AccountProtocol.NOT_FOUND ? null : AccountProtocol.readAccount(payload);
+                case AccountProtocol.TOP -> {
+                    int count = payload.getInt();
+                    List<Account> accounts = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        accounts.add(AccountProtocol.readAccount(payload));
+                    }
+                    yield accounts;
+                }
+                default -> null;
+            };
+        } catch (ProtocolException | RuntimeException e) {
+            // no longer pending, so failing the connection would miss it
+            future.completeExceptionally(e);
+            throw e;
+        }
+        complete(future, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void complete(CompletableFuture<T> future, Object result) {
+        future.complete((T) result);
+    }
+
+    private void fail(IOException e) {
+        if (!closed) {
+            log.warn("Connection {} failed", channel, e);
+            close();
+        }
+        failPending(e);
+    }
+
+    private void failPending(IOException e) {
+        pending.keySet().forEach(id -> {
+            CompletableFuture<?> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,81 @@
+package com.lru.account.server;
+
+import com.lru.account.Account;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary protocol between {@link AccountClient} and {@link AccountServer},
+ * big-endian. Every message is a frame:
+ * <pre>
+ * int  length of the rest of the frame
+ * byte opcode
+ * int  request id, chosen by the client and echoed in the response
+ * ...  payload
+ * </pre>
+ * Requests and their response payloads after the status byte:
+ * <pre>
+ * GET         long id        -> OK account | NOT_FOUND
+ * PUT         account        -> OK
+ * TOP         int n          -> OK int count, count accounts
+ * SUBSCRIBE                  -> OK, then UPDATE frames carrying its request id
+ * UNSUBSCRIBE                -> OK
+ * </pre>
+ * An {@code ERROR} status is followed by a UTF-8 message: short length,
+ * bytes. An account is its long id, int balance scale, short byte length
+ * and the two's-complement bytes of the unscaled balance.
+ * <p>
+ * Clients may pipeline any number of requests; responses come back in
+ * request order, interleaved with updates.
+ */
+public final class AccountProtocol {
+    public static final byte GET = 1;
+    public static final byte PUT = 2;
+    public static final byte TOP = 3;
+    public static final byte SUBSCRIBE = 4;
+    public static final byte UNSUBSCRIBE = 5;
+    public static final byte UPDATE = 6;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte ERROR = 2;
+
+    public static final int MAX_FRAME_BYTES = 1 << 20;
+    public static final int MAX_TOP = 10_000;
+    static final int LENGTH_BYTES = 4;
+    static final int HEADER_BYTES = LENGTH_BYTES + 1 + 4;
+    private static final int MAX_BALANCE_BYTES = Short.MAX_VALUE;
+
+    private AccountProtocol() {
+    }
+
+    static Account readAccount(ByteBuffer buffer) throws ProtocolException {
+        long id = buffer.getLong();
+        int scale = buffer.getInt();
+        int length = buffer.getShort();
+        if (length <= 0 || length > buffer.remaining()) {
+            throw new ProtocolException("bad balance length " + length);
+        }
+        byte[] unscaled = new byte[length];
+        buffer.get(unscaled);
+        return Account.builder().id(id).balance(new BigDecimal(new BigInteger(unscaled), scale)).build();
+    }
+
+    static String readError(ByteBuffer buffer) {
+        byte[] message = new byte[buffer.getShort()];
+        buffer.get(message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    static byte[] unscaledBytes(Account account) {
+        byte[] unscaled = account.getBalance().unscaledValue().toByteArray();
+        if (unscaled.length > MAX_BALANCE_BYTES) {
+            throw new IllegalArgumentException("balance too large to send: " + account.getId());
+        }
+        return unscaled;
+    }
+}
@@ -0,0 +1,280 @@
+package com.lru.account.server;
+
+import com.lru.account.Account;
+import com.lru.account.AccountCache;
+import com.lru.account.event.Subscription;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves an {@link AccountCache} over {@link AccountProtocol} on a TCP
+ * port. Every connection is handled by a virtual thread doing blocking NIO
+ * reads: all complete requests in the read buffer are answered into one
+ * write buffer, which is written once they are done, so pipelining clients
+ * get their responses in batches. Updates of a subscribed connection are
+ * pushed from the subscription's thread through the same buffer.
+ */
+@Slf4j
+public class AccountServer implements AutoCloseable {
+    private final AccountCache cache;
+    private final ServerSettings settings;
+    private final ServerSocketChannel serverChannel;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    private AccountServer(AccountCache cache, ServerSettings settings) throws IOException {
+        this.cache = cache;
+        this.settings = settings;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(settings.getHost(), settings.getPort()));
+        // a platform thread keeps the JVM running while the server is open
+        this.acceptor = Thread.ofPlatform().name("account-server").start(this::accept);
+    }
+
+    public static AccountServer start(AccountCache cache, ServerSettings settings) throws IOException {
+        return new AccountServer(cache, settings);
+    }
+
+    public InetSocketAddress address() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException("server is closed", e);
+        }
+    }
+
+    /**
+     * @return the number of open client connections
+     */
+    public int connectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Stops accepting and closes every connection; the cache stays open.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverChannel.close();
+            acceptor.join();
+        } catch (IOException e) {
+            log.warn("Closing the server socket failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connections.forEach(Connection::close);
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connections.add(connection);
+                Thread.ofVirtual().name("account-connection-" + channel.getRemoteAddress()).start(connection);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                log.warn("Accepting a connection failed", e);
+            }
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final SocketChannel channel;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final FrameBuffer out;
+        private ByteBuffer in;
+        private volatile Subscription subscription;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.in = ByteBuffer.allocate(settings.getBufferBytes());
+            this.out = new FrameBuffer(settings.getBufferBytes());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (channel.read(in) >= 0) {
+                    in.flip();
+                    handleFrames();
+                    in.compact();
+                }
+            } catch (ClosedChannelException e) {
+                // closed by the server
+            } catch (IOException e) {
+                log.debug("Connection {} failed", channel, e);
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            if (subscription != null) {
+                subscription.close();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Closing connection {} failed", channel, e);
+            }
+        }
+
+        /**
+         * Answers every complete request in the read buffer, then writes the
+         * responses at once.
+         */
+        private void handleFrames() throws IOException {
+            while (in.remaining() >= AccountProtocol.LENGTH_BYTES) {
+                int length = in.getInt(in.position());
+                if (length < AccountProtocol.HEADER_BYTES - AccountProtocol.LENGTH_BYTES || length > AccountProtocol.MAX_FRAME_BYTES) {
+                    throw new ProtocolException("bad frame length " + length);
+                }
+                int frameBytes = AccountProtocol.LENGTH_BYTES + length;
+                if (in.remaining() < frameBytes) {
+                    if (in.capacity() < frameBytes) {
+                        in = ByteBuffer.allocate(frameBytes).put(in).flip();
+                    }
+                    break;
+                }
+                int end = in.position() + frameBytes;
+                in.position(in.position() + AccountProtocol.LENGTH_BYTES);
+                handle(in.get(), in.getInt(), in.slice(in.position(), end - in.position()));
+                in.position(end);
+                if (out.size() >= settings.getFlushBytes()) {
+                    flush();
+                }
+            }
+            flush();
+        }
+
+        private void handle(byte opcode, int requestId, ByteBuffer payload) throws IOException {
+            try {
+                switch (opcode) {
+                    case AccountProtocol.GET -> {
+                        Account account = cache.getAccountById(payload.getLong());
+                        respond(opcode, requestId, account);
+                    }
+                    case AccountProtocol.PUT -> {
+                        cache.putAccount(AccountProtocol.readAccount(payload));
+                        respond(opcode, requestId, AccountProtocol.OK);
+                    }
+                    case AccountProtocol.TOP -> {
+                        int n = payload.getInt();
+                        if (n < 0 || n > AccountProtocol.MAX_TOP) {
+                            throw new IllegalArgumentException("n must be within [0, " + AccountProtocol.MAX_TOP + "]: " + n);
+                        }
+                        respond(opcode, requestId, cache.getTopNAccountsByBalance(n));
+                    }
+                    case AccountProtocol.SUBSCRIBE -> {
+                        if (subscription != null) {
+                            throw new IllegalStateException("already subscribed");
+                        }
+                        subscription = cache.subscribeForAccountUpdateBatches(batch -> push(requestId, batch),
+                            settings.getSubscriptionOptions());
+                        respond(opcode, requestId, AccountProtocol.OK);
+                    }
+                    case AccountProtocol.UNSUBSCRIBE -> {
+                        if (subscription != null) {
+                            subscription.close();
+                            subscription = null;
+                        }
+                        respond(opcode, requestId, AccountProtocol.OK);
+                    }
+                    default -> throw new IllegalArgumentException("unknown opcode " + opcode);
+                }
+            } catch (ProtocolException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                writeLock.lock();
+                try {
+                    out.abort();
+                    out.begin(opcode, requestId).putByte(AccountProtocol.ERROR).putError(e.getMessage()).end();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+
+        private void respond(byte opcode, int requestId, byte status) {
+            writeLock.lock();
+            try {
+                out.begin(opcode, requestId).putByte(status).end();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void respond(byte opcode, int requestId, Account account) {
+            writeLock.lock();
+            try {
+                if (account == null) {
+                    out.begin(opcode, requestId).putByte(AccountProtocol.NOT_FOUND).end();
+                } else {
+                    out.begin(opcode, requestId).putByte(AccountProtocol.OK).putAccount(account).end();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void respond(byte opcode, int requestId, List<Account> accounts) {
+            writeLock.lock();
+            try {
+                out.begin(opcode, requestId).putByte(AccountProtocol.OK).putInt(accounts.size());
+                for (Account account : accounts) {
+                    out.putAccount(account);
+                }
+                out.end();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Called on the subscription's thread with a batch of updates, which
+         * is written at once together with any buffered responses.
+         */
+        private void push(int requestId, List<Account> batch) {
+            writeLock.lock();
+            try {
+                for (Account account : batch) {
+                    out.begin(AccountProtocol.UPDATE, requestId).putByte(AccountProtocol.OK).putAccount(account).end();
+                }
+                out.writeTo(channel);
+            } catch (IOException e) {
+                log.debug("Pushing updates to {} failed", channel, e);
+                close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void flush() throws IOException {
+            writeLock.lock();
+            try {
+                out.writeTo(channel);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.lru.account.server;
+
+import com.lru.account.AccountCache;
+import com.lru.account.AccountCacheImpl;
+import com.lru.account.lru.SegmentedAccountLRUCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+/**
+ * Server mode of the application, enabled with
+ * {@code account.server.enabled=true}: one shared cache served on
+ * {@code account.server.port} instead of a copy embedded in every service.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "account.server", name = "enabled", havingValue = "true")
+public class AccountServerConfiguration {
+
+    @Bean
+    public AccountCache accountCache(@Value("${account.cache.size:1000000}") int size) {
+        return new AccountCacheImpl(new SegmentedAccountLRUCache(size));
+    }
+
+    @Bean
+    public AccountServer accountServer(AccountCache accountCache,
+                                       @Value("${account.server.host:127.0.0.1}") String host,
+                                       @Value("${account.server.port:7070}") int port) throws IOException {
+        return AccountServer.start(accountCache, ServerSettings.builder().host(host).port(port).build());
+    }
+}
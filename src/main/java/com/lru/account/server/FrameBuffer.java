@@ -0,0 +1,99 @@
+package com.lru.account.server;
+
+import com.lru.account.Account;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Growable buffer collecting outgoing {@link AccountProtocol} frames until
+ * they are written to the socket together.
+ */
+final class FrameBuffer {
+    private ByteBuffer buffer;
+    private int frameStart = -1;
+
+    FrameBuffer(int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    FrameBuffer begin(byte opcode, int requestId) {
+        ensure(AccountProtocol.HEADER_BYTES);
+        frameStart = buffer.position();
+        buffer.putInt(0).put(opcode).putInt(requestId);
+        return this;
+    }
+
+    FrameBuffer putByte(byte value) {
+        ensure(1);
+        buffer.put(value);
+        return this;
+    }
+
+    FrameBuffer putInt(int value) {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+        return this;
+    }
+
+    FrameBuffer putLong(long value) {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+        return this;
+    }
+
+    FrameBuffer putAccount(Account account) {
+        byte[] unscaled = AccountProtocol.unscaledBytes(account);
+        ensure(Long.BYTES + Integer.BYTES + Short.BYTES + unscaled.length);
+        buffer.putLong(account.getId()).putInt(account.getBalance().scale()).putShort((short) unscaled.length).put(unscaled);
+        return this;
+    }
+
+    FrameBuffer putError(String message) {
+        byte[] bytes = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, Short.MAX_VALUE);
+        ensure(Short.BYTES + length);
+        buffer.putShort((short) length).put(bytes, 0, length);
+        return this;
+    }
+
+    /**
+     * Completes the frame by filling in its length.
+     */
+    void end() {
+        buffer.putInt(frameStart, buffer.position() - frameStart - AccountProtocol.LENGTH_BYTES);
+        frameStart = -1;
+    }
+
+    /**
+     * Drops the frame being written, e.g. when encoding it failed.
+     */
+    void abort() {
+        if (frameStart >= 0) {
+            buffer.position(frameStart);
+            frameStart = -1;
+        }
+    }
+
+    int size() {
+        return buffer.position();
+    }
+
+    void writeTo(WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            grown.put(buffer.flip());
+            buffer = grown;
+        }
+    }
+}
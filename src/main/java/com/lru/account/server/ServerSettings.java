@@ -0,0 +1,45 @@
+package com.lru.account.server;
+
+import com.lru.account.event.BackpressurePolicy;
+import com.lru.account.event.SubscriptionOptions;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class ServerSettings {
+    /**
+     * Address to listen on; loopback by default, the server is meant for
+     * the services of one host.
+     */
+    @Builder.Default
+    private final String host = "127.0.0.1";
+
+    /**
+     * Port to listen on, or 0 for any free port.
+     */
+    private final int port;
+
+    /**
+     * Initial size of each connection's read and write buffers.
+     */
+    @Builder.Default
+    private final int bufferBytes = 64 << 10;
+
+    /**
+     * Buffered responses are written once the requests read so far are
+     * answered, or earlier when they exceed this many bytes.
+     */
+    @Builder.Default
+    private final int flushBytes = 32 << 10;
+
+    /**
+     * Delivery of the updates pushed to a subscribed connection; a slow
+     * client only gets the latest balance of each account by default.
+     */
+    @Builder.Default
+    private final SubscriptionOptions subscriptionOptions = SubscriptionOptions.builder()
+        .backpressure(BackpressurePolicy.COALESCE_BY_ID).maxBatchSize(256).build();
+}
@@ -0,0 +1,42 @@
+package com.lru.account.simulator;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Outcome of replaying a {@link Trace} against one cache configuration and
+ * capacity.
+ */
+@Getter
+@Builder
+@ToString
+public class SimulationResult {
+    private final String policy;
+    private final int capacity;
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long evictionCount;
+    /**
+     * New accounts, read or put, that the admission policy kept out.
+     */
+    private final long rejectionCount;
+    private final long elapsedNanos;
+
+    /**
+     * @return the ratio of reads that found their account, or 1 when there
+     * were none
+     */
+    public double hitRate() {
+        long reads = hitCount + missCount;
+        return reads == 0 ? 1.0 : (double) hitCount / reads;
+    }
+
+    /**
+     * @return the reads and puts replayed per second
+     */
+    public double eventsPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : (hitCount + missCount + putCount) * 1e9 / elapsedNanos;
+    }
+}
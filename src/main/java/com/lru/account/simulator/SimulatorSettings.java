@@ -0,0 +1,50 @@
+package com.lru.account.simulator;
+
+import com.lru.account.lru.AdmissionPolicy;
+import com.lru.account.lru.CacheSettings;
+import com.lru.account.lru.ClockPolicy;
+import com.lru.account.lru.SievePolicy;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class SimulatorSettings {
+    /**
+     * Cache sizes the trace is replayed against, the points of each
+     * hit-ratio curve.
+     */
+    @Builder.Default
+    private final List<Integer> capacities = List.of(1_000, 10_000, 100_000);
+
+    /**
+     * Cache configurations to compare, by name; their size is taken from
+     * {@link #getCapacities()}. LRU, CLOCK, SIEVE and LRU with TinyLFU
+     * admission by default.
+     */
+    @Builder.Default
+    private final Map<String, CacheSettings> policies = defaultPolicies();
+
+    /**
+     * Number of simulations run at once, each replaying the trace on its
+     * own thread. The throughputs are only comparable with 1 or with no
+     * more simulations than idle cores.
+     */
+    @Builder.Default
+    private final int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public static Map<String, CacheSettings> defaultPolicies() {
+        Map<String, CacheSettings> policies = new LinkedHashMap<>();
+        policies.put("lru", CacheSettings.builder().build());
+        policies.put("clock", CacheSettings.builder().eviction(ClockPolicy::new).build());
+        policies.put("sieve", CacheSettings.builder().eviction(SievePolicy::new).build());
+        policies.put("lru-tinylfu", CacheSettings.builder().admission(AdmissionPolicy.TINY_LFU).build());
+        return policies;
+    }
+}
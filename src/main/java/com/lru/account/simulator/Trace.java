@@ -0,0 +1,40 @@
+package com.lru.account.simulator;
+
+import java.util.BitSet;
+
+/**
+ * Recorded cache operations in order: reads of an id, which load the
+ * account into the cache on a miss, and puts.
+ */
+public class Trace {
+    private final long[] ids;
+    private final BitSet puts;
+
+    /**
+     * @param puts the positions of the puts; every other id is read
+     */
+    public Trace(long[] ids, BitSet puts) {
+        this.ids = ids;
+        this.puts = puts;
+    }
+
+    public static Trace ofReads(long[] ids) {
+        return new Trace(ids, new BitSet());
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long id(int position) {
+        return ids[position];
+    }
+
+    public boolean isPut(int position) {
+        return puts.get(position);
+    }
+
+    public int putCount() {
+        return puts.cardinality();
+    }
+}
@@ -0,0 +1,140 @@
+package com.lru.account.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Reads and writes {@link Trace}s in one of two formats, told apart by the
+ * magic number:
+ * <ul>
+ * <li>an account trace: a 16-byte header (magic, version, event count)
+ * followed by one 9-byte record per event, an operation byte ({@code 0}
+ * for a read, {@code 1} for a put) and the id;</li>
+ * <li>an id stream: nothing but big-endian 8-byte ids, each one a read, as
+ * exported by most tracing tools.</li>
+ * </ul>
+ * Both are read through memory-mapped windows.
+ */
+public class TraceFile {
+    static final int MAGIC = 0x4C525554;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 9;
+    private static final byte READ = 0;
+    private static final byte PUT = 1;
+    private static final int EVENTS_PER_WINDOW = 1 << 20;
+
+    private TraceFile() {
+    }
+
+    public static Trace read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= HEADER_BYTES && isAccountTrace(channel)) {
+                return readAccountTrace(channel, path, size);
+            }
+            return readIdStream(channel, path, size);
+        }
+    }
+
+    /**
+     * Writes the trace as an account trace.
+     */
+    public static void write(Trace trace, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 8192);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(trace.size());
+            for (int i = 0; i < trace.size(); i++) {
+                if (buffer.remaining() < RECORD_BYTES) {
+                    writeFully(channel, buffer);
+                }
+                buffer.put(trace.isPut(i) ? PUT : READ).putLong(trace.id(i));
+            }
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes the ids as an id stream.
+     */
+    public static void writeIds(long[] ids, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * 8192);
+            for (long id : ids) {
+                if (!buffer.hasRemaining()) {
+                    writeFully(channel, buffer);
+                }
+                buffer.putLong(id);
+            }
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static boolean isAccountTrace(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) >= 0) {
+            // until the magic number is read
+        }
+        return magic.getInt(0) == MAGIC;
+    }
+
+    private static Trace readAccountTrace(FileChannel channel, Path path, long size) throws IOException {
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        int version = header.getInt(Integer.BYTES);
+        long count = header.getLong(2 * Integer.BYTES);
+        if (version != VERSION) {
+            throw new IOException("unsupported trace version " + version + " in " + path);
+        }
+        if (count > Integer.MAX_VALUE - 8 || size != HEADER_BYTES + count * RECORD_BYTES) {
+            throw new IOException("truncated or oversized trace " + path + ": " + count + " events in " + size + " bytes");
+        }
+        long[] ids = new long[(int) count];
+        BitSet puts = new BitSet();
+        for (int from = 0; from < ids.length; from += EVENTS_PER_WINDOW) {
+            int events = Math.min(EVENTS_PER_WINDOW, ids.length - from);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                HEADER_BYTES + (long) from * RECORD_BYTES, (long) events * RECORD_BYTES);
+            for (int i = 0; i < events; i++) {
+                byte operation = window.get();
+                if (operation == PUT) {
+                    puts.set(from + i);
+                } else if (operation != READ) {
+                    throw new IOException("unknown operation " + operation + " at event " + (from + i) + " of " + path);
+                }
+                ids[from + i] = window.getLong();
+            }
+        }
+        return new Trace(ids, puts);
+    }
+
+    private static Trace readIdStream(FileChannel channel, Path path, long size) throws IOException {
+        if (size % Long.BYTES != 0 || size / Long.BYTES > Integer.MAX_VALUE - 8) {
+            throw new IOException("not a trace: " + path + " has " + size + " bytes");
+        }
+        long[] ids = new long[(int) (size / Long.BYTES)];
+        for (int from = 0; from < ids.length; from += EVENTS_PER_WINDOW) {
+            int events = Math.min(EVENTS_PER_WINDOW, ids.length - from);
+            channel.map(FileChannel.MapMode.READ_ONLY, (long) from * Long.BYTES, (long) events * Long.BYTES)
+                .order(ByteOrder.BIG_ENDIAN)
+                .asLongBuffer()
+                .get(ids, from, events);
+        }
+        return Trace.ofReads(ids);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,149 @@
+package com.lru.account.simulator;
+
+import com.lru.account.Account;
+import com.lru.account.lru.AccountLRUCacheThreadSafe;
+import com.lru.account.lru.CacheSettings;
+import com.lru.account.lru.RemovalCause;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Replays a recorded {@link Trace} against every configured policy at every
+ * capacity, to size a cache and choose its policy from real traffic rather
+ * than guesses. A read that misses loads the account, as
+ * {@link com.lru.account.AccountCacheImpl} does with a loader, and a put
+ * replaces it.
+ * <p>
+ * The simulations run in parallel, each on one thread against its own
+ * {@link AccountLRUCacheThreadSafe}, so the replay throughput includes the
+ * cache's locking but no contention. Run it with the trace, the capacities
+ * and optionally the policies, e.g.
+ * {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.lru.account.simulator.TraceSimulator -Djmh.args="trace.bin 1000,10000,100000 lru,sieve"}.
+ */
+@Slf4j
+public class TraceSimulator {
+    private static final BigDecimal BALANCE = BigDecimal.ZERO;
+
+    private TraceSimulator() {
+    }
+
+    /**
+     * @return the results by policy, in the order of
+     * {@link SimulatorSettings#getPolicies()}, and by capacity
+     */
+    public static List<SimulationResult> run(Trace trace, SimulatorSettings settings) {
+        List<CompletableFuture<SimulationResult>> simulations = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.max(settings.getParallelism(), 1))) {
+            settings.getPolicies().forEach((name, policy) -> {
+                for (int capacity : settings.getCapacities()) {
+                    simulations.add(CompletableFuture.supplyAsync(() -> replay(trace, name, policy, capacity), executor));
+                }
+            });
+        }
+        return simulations.stream().map(CompletableFuture::join).toList();
+    }
+
+    public static SimulationResult replay(Trace trace, String name, CacheSettings policy, int capacity) {
+        long[] evictions = new long[1];
+        CacheSettings settings = policy.toBuilder()
+            .size(capacity)
+            .removalListener((account, cause) -> {
+                if (cause == RemovalCause.EVICTED) {
+                    evictions[0]++;
+                }
+            })
+            .build();
+        long hits = 0L;
+        long misses = 0L;
+        long puts = 0L;
+        long rejections = 0L;
+        long elapsed;
+        try (AccountLRUCacheThreadSafe cache = new AccountLRUCacheThreadSafe(settings)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < trace.size(); i++) {
+                long id = trace.id(i);
+                if (trace.isPut(i)) {
+                    puts++;
+                } else if (cache.getIfPresent(id) != null) {
+                    hits++;
+                    continue;
+                } else {
+                    misses++;
+                }
+                if (!cache.put(id, Account.builder().id(id).balance(BALANCE).build())) {
+                    rejections++;
+                }
+            }
+            elapsed = System.nanoTime() - start;
+        }
+        SimulationResult result = SimulationResult.builder()
+            .policy(name)
+            .capacity(capacity)
+            .hitCount(hits)
+            .missCount(misses)
+            .putCount(puts)
+            .evictionCount(evictions[0])
+            .rejectionCount(rejections)
+            .elapsedNanos(elapsed)
+            .build();
+        log.debug("Simulated {}", result);
+        return result;
+    }
+
+    /**
+     * @return the results as a table, one hit-ratio curve per policy
+     */
+    public static String format(List<SimulationResult> results) {
+        StringBuilder table = new StringBuilder(String.format("%-16s %12s %10s %14s %14s %14s%n",
+            "policy", "capacity", "hit ratio", "evictions", "rejections", "events/s"));
+        for (SimulationResult result : results) {
+            table.append(String.format("%-16s %,12d %9.2f%% %,14d %,14d %,14d%n",
+                result.getPolicy(), result.getCapacity(), result.hitRate() * 100, result.getEvictionCount(),
+                result.getRejectionCount(), (long) result.eventsPerSecond()));
+        }
+        return table.toString();
+    }
+
+    /**
+     * Arguments: the trace file, optionally the comma-separated capacities
+     * and the comma-separated names of the default policies to compare.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: TraceSimulator <trace> [capacity,...] [policy,...]");
+            System.exit(2);
+        }
+        SimulatorSettings.SimulatorSettingsBuilder settings = SimulatorSettings.builder();
+        if (args.length > 1) {
+            settings.capacities(Arrays.stream(args[1].split(",")).map(Integer::parseInt).toList());
+        }
+        if (args.length > 2) {
+            Map<String, CacheSettings> all = SimulatorSettings.defaultPolicies();
+            Map<String, CacheSettings> selected = new LinkedHashMap<>();
+            for (String name : args[2].split(",")) {
+                CacheSettings policy = all.get(name);
+                if (policy == null) {
+                    throw new IllegalArgumentException("unknown policy " + name + ", expected one of " + all.keySet());
+                }
+                selected.put(name, policy);
+            }
+            settings.policies(selected);
+        }
+        long start = System.nanoTime();
+        Trace trace = TraceFile.read(Path.of(args[0]));
+        System.out.printf("Read %,d events (%,d puts) in %d ms%n", trace.size(), trace.putCount(),
+            (System.nanoTime() - start) / 1_000_000);
+        System.out.print(format(run(trace, settings.build())));
+    }
+}
@@ -0,0 +1,52 @@
+package com.lru.account.snapshot;
+
+import com.lru.account.Account;
+import com.lru.account.lru.SegmentedAccountLRUCache;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Cold start of a cache from a large file, either a {@link SnapshotFile}
+ * or a {@link CsvAccountFile}: the file is parsed in parallel, then handed
+ * to {@link SegmentedAccountLRUCache#bulkLoad}, which builds the segments
+ * in parallel and publishes them at once.
+ */
+@Slf4j
+public class BulkLoader {
+
+    private BulkLoader() {
+    }
+
+    /**
+     * Replaces the contents of the cache with the accounts of the file; a
+     * snapshot keeps its recency order, the last lines of a CSV file become
+     * the most recently used accounts.
+     *
+     * @return the number of accounts read
+     */
+    public static int load(Path path, SegmentedAccountLRUCache cache) throws IOException {
+        long start = System.nanoTime();
+        List<Account> accounts = isSnapshot(path) ? SnapshotFile.read(path).reversed() : CsvAccountFile.read(path);
+        long read = System.nanoTime();
+        cache.bulkLoad(accounts);
+        log.info("Loaded {} accounts from {}: read in {} ms, built in {} ms", accounts.size(), path,
+            (read - start) / 1_000_000, (System.nanoTime() - read) / 1_000_000);
+        return accounts.size();
+    }
+
+    private static boolean isSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read the first bytes
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == SnapshotFile.MAGIC;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.lru.account.snapshot;
+
+import com.lru.account.Account;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Accounts as text, one {@code id,balance} line each, e.g. exported from
+ * the database of record; a first line that does not start with a number
+ * is taken for a header.
+ * <p>
+ * The file is read in chunks of {@value #CHUNK_BYTES} bytes mapped and
+ * parsed in parallel: a chunk owns the lines starting in it, so it skips
+ * its partial first line and reads its last one into the next chunk.
+ * Balances of up to 18 digits are parsed without an intermediate string.
+ */
+public class CsvAccountFile {
+    static final int CHUNK_BYTES = 8 << 20;
+    private static final int MAX_LINE_BYTES = 4096;
+
+    private CsvAccountFile() {
+    }
+
+    /**
+     * @return the accounts in file order
+     */
+    public static List<Account> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = (int) ((size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+            Account[][] parsed = new Account[chunks][];
+            IntStream.range(0, chunks).parallel().forEach(c -> parsed[c] = readChunk(channel, path, size, c));
+            int count = 0;
+            for (Account[] chunk : parsed) {
+                count += chunk.length;
+            }
+            Account[] accounts = new Account[count];
+            int position = 0;
+            for (Account[] chunk : parsed) {
+                System.arraycopy(chunk, 0, accounts, position, chunk.length);
+                position += chunk.length;
+            }
+            return Arrays.asList(accounts);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public static void write(List<Account> accounts, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+            writer.write("id,balance\n");
+            for (Account account : accounts) {
+                writer.write(Long.toString(account.getId()));
+                writer.write(',');
+                writer.write(account.getBalance().toPlainString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static Account[] readChunk(FileChannel channel, Path path, long size, int chunk) {
+        long start = (long) chunk * CHUNK_BYTES;
+        long end = Math.min(start + CHUNK_BYTES, size);
+        // one byte before the chunk tells whether it starts a line, and the last line may run past its end
+        long mapStart = Math.max(start - 1, 0);
+        long mapEnd = Math.min(end + MAX_LINE_BYTES, size);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+            int position = (int) (start - mapStart);
+            int limit = (int) (end - mapStart);
+            if (chunk > 0 && buffer.get(position - 1) != '\n') {
+                position = nextLine(buffer, position, path, mapStart);
+            }
+            List<Account> accounts = new ArrayList<>((limit - position) / 16);
+            if (chunk == 0 && position < limit && !isNumberStart(buffer.get(position))) {
+                position = nextLine(buffer, position, path, mapStart);
+            }
+            while (position < limit) {
+                int lineEnd = lineEnd(buffer, position, path, mapStart);
+                if (lineEnd > position && !(lineEnd == position + 1 && buffer.get(position) == '\r')) {
+                    accounts.add(parse(buffer, position, lineEnd, path, mapStart));
+                }
+                position = lineEnd + 1;
+            }
+            return accounts.toArray(Account[]::new);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int nextLine(MappedByteBuffer buffer, int position, Path path, long offset) throws IOException {
+        return lineEnd(buffer, position, path, offset) + 1;
+    }
+
+    /**
+     * @return the position of the newline ending the line, or the end of
+     * the file
+     */
+    private static int lineEnd(MappedByteBuffer buffer, int position, Path path, long offset) throws IOException {
+        int limit = buffer.limit();
+        for (int i = position; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        if (limit - position >= MAX_LINE_BYTES) {
+            throw new IOException("line longer than " + MAX_LINE_BYTES + " bytes at byte " + (offset + position) + " of " + path);
+        }
+        return limit;
+    }
+
+    private static Account parse(MappedByteBuffer buffer, int from, int to, Path path, long offset) throws IOException {
+        if (buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        int comma = -1;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == ',') {
+                comma = i;
+                break;
+            }
+        }
+        if (comma < 0) {
+            throw malformed(buffer, from, to, path, offset);
+        }
+        try {
+            long id = parseLong(buffer, from, comma);
+            return Account.builder().id(id).balance(parseDecimal(buffer, comma + 1, to)).build();
+        } catch (NumberFormatException e) {
+            throw malformed(buffer, from, to, path, offset);
+        }
+    }
+
+    private static long parseLong(MappedByteBuffer buffer, int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int i = negative || (from < to && buffer.get(from) == '+') ? from + 1 : from;
+        if (i == to || to - i > 18) {
+            return Long.parseLong(text(buffer, from, to));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Plain decimals of up to 18 digits become a {@code long} and a scale;
+     * anything else, e.g. an exponent, goes through {@link BigDecimal}.
+     */
+    private static BigDecimal parseDecimal(MappedByteBuffer buffer, int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int i = negative || (from < to && buffer.get(from) == '+') ? from + 1 : from;
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && scale < 0) {
+                scale = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9 || ++digits > 18) {
+                return new BigDecimal(text(buffer, from, to));
+            }
+            unscaled = unscaled * 10 + digit;
+            if (scale >= 0) {
+                scale++;
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException();
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+    }
+
+    private static boolean isNumberStart(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+';
+    }
+
+    private static String text(MappedByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static IOException malformed(MappedByteBuffer buffer, int from, int to, Path path, long offset) {
+        return new IOException("malformed account '" + text(buffer, from, to) + "' at byte " + (offset + from) + " of " + path);
+    }
+}
@@ -0,0 +1,67 @@
+package com.lru.account.snapshot;
+
+import com.lru.account.Account;
+import com.lru.account.lru.Cache;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a {@link SnapshotFile} of the cache at a fixed period on a daemon
+ * thread, and a last one when closed, e.g. on shutdown.
+ */
+@Slf4j
+public class PeriodicSnapshotter implements AutoCloseable {
+    private final Cache<Long, Account> cache;
+    private final Path path;
+    private final ScheduledExecutorService executor;
+
+    public PeriodicSnapshotter(Cache<Long, Account> cache, Path path, Duration period) {
+        this.cache = cache;
+        this.path = path;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::snapshotQuietly, period.toMillis(), period.toMillis(),
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a snapshot now, on the calling thread.
+     *
+     * @return the number of accounts written
+     */
+    public synchronized int snapshot() {
+        try {
+            return SnapshotFile.write(cache, path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops the periodic snapshots and writes a final one.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        snapshot();
+    }
+
+    private void snapshotQuietly() {
+        try {
+            int written = snapshot();
+            log.debug("Wrote {} accounts to {}", written, path);
+        } catch (RuntimeException e) {
+            log.error("Account snapshot to {} failed", path, e);
+        }
+    }
+}
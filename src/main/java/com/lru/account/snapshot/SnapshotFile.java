@@ -0,0 +1,236 @@
+package com.lru.account.snapshot;
+
+import com.lru.account.Account;
+import com.lru.account.lru.Cache;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Binary dump of a cache in LRU order, for a warm restart.
+ * <p>
+ * The file starts with a 24-byte header (magic, version, account count and
+ * the write-ahead log sequence the snapshot covers; version 1 files have no
+ * sequence and a 16-byte header), followed by one 20-byte record per
+ * account from the most to the least recently used: the id, the unscaled
+ * balance and its scale. Balances whose unscaled value does not fit a
+ * {@code long} are marked with {@link #OVERFLOW_SCALE} and stored after the
+ * records as scale, length and two's-complement bytes, in record order.
+ * <p>
+ * Records are written and read through memory-mapped windows, and read
+ * windows are decoded in parallel. A snapshot is written to a temporary
+ * file first and moved over the previous one, so a crash never leaves a
+ * torn file behind.
+ */
+public class SnapshotFile {
+    static final int MAGIC = 0x4C525553;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 24;
+    private static final int V1_HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 20;
+    static final int OVERFLOW_SCALE = Integer.MIN_VALUE;
+    private static final int RECORDS_PER_WINDOW = 1 << 20;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Writes the accounts of the cache. Writers are only blocked while the
+     * references are copied, see {@link Cache#snapshot()}.
+     *
+     * @return the number of accounts written
+     */
+    public static int write(Cache<Long, Account> cache, Path path) throws IOException {
+        List<Account> accounts = cache.snapshot();
+        write(accounts, path);
+        return accounts.size();
+    }
+
+    /**
+     * @param accounts the accounts from the most to the least recently used
+     */
+    public static void write(List<Account> accounts, Path path) throws IOException {
+        write(accounts, path, 0L);
+    }
+
+    /**
+     * @param sequence the last write-ahead log sequence contained in the
+     * accounts, see {@link com.lru.account.wal.WriteAheadLog#checkpoint}
+     */
+    public static void write(List<Account> accounts, Path path, long sequence) throws IOException {
+        List<BigDecimal> overflow = new ArrayList<>();
+        for (Account account : accounts) {
+            if (!fitsInRecord(account.getBalance())) {
+                overflow.add(account.getBalance());
+            }
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION)
+                .putLong(accounts.size()).putLong(sequence);
+            writeFully(channel, header.flip(), 0);
+            int overflowIndex = 0;
+            for (int from = 0; from < accounts.size(); from += RECORDS_PER_WINDOW) {
+                int to = Math.min(from + RECORDS_PER_WINDOW, accounts.size());
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_BYTES + (long) from * RECORD_BYTES, (long) (to - from) * RECORD_BYTES);
+                for (int i = from; i < to; i++) {
+                    Account account = accounts.get(i);
+                    BigDecimal balance = account.getBalance();
+                    window.putLong(account.getId());
+                    if (fitsInRecord(balance)) {
+                        window.putLong(balance.unscaledValue().longValue()).putInt(balance.scale());
+                    } else {
+                        window.putLong(overflowIndex++).putInt(OVERFLOW_SCALE);
+                    }
+                }
+                window.force();
+            }
+            long position = HEADER_BYTES + (long) accounts.size() * RECORD_BYTES;
+            for (BigDecimal balance : overflow) {
+                byte[] unscaled = balance.unscaledValue().toByteArray();
+                ByteBuffer entry = ByteBuffer.allocate(8 + unscaled.length)
+                    .putInt(balance.scale()).putInt(unscaled.length).put(unscaled);
+                position += writeFully(channel, entry.flip(), position);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the accounts of the snapshot, from the most to the least
+     * recently used
+     */
+    public static List<Account> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel, path);
+            long count = header.count;
+            long records = header.bytes;
+            if (count < 0 || count > Integer.MAX_VALUE - 8 || records + count * RECORD_BYTES > channel.size()) {
+                throw new IOException("truncated snapshot: " + path);
+            }
+            Account[] accounts = new Account[(int) count];
+            BigDecimal[] overflow = readOverflow(channel, records + count * RECORD_BYTES);
+            int windows = (int) ((count + RECORDS_PER_WINDOW - 1) / RECORDS_PER_WINDOW);
+            List<MappedByteBuffer> mapped = new ArrayList<>(windows);
+            for (int w = 0; w < windows; w++) {
+                long from = (long) w * RECORDS_PER_WINDOW;
+                long length = Math.min(RECORDS_PER_WINDOW, count - from) * RECORD_BYTES;
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, records + from * RECORD_BYTES, length));
+            }
+            IntStream.range(0, windows).parallel()
+                .forEach(w -> decode(mapped.get(w), accounts, w * RECORDS_PER_WINDOW, overflow));
+            return Arrays.asList(accounts);
+        }
+    }
+
+    /**
+     * @return the last write-ahead log sequence contained in the snapshot,
+     * or 0 if it was written without a log
+     */
+    public static long sequence(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel, path).sequence;
+        }
+    }
+
+    /**
+     * Replaces the contents of the cache with the accounts of the snapshot
+     * through {@link Cache#bulkLoad(java.util.Collection)}, least recently
+     * used first, so that the cache ends up in the recency order of the
+     * snapshot with its top-N index rebuilt. Nothing is published, counted
+     * or logged: the accounts were all of that when they were first put.
+     *
+     * @return the number of accounts read
+     */
+    public static int load(Path path, Cache<Long, Account> cache) throws IOException {
+        List<Account> accounts = read(path);
+        cache.bulkLoad(accounts.reversed());
+        return accounts.size();
+    }
+
+    private static Header readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header.limit(V1_HEADER_BYTES), 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("not an account snapshot: " + path);
+        }
+        int version = header.getInt();
+        long count = header.getLong();
+        if (version == 1) {
+            return new Header(count, 0L, V1_HEADER_BYTES);
+        }
+        if (version != VERSION) {
+            throw new IOException("unsupported snapshot version " + version + ": " + path);
+        }
+        readFully(channel, header.clear().limit(Long.BYTES), V1_HEADER_BYTES);
+        return new Header(count, header.flip().getLong(), HEADER_BYTES);
+    }
+
+    private record Header(long count, long sequence, int bytes) {
+    }
+
+    private static void decode(ByteBuffer window, Account[] into, int offset, BigDecimal[] overflow) {
+        for (int i = offset; window.hasRemaining(); i++) {
+            long id = window.getLong();
+            long unscaled = window.getLong();
+            int scale = window.getInt();
+            BigDecimal balance = scale == OVERFLOW_SCALE ? overflow[(int) unscaled] : BigDecimal.valueOf(unscaled, scale);
+            into[i] = Account.builder().id(id).balance(balance).build();
+        }
+    }
+
+    private static BigDecimal[] readOverflow(FileChannel channel, long position) throws IOException {
+        List<BigDecimal> overflow = new ArrayList<>();
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        while (position < channel.size()) {
+            readFully(channel, prefix.clear(), position);
+            prefix.flip();
+            int scale = prefix.getInt();
+            int length = prefix.getInt();
+            ByteBuffer unscaled = ByteBuffer.allocate(length);
+            readFully(channel, unscaled, position + 8);
+            overflow.add(new BigDecimal(new BigInteger(unscaled.array()), scale));
+            position += 8 + length;
+        }
+        return overflow.toArray(BigDecimal[]::new);
+    }
+
+    private static boolean fitsInRecord(BigDecimal balance) {
+        return balance.scale() != OVERFLOW_SCALE && balance.unscaledValue().bitLength() < Long.SIZE;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + read);
+            if (n < 0) {
+                throw new IOException("unexpected end of snapshot");
+            }
+            read += n;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.lru.account.stats;
+
+import com.lru.account.lru.Cache;
+import com.lru.account.lru.RetainedSizeWeigher;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the statistics of a cache to Micrometer, under
+ * {@code account.cache.*} meters tagged with the cache name. Latency
+ * percentiles are those of the last {@link ConcurrentStatsCounter#WINDOW}
+ * and only meaningful when statistics are enabled.
+ * <p>
+ * The meters of one scrape share a single snapshot of the statistics,
+ * reused for up to {@link #SNAPSHOT_MAX_AGE}.
+ */
+public class AccountCacheMetrics implements MeterBinder {
+    public static final Duration SNAPSHOT_MAX_AGE = Duration.ofSeconds(1);
+
+    private final Cache<?, ?> cache;
+    private final StatsCounter statsCounter;
+    private final Tags tags;
+    private CacheStats stats;
+    private long statsTakenAt;
+
+    public AccountCacheMetrics(Cache<?, ?> cache, String name) {
+        this.cache = cache;
+        this.statsCounter = cache.getStatsCounter();
+        this.tags = Tags.of("cache", name);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("account.cache.size", cache, Cache::size)
+            .tags(tags)
+            .description("Number of cached accounts")
+            .register(registry);
+        Gauge.Builder<?> weight = Gauge.builder("account.cache.weight", cache, Cache::weightedSize)
+            .tags(tags)
+            .description("Total weight of the cached accounts, or their number if the cache is not weighted");
+        if (cache.getWeigher() instanceof RetainedSizeWeigher) {
+            // the unit of any other weigher is unknown
+            weight.baseUnit("bytes");
+        }
+        weight.register(registry);
+        counter(registry, "account.cache.gets", "hit", CacheStats::getHitCount);
+        counter(registry, "account.cache.gets", "miss", CacheStats::getMissCount);
+        counter(registry, "account.cache.insertions", null, CacheStats::getInsertionCount);
+        counter(registry, "account.cache.updates", null, CacheStats::getUpdateCount);
+        counter(registry, "account.cache.evictions", null, CacheStats::getEvictionCount);
+        counter(registry, "account.cache.rejections", null, CacheStats::getRejectionCount);
+        FunctionCounter.builder("account.cache.listener.time", statsCounter,
+                counter -> stats().getListenerTimeNanos() / 1e9)
+            .tags(tags)
+            .baseUnit("seconds")
+            .register(registry);
+        latency(registry, "get", CacheStats::getRecentGetLatency);
+        latency(registry, "put", CacheStats::getRecentPutLatency);
+        latency(registry, "lock.wait", CacheStats::getRecentLockWait);
+    }
+
+    private synchronized CacheStats stats() {
+        long now = System.nanoTime();
+        if (stats == null || now - statsTakenAt > SNAPSHOT_MAX_AGE.toNanos()) {
+            stats = statsCounter.snapshot();
+            statsTakenAt = now;
+        }
+        return stats;
+    }
+
+    private void counter(MeterRegistry registry, String name, String result, ToDoubleFunction<CacheStats> count) {
+        FunctionCounter.Builder<StatsCounter> builder = FunctionCounter.builder(name, statsCounter,
+            counter -> count.applyAsDouble(stats())).tags(tags);
+        if (result != null) {
+            builder.tag("result", result);
+        }
+        builder.register(registry);
+    }
+
+    private void latency(MeterRegistry registry, String operation, Function<CacheStats, LatencySnapshot> latency) {
+        quantile(registry, operation, "0.5", latency.andThen(LatencySnapshot::getP50));
+        quantile(registry, operation, "0.99", latency.andThen(LatencySnapshot::getP99));
+        quantile(registry, operation, "0.999", latency.andThen(LatencySnapshot::getP999));
+        quantile(registry, operation, "1.0", latency.andThen(LatencySnapshot::getMax));
+    }
+
+    private void quantile(MeterRegistry registry, String operation, String quantile, Function<CacheStats, Long> value) {
+        TimeGauge.builder("account.cache.latency", statsCounter, TimeUnit.NANOSECONDS,
+                counter -> value.apply(stats()))
+            .tags(tags)
+            .tag("operation", operation)
+            .tag("quantile", quantile)
+            .register(registry);
+    }
+}
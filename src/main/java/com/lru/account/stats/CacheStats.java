@@ -0,0 +1,62 @@
+package com.lru.account.stats;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Immutable snapshot of the statistics of a cache since it was created.
+ * Counts other than hits stay zero when statistics are turned off.
+ */
+@Getter
+@Builder
+@ToString
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long insertionCount;
+    private final long updateCount;
+    private final long evictionCount;
+    private final long rejectionCount;
+    private final long listenerTimeNanos;
+
+    @Builder.Default
+    private final LatencySnapshot getLatency = LatencySnapshot.EMPTY;
+
+    @Builder.Default
+    private final LatencySnapshot putLatency = LatencySnapshot.EMPTY;
+
+    /**
+     * Time spent waiting for the write lock, by {@code put} and
+     * {@code putAll}.
+     */
+    @Builder.Default
+    private final LatencySnapshot lockWait = LatencySnapshot.EMPTY;
+
+    /**
+     * The latencies above over about the last
+     * {@link ConcurrentStatsCounter#WINDOW} rather than since the cache was
+     * created.
+     */
+    @Builder.Default
+    private final LatencySnapshot recentGetLatency = LatencySnapshot.EMPTY;
+
+    @Builder.Default
+    private final LatencySnapshot recentPutLatency = LatencySnapshot.EMPTY;
+
+    @Builder.Default
+    private final LatencySnapshot recentLockWait = LatencySnapshot.EMPTY;
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return the ratio of lookups that found their account, or 1 when
+     * there were none
+     */
+    public double hitRate() {
+        long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+}
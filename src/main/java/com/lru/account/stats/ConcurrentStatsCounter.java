@@ -0,0 +1,185 @@
+package com.lru.account.stats;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Full statistics: counts are kept in striped {@link LongAdder}s so
+ * concurrent readers never contend on one cache line, and latencies go to
+ * wait-free HdrHistogram {@link Recorder}s with two significant digits.
+ * Snapshots fold the recorders into cumulative histograms, and into a
+ * window of {@value #WINDOW_BUCKETS} interval histograms rotated every
+ * {@link #WINDOW} / {@value #WINDOW_BUCKETS}, for the recent latencies.
+ * Latencies recorded since the previous snapshot count as recent, so the
+ * window is accurate to one snapshot interval.
+ */
+public class ConcurrentStatsCounter implements StatsCounter {
+    public static final Duration WINDOW = Duration.ofMinutes(1);
+    private static final int WINDOW_BUCKETS = 6;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder insertions = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder listenerTime = new LongAdder();
+    private final Latency getLatency;
+    private final Latency putLatency;
+    private final Latency lockWait;
+
+    public ConcurrentStatsCounter() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param ticker source of the current time in nanoseconds rotating the
+     * window of recent latencies
+     */
+    public ConcurrentStatsCounter(LongSupplier ticker) {
+        this.getLatency = new Latency(ticker);
+        this.putLatency = new Latency(ticker);
+        this.lockWait = new Latency(ticker);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordHits(int count) {
+        hits.add(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        misses.add(count);
+    }
+
+    @Override
+    public void recordInsertion() {
+        insertions.increment();
+    }
+
+    @Override
+    public void recordUpdate() {
+        updates.increment();
+    }
+
+    @Override
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    @Override
+    public void recordRejection() {
+        rejections.increment();
+    }
+
+    @Override
+    public void recordGetLatency(long nanos) {
+        getLatency.record(nanos);
+    }
+
+    @Override
+    public void recordPutLatency(long nanos) {
+        putLatency.record(nanos);
+    }
+
+    @Override
+    public void recordLockWait(long nanos) {
+        lockWait.record(nanos);
+    }
+
+    @Override
+    public void recordListenerTime(long nanos) {
+        listenerTime.add(nanos);
+    }
+
+    @Override
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        Latency.Snapshots get = getLatency.snapshot();
+        Latency.Snapshots put = putLatency.snapshot();
+        Latency.Snapshots wait = lockWait.snapshot();
+        return CacheStats.builder()
+            .hitCount(hits.sum())
+            .missCount(misses.sum())
+            .insertionCount(insertions.sum())
+            .updateCount(updates.sum())
+            .evictionCount(evictions.sum())
+            .rejectionCount(rejections.sum())
+            .listenerTimeNanos(listenerTime.sum())
+            .getLatency(get.total())
+            .putLatency(put.total())
+            .lockWait(wait.total())
+            .recentGetLatency(get.recent())
+            .recentPutLatency(put.recent())
+            .recentLockWait(wait.recent())
+            .build();
+    }
+
+    private static final class Latency {
+        private static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toNanos(1);
+
+        private static final long BUCKET_NANOS = WINDOW.toNanos() / WINDOW_BUCKETS;
+
+        private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE, 2);
+        private final Histogram total = new Histogram(HIGHEST_TRACKABLE, 2);
+        private final Histogram[] window = new Histogram[WINDOW_BUCKETS];
+        private final Histogram recent = new Histogram(HIGHEST_TRACKABLE, 2);
+        private final LongSupplier ticker;
+        private Histogram interval;
+        private int bucket;
+        private long bucketStart;
+
+        Latency(LongSupplier ticker) {
+            this.ticker = ticker;
+            this.bucketStart = ticker.getAsLong();
+            for (int i = 0; i < window.length; i++) {
+                window[i] = new Histogram(HIGHEST_TRACKABLE, 2);
+            }
+        }
+
+        void record(long nanos) {
+            recorder.recordValue(Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE));
+        }
+
+        synchronized Snapshots snapshot() {
+            rotate();
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            window[bucket].add(interval);
+            recent.reset();
+            for (Histogram histogram : window) {
+                recent.add(histogram);
+            }
+            return new Snapshots(LatencySnapshot.of(total), LatencySnapshot.of(recent));
+        }
+
+        /**
+         * Clears the buckets whose time has passed since the last snapshot.
+         */
+        private void rotate() {
+            long elapsed = (ticker.getAsLong() - bucketStart) / BUCKET_NANOS;
+            for (long i = Math.min(elapsed, window.length); i > 0; i--) {
+                bucket = (bucket + 1) % window.length;
+                window[bucket].reset();
+            }
+            bucketStart += elapsed * BUCKET_NANOS;
+        }
+
+        private record Snapshots(LatencySnapshot total, LatencySnapshot recent) {
+        }
+    }
+}
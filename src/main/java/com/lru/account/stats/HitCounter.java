@@ -0,0 +1,68 @@
+package com.lru.account.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics turned off: only the hits needed by
+ * {@link com.lru.account.AccountCache#getAccountByIdHitCount()} are counted,
+ * every other event is ignored.
+ */
+public class HitCounter implements StatsCounter {
+    private final LongAdder hits = new LongAdder();
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void recordHits(int count) {
+        hits.add(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+    }
+
+    @Override
+    public void recordInsertion() {
+    }
+
+    @Override
+    public void recordUpdate() {
+    }
+
+    @Override
+    public void recordEviction() {
+    }
+
+    @Override
+    public void recordRejection() {
+    }
+
+    @Override
+    public void recordGetLatency(long nanos) {
+    }
+
+    @Override
+    public void recordPutLatency(long nanos) {
+    }
+
+    @Override
+    public void recordLockWait(long nanos) {
+    }
+
+    @Override
+    public void recordListenerTime(long nanos) {
+    }
+
+    @Override
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        return CacheStats.builder().hitCount(hits.sum()).build();
+    }
+}
@@ -0,0 +1,39 @@
+package com.lru.account.stats;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency distribution of one operation, in nanoseconds.
+ */
+@Getter
+@Builder
+@ToString
+public class LatencySnapshot {
+    public static final LatencySnapshot EMPTY = LatencySnapshot.builder().build();
+
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    public static LatencySnapshot of(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return EMPTY;
+        }
+        return LatencySnapshot.builder()
+            .count(histogram.getTotalCount())
+            .mean(histogram.getMean())
+            .p50(histogram.getValueAtPercentile(50))
+            .p90(histogram.getValueAtPercentile(90))
+            .p99(histogram.getValueAtPercentile(99))
+            .p999(histogram.getValueAtPercentile(99.9))
+            .max(histogram.getMaxValue())
+            .build();
+    }
+}
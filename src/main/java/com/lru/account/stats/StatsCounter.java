@@ -0,0 +1,54 @@
+package com.lru.account.stats;
+
+/**
+ * Receives the statistics events of a cache. Implementations are called on
+ * the hot paths of {@code get} and {@code put}, from any thread, and must be
+ * cheap and thread-safe.
+ */
+public interface StatsCounter {
+
+    /**
+     * @return {@code false} if only hits are counted, in which case the cache
+     * skips timing its operations altogether
+     */
+    boolean isEnabled();
+
+    void recordHits(int count);
+
+    void recordMisses(int count);
+
+    /**
+     * Records an account added to the cache.
+     */
+    void recordInsertion();
+
+    /**
+     * Records a balance change of a cached account.
+     */
+    void recordUpdate();
+
+    void recordEviction();
+
+    /**
+     * Records a new account kept out by the admission policy.
+     */
+    void recordRejection();
+
+    void recordGetLatency(long nanos);
+
+    /**
+     * @param nanos the duration of the put, including the lock wait
+     */
+    void recordPutLatency(long nanos);
+
+    void recordLockWait(long nanos);
+
+    /**
+     * Records the time an update listener spent handling its updates.
+     */
+    void recordListenerTime(long nanos);
+
+    long hitCount();
+
+    CacheStats snapshot();
+}
@@ -0,0 +1,39 @@
+package com.lru.account.wal;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class WalSettings {
+    /**
+     * Directory holding the log segments; created if missing.
+     */
+    private final Path directory;
+
+    /**
+     * Size after which the log rolls over to a new segment.
+     */
+    @Builder.Default
+    private final long segmentBytes = 64L << 20;
+
+    /**
+     * How long the flusher keeps collecting records after the first one of
+     * a batch before writing it, which bounds the latency a put may gain.
+     * With zero, a batch is whatever arrived during the previous sync.
+     */
+    @Builder.Default
+    private final Duration maxFlushDelay = Duration.ZERO;
+
+    /**
+     * Whether every batch is forced to the storage device; without it a put
+     * only waits for the write to the operating system.
+     */
+    @Builder.Default
+    private final boolean fsync = true;
+}
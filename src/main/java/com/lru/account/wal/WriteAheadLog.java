@@ -0,0 +1,446 @@
+package com.lru.account.wal;
+
+import com.lru.account.Account;
+import com.lru.account.lru.Cache;
+import com.lru.account.snapshot.SnapshotFile;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of account updates, split into segment files named after
+ * the sequence of their first record.
+ * <p>
+ * Each record is its payload length, a CRC32C of the payload and the
+ * payload itself: sequence, id, balance scale, and the length and
+ * two's-complement bytes of the unscaled balance. A removal is logged as a
+ * tombstone with no balance bytes. A record that is cut
+ * short or fails its checksum marks a torn write; it and everything after
+ * it in the last segment are discarded when the log is opened.
+ * <p>
+ * {@link #append(Account)} only encodes the record into a memory buffer.
+ * A single flusher thread writes whatever accumulated while it was busy
+ * (optionally waiting {@link WalSettings#getMaxFlushDelay()} for more) and
+ * syncs it with one {@code force}, so concurrent writers share the cost of
+ * a sync. Callers wait for their record with {@link #awaitDurable(long)}.
+ */
+@Slf4j
+public class WriteAheadLog implements AutoCloseable {
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int FIXED_PAYLOAD_BYTES = 24;
+    private static final int MAX_PAYLOAD_BYTES = 1 << 16;
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final WalSettings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition recordsPending = lock.newCondition();
+    private final Condition recordsDurable = lock.newCondition();
+    private final CRC32C checksum = new CRC32C();
+    private final Thread flusher;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+    private long pendingFirstSequence;
+    private long lastSequence;
+    private long durableSequence;
+    private IOException failure;
+    private boolean closed;
+    private boolean flusherDone;
+    private volatile boolean replaying;
+    // owned by the flusher thread
+    private FileChannel segment;
+    private long segmentSize;
+
+    private WriteAheadLog(WalSettings settings, FileChannel segment, long segmentSize, long lastSequence) {
+        this.settings = settings;
+        this.segment = segment;
+        this.segmentSize = segmentSize;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        this.flusher = new Thread(this::flush, "account-wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Opens the log in the directory, creating it if needed, and truncates
+     * a torn write at the end of the last segment.
+     */
+    public static WriteAheadLog open(WalSettings settings) throws IOException {
+        Path directory = settings.getDirectory();
+        Files.createDirectories(directory);
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) {
+            FileChannel channel = FileChannel.open(segmentPath(directory, 1L),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return new WriteAheadLog(settings, channel, 0L, 0L);
+        }
+        Path last = segments.getLast();
+        Scan scan = scan(last, Long.MAX_VALUE, null);
+        FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE);
+        if (scan.torn) {
+            log.warn("Discarding torn write at offset {} of {}", scan.validBytes, last);
+            channel.truncate(scan.validBytes);
+            channel.force(true);
+        }
+        channel.position(scan.validBytes);
+        long lastSequence = scan.lastSequence != 0 ? scan.lastSequence : firstSequence(last) - 1;
+        return new WriteAheadLog(settings, channel, scan.validBytes, lastSequence);
+    }
+
+    /**
+     * Appends an update. Called under the cache's write lock, so records of
+     * the same account are in update order.
+     *
+     * @return the sequence to pass to {@link #awaitDurable(long)}, or 0 if
+     * nothing was logged because the log is being replayed
+     */
+    public long append(Account account) {
+        if (replaying) {
+            return 0L;
+        }
+        BigDecimal balance = account.getBalance();
+        byte[] unscaled = balance.unscaledValue().toByteArray();
+        if (FIXED_PAYLOAD_BYTES + unscaled.length > MAX_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("balance too large to log: " + account.getId());
+        }
+        return append(account.getId(), balance.scale(), unscaled);
+    }
+
+    /**
+     * Appends the removal of an account, replayed as a removal from the
+     * cache. Called under the cache's write lock, like {@link #append(Account)}.
+     *
+     * @return the sequence to pass to {@link #awaitDurable(long)}, or 0 if
+     * nothing was logged because the log is being replayed
+     */
+    public long appendRemoval(long id) {
+        if (replaying) {
+            return 0L;
+        }
+        return append(id, 0, TOMBSTONE);
+    }
+
+    /**
+     * Blocks until the record with this sequence and all before it are
+     * written and, with {@link WalSettings#isFsync()}, synced.
+     *
+     * @throws UncheckedIOException if the log could not be written
+     */
+    public void awaitDurable(long sequence) {
+        if (sequence == 0L) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (durableSequence < sequence) {
+                if (failure != null) {
+                    throw new UncheckedIOException("write-ahead log failed", failure);
+                }
+                if (flusherDone) {
+                    throw new IllegalStateException("write-ahead log is closed");
+                }
+                recordsDurable.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loads the snapshot, if it exists, and replays the log records it does
+     * not contain, removals included. Must run before the cache takes any
+     * other update; the replayed updates are not logged again.
+     *
+     * @return the number of replayed log records
+     */
+    public long recover(Path snapshot, Cache<Long, Account> cache) throws IOException {
+        replaying = true;
+        try {
+            long after = 0L;
+            if (snapshot != null && Files.exists(snapshot)) {
+                after = SnapshotFile.sequence(snapshot);
+                SnapshotFile.load(snapshot, cache);
+            }
+            long replayed = 0L;
+            List<Path> segments = segments(settings.getDirectory());
+            for (Path path : segments) {
+                List<Account> accounts = new ArrayList<>();
+                Scan scan = scan(path, after, accounts);
+                if (scan.torn && !path.equals(segments.getLast())) {
+                    throw new IOException("corrupt record at offset " + scan.validBytes + " of " + path);
+                }
+                replay(accounts, cache);
+                replayed += accounts.size();
+            }
+            return replayed;
+        } finally {
+            replaying = false;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the cache recording the last logged sequence,
+     * then {@link #compact(long) compacts} the log up to it. Updates logged
+     * while the snapshot is taken may be both in it and in the log, which
+     * is harmless since replaying them again yields the same balances.
+     */
+    public long checkpoint(Cache<Long, Account> cache, Path snapshot) throws IOException {
+        long sequence = lastSequence();
+        SnapshotFile.write(cache.snapshot(), snapshot, sequence);
+        compact(sequence);
+        return sequence;
+    }
+
+    /**
+     * Deletes the segments whose records all have a sequence up to the
+     * given one. The segment being written is always kept.
+     *
+     * @return the number of deleted segments
+     */
+    public int compact(long sequence) throws IOException {
+        List<Path> segments = segments(settings.getDirectory());
+        int deleted = 0;
+        for (int i = 0; i + 1 < segments.size() && firstSequence(segments.get(i + 1)) - 1 <= sequence; i++) {
+            Files.deleteIfExists(segments.get(i));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes and syncs the pending records, then stops the flusher.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            recordsPending.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long append(long id, int scale, byte[] unscaled) {
+        int length = FIXED_PAYLOAD_BYTES + unscaled.length;
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new UncheckedIOException("write-ahead log failed", failure);
+            }
+            if (closed) {
+                throw new IllegalStateException("write-ahead log is closed");
+            }
+            ensureRoom(RECORD_HEADER_BYTES + length);
+            long sequence = ++lastSequence;
+            if (pending.position() == 0) {
+                pendingFirstSequence = sequence;
+                recordsPending.signal();
+            }
+            int start = pending.position();
+            pending.putInt(length).putInt(0).putLong(sequence).putLong(id)
+                .putInt(scale).putInt(unscaled.length).put(unscaled);
+            checksum.reset();
+            checksum.update(pending.slice(start + RECORD_HEADER_BYTES, length));
+            pending.putInt(start + 4, (int) checksum.getValue());
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureRoom(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending = larger.put(pending.flip());
+        }
+    }
+
+    private void flush() {
+        try {
+            while (true) {
+                long firstSequence;
+                long upTo;
+                lock.lock();
+                try {
+                    while (!closed && pending.position() == 0) {
+                        recordsPending.awaitUninterruptibly();
+                    }
+                    if (pending.position() == 0) {
+                        return;
+                    }
+                    awaitMoreRecords();
+                    ByteBuffer batch = pending;
+                    pending = writing;
+                    writing = batch;
+                    firstSequence = pendingFirstSequence;
+                    upTo = lastSequence;
+                } finally {
+                    lock.unlock();
+                }
+                write(writing.flip(), firstSequence);
+                writing.clear();
+                lock.lock();
+                try {
+                    durableSequence = upTo;
+                    recordsDurable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            log.error("Write-ahead log failed", e);
+            lock.lock();
+            try {
+                failure = e;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            lock.lock();
+            try {
+                flusherDone = true;
+                recordsDurable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                segment.close();
+            } catch (IOException e) {
+                log.warn("Could not close write-ahead log segment", e);
+            }
+        }
+    }
+
+    private void awaitMoreRecords() {
+        long nanos = settings.getMaxFlushDelay().toNanos();
+        try {
+            while (nanos > 0 && !closed) {
+                nanos = recordsPending.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(ByteBuffer batch, long firstSequence) throws IOException {
+        if (segmentSize > 0 && segmentSize + batch.remaining() > settings.getSegmentBytes()) {
+            segment.force(true);
+            segment.close();
+            segment = FileChannel.open(segmentPath(settings.getDirectory(), firstSequence),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            segmentSize = 0;
+        }
+        while (batch.hasRemaining()) {
+            segmentSize += segment.write(batch);
+        }
+        if (settings.isFsync()) {
+            segment.force(false);
+        }
+    }
+
+    /**
+     * Puts the records in order, in batches between the tombstones, which
+     * remove their account.
+     */
+    private static void replay(List<Account> records, Cache<Long, Account> cache) {
+        int from = 0;
+        for (int i = 0; i < records.size(); i++) {
+            Account record = records.get(i);
+            if (record.getBalance() == null) {
+                cache.putAll(records.subList(from, i));
+                cache.remove(record.getId());
+                from = i + 1;
+            }
+        }
+        cache.putAll(records.subList(from, records.size()));
+    }
+
+    /**
+     * Reads the valid records of a segment, collecting those after the
+     * given sequence if {@code into} is set; a tombstone is collected as an
+     * account without a balance.
+     */
+    private static Scan scan(Path path, long after, List<Account> into) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32C checksum = new CRC32C();
+            long lastSequence = 0L;
+            while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int expected = buffer.getInt();
+                if (length < FIXED_PAYLOAD_BYTES || length > MAX_PAYLOAD_BYTES || length > buffer.remaining()) {
+                    return new Scan(start, lastSequence, true);
+                }
+                checksum.reset();
+                checksum.update(buffer.slice(buffer.position(), length));
+                if ((int) checksum.getValue() != expected) {
+                    return new Scan(start, lastSequence, true);
+                }
+                lastSequence = buffer.getLong();
+                long id = buffer.getLong();
+                int scale = buffer.getInt();
+                byte[] unscaled = new byte[buffer.getInt()];
+                buffer.get(unscaled);
+                if (into != null && lastSequence > after) {
+                    BigDecimal balance = unscaled.length > 0 ? new BigDecimal(new BigInteger(unscaled), scale) : null;
+                    into.add(Account.builder().id(id).balance(balance).build());
+                }
+            }
+            return new Scan(buffer.position(), lastSequence, buffer.hasRemaining());
+        }
+    }
+
+    private record Scan(long validBytes, long lastSequence, boolean torn) {
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    private static Path segmentPath(Path directory, long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
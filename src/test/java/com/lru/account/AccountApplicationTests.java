@@ -1,19 +1,98 @@
 package com.lru.account;
 
+import com.lru.account.cluster.AccountCluster;
+import com.lru.account.cluster.ClusterNode;
+import com.lru.account.cluster.ClusterSettings;
+import com.lru.account.event.AccountUpdateDispatcher;
+import com.lru.account.event.BackpressurePolicy;
+import com.lru.account.event.Subscription;
+import com.lru.account.event.SubscriptionOptions;
 import com.lru.account.lru.AccountLRUCacheThreadSafe;
+import com.lru.account.lru.AdmissionPolicy;
 import com.lru.account.lru.Cache;
+import com.lru.account.lru.CacheSettings;
+import com.lru.account.lru.ClockPolicy;
+import com.lru.account.lru.EvictionPolicy;
+import com.lru.account.lru.LongHashIndex;
+import com.lru.account.lru.LruPolicy;
+import com.lru.account.lru.RemovalCause;
+import com.lru.account.lru.RetainedSizeWeigher;
+import com.lru.account.lru.SegmentedAccountLRUCache;
+import com.lru.account.lru.SievePolicy;
+import com.lru.account.lru.SlotLruList;
+import com.lru.account.lru.StorageMode;
+import com.lru.account.lru.TimerWheel;
+import com.lru.account.lru.TopBalanceIndex;
+import com.lru.account.near.NearAccountCache;
+import com.lru.account.near.NearCacheMetrics;
+import com.lru.account.near.NearCacheSettings;
+import com.lru.account.server.AccountClient;
+import com.lru.account.server.AccountProtocol;
+import com.lru.account.server.AccountServer;
+import com.lru.account.server.ServerSettings;
+import com.lru.account.simulator.SimulationResult;
+import com.lru.account.simulator.SimulatorSettings;
+import com.lru.account.simulator.Trace;
+import com.lru.account.simulator.TraceFile;
+import com.lru.account.simulator.TraceSimulator;
+import com.lru.account.snapshot.BulkLoader;
+import com.lru.account.snapshot.CsvAccountFile;
+import com.lru.account.snapshot.SnapshotFile;
+import com.lru.account.stats.AccountCacheMetrics;
+import com.lru.account.stats.CacheStats;
+import com.lru.account.stats.ConcurrentStatsCounter;
+import com.lru.account.stats.LatencySnapshot;
+import com.lru.account.wal.WalSettings;
+import com.lru.account.wal.WriteAheadLog;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.lang.management.ManagementFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Slf4j
@@ -94,20 +173,1314 @@ class AccountApplicationTests {
         service.putAccount(E2);
         service.putAccount(E3);
         assertEquals(0, service.getAccountByIdHitCount());
-        service.getLruCache().getLinkedListNodeMap().values().forEach(e-> log.info(e.getElement().toString()));
+        ((AccountLRUCacheThreadSafe) service.getLruCache()).forEach(e-> log.info(e.toString()));
         assertTrue(service.getTop3AccountsByBalance().stream().map(Account::getId).toList().containsAll(List.of(5L, 6L, 7L)));
         service.putAccount(C);
         service.getAccountById(B.getId());
         service.putAccount(D);
-        service.getLruCache().getLinkedListNodeMap().values().forEach(e-> log.info(e.getElement().toString()));
+        ((AccountLRUCacheThreadSafe) service.getLruCache()).forEach(e-> log.info(e.toString()));
         assertTrue(service.getTop3AccountsByBalance().stream().map(Account::getId).toList().containsAll(List.of(4L, 6L, 7L)));
         service.putAccount(E);
         service.putAccount(F);
-        service.getLruCache().getLinkedListNodeMap().values().forEach(e-> log.info(e.getElement().toString()));
+        ((AccountLRUCacheThreadSafe) service.getLruCache()).forEach(e-> log.info(e.toString()));
         assertTrue(service.getTop3AccountsByBalance().stream().map(Account::getId).toList().containsAll(List.of(8L, 3L, 8L)));
         assertEquals(1, service.getAccountByIdHitCount());
     }
 
+    @Test
+    void segmentedCache_WhenAccountsSpreadAcrossSegments_ThenCapacityHitsAndTopsAreGlobal() {
+        final int size = 64;
+        AccountCache service = new AccountCacheImpl(new SegmentedAccountLRUCache(size, 8));
+        service.subscribeForAccountUpdates(account -> { });
+        LongStream.range(0, 1000).forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(id % 100)).build()));
+        assertTrue(service.getLruCache().size() <= size);
+
+        service.putAccount(Account.builder().id(5000L).balance(BigDecimal.valueOf(700)).build());
+        service.putAccount(Account.builder().id(5001L).balance(BigDecimal.valueOf(900)).build());
+        service.putAccount(Account.builder().id(5002L).balance(BigDecimal.valueOf(800)).build());
+        assertEquals(List.of(5001L, 5002L, 5000L), service.getTop3AccountsByBalance().stream().map(Account::getId).toList());
+
+        service.getAccountById(5000L);
+        service.getAccountById(5001L);
+        service.getAccountById(-1L);
+        assertEquals(2, service.getAccountByIdHitCount());
+    }
+
+    @Test
+    void bufferedReads_WhenAccountReadBeforeOverflow_ThenItSurvivesEviction() throws Exception {
+        Cache<Long, Account> cache = new AccountLRUCacheThreadSafe(3);
+        cache.delegateListener(account -> { });
+        LongStream.rangeClosed(1, 3).forEach(id -> cache.put(id, Account.builder().id(id).balance(BigDecimal.valueOf(id)).build()));
+        try (ExecutorService executorService = Executors.newFixedThreadPool(4)) {
+            IntStream.range(0, 4).<Callable<Object>>mapToObj(i -> () -> {
+                IntStream.range(0, 1000).forEach(j -> cache.get(1L));
+                return null;
+            }).forEach(executorService::submit);
+        }
+        cache.put(4L, Account.builder().id(4L).balance(BigDecimal.valueOf(4)).build());
+        assertTrue(cache.get(1L).isPresent());
+        assertTrue(cache.get(2L).isEmpty());
+        assertEquals(4001, cache.getHits());
+    }
+
+    @Test
+    void longHashIndex_WhenKeysAddedAndRemoved_ThenLookupsMatchHashMap() {
+        LongHashIndex index = new LongHashIndex();
+        Map<Long, Integer> expected = new HashMap<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextLong(-5000, 5000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.getOrDefault(key, LongHashIndex.NO_VALUE), index.remove(key));
+                expected.remove(key);
+            } else {
+                assertEquals(expected.getOrDefault(key, LongHashIndex.NO_VALUE), index.put(key, i));
+                expected.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), index.size());
+        LongStream.range(-5000, 5000).forEach(key -> assertEquals(expected.getOrDefault(key, LongHashIndex.NO_VALUE), index.get(key)));
+        assertTrue(index.capacity() < 4 * 10000);
+    }
+
+    @Test
+    void slotLruList_WhenSlotsRemoved_ThenTheyAreReusedAndOrderIsKept() {
+        SlotLruList list = new SlotLruList();
+        int[] slots = IntStream.range(0, 40).map(i -> list.addFirst()).toArray();
+        list.moveToFront(slots[0]);
+        assertEquals(slots[0], list.head());
+        assertEquals(slots[1], list.tail());
+        list.remove(slots[1]);
+        list.remove(slots[20]);
+        assertEquals(slots[2], list.tail());
+        assertEquals(List.of(slots[20], slots[1]), List.of(list.addFirst(), list.addFirst()));
+        assertEquals(40, list.size());
+        int count = 0;
+        for (int slot = list.head(); slot != SlotLruList.NIL; slot = list.next(slot)) {
+            count++;
+        }
+        assertEquals(40, count);
+    }
+
+    @Test
+    void offHeapStorage_WhenAccountsPutAndEvicted_ThenBalancesRoundTrip() {
+        Cache<Long, Account> cache = new AccountLRUCacheThreadSafe(CacheSettings.builder().size(1000).storageMode(StorageMode.OFF_HEAP).build());
+        cache.delegateListener(account -> { });
+        BigDecimal huge = new BigDecimal("123456789012345678901234567890.123456789");
+        LongStream.range(0, 3000).forEach(id -> cache.put(id, Account.builder().id(id).balance(BigDecimal.valueOf(id, 2)).build()));
+        cache.put(2500L, Account.builder().id(2500L).balance(huge).build());
+        cache.put(2999L, Account.builder().id(2999L).balance(BigDecimal.valueOf(-42)).build());
+        assertEquals(1000, cache.size());
+        assertTrue(cache.get(1999L).isEmpty());
+        assertEquals(BigDecimal.valueOf(2000, 2), cache.get(2000L).get().getBalance());
+        assertEquals(huge, cache.get(2500L).get().getBalance());
+        assertEquals(BigDecimal.valueOf(-42), cache.get(2999L).get().getBalance());
+        assertEquals(List.of(2500L, 2998L), cache.getTop(2).stream().map(Account::getId).toList());
+    }
+
+    @Test
+    void topN_WhenBalancesTieOrTopAccountsAreEvicted_ThenRankingStaysExact() {
+        AccountCache service = new AccountCacheImpl(new AccountLRUCacheThreadSafe(CacheSettings.builder().size(10).topLimit(2).build()));
+        service.subscribeForAccountUpdates(account -> { });
+        LongStream.rangeClosed(1, 10).forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(id <= 5 ? 100 : id)).build()));
+        assertEquals(List.of(1L, 2L, 3L), service.getTopNAccountsByBalance(3).stream().map(Account::getId).toList());
+
+        // evicts accounts 1 to 5, the whole tracked top
+        LongStream.rangeClosed(11, 15).forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(id - 10)).build()));
+        assertEquals(List.of(10L, 9L, 8L), service.getTop3AccountsByBalance().stream().map(Account::getId).toList());
+
+        service.putAccount(Account.builder().id(10L).balance(BigDecimal.ZERO).build());
+        service.putAccount(Account.builder().id(12L).balance(BigDecimal.valueOf(9)).build());
+        assertEquals(List.of(9L, 12L, 8L, 7L), service.getTopNAccountsByBalance(4).stream().map(Account::getId).toList());
+        assertEquals(10, service.getTopNAccountsByBalance(50).size());
+    }
+
+    @Test
+    void updateDispatch_WhenSubscribersAreSlowOrBatched_ThenPutsDoNotWaitForThem() throws Exception {
+        try (AccountCache service = new AccountCacheImpl(100)) {
+            CountDownLatch release = new CountDownLatch(1);
+            List<Long> coalesced = new CopyOnWriteArrayList<>();
+            Subscription slow = service.subscribeForAccountUpdates(account -> {
+                awaitQuietly(release);
+                coalesced.add(account.getId());
+            }, SubscriptionOptions.builder().bufferSize(64).backpressure(BackpressurePolicy.COALESCE_BY_ID).build());
+            Subscription dropping = service.subscribeForAccountUpdates(account -> awaitQuietly(release),
+                SubscriptionOptions.builder().bufferSize(4).backpressure(BackpressurePolicy.DROP_OLDEST).build());
+            List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+            CountDownLatch allBatched = new CountDownLatch(50);
+            service.subscribeForAccountUpdateBatches(batch -> {
+                batchSizes.add(batch.size());
+                batch.forEach(account -> allBatched.countDown());
+            }, SubscriptionOptions.builder().maxBatchSize(16).build());
+
+            for (int round = 0; round < 10; round++) {
+                LongStream.range(0, 3).forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(ThreadLocalRandom.current().nextLong())).build()));
+            }
+            LongStream.range(10, 30).forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(id)).build()));
+
+            assertTrue(allBatched.await(5, TimeUnit.SECONDS));
+            assertTrue(batchSizes.stream().allMatch(size -> size <= 16));
+            assertTrue(dropping.getDropped() > 0);
+            release.countDown();
+            while (slow.getPending() > 0) {
+                Thread.sleep(1);
+            }
+            assertTrue(coalesced.size() < 50);
+        }
+    }
+
+    @Test
+    void updateDispatch_WhenABlockingBufferIsFull_ThenOnlyThePublisherWaitsAndOutsideTheLock() throws Exception {
+        try (AccountCache service = new AccountCacheImpl(1000);
+             ExecutorService writers = Executors.newFixedThreadPool(3)) {
+            CountDownLatch release = new CountDownLatch(1);
+            List<Long> delivered = new CopyOnWriteArrayList<>();
+            service.subscribeForAccountUpdates(account -> {
+                awaitQuietly(release);
+                delivered.add(account.getId());
+            }, SubscriptionOptions.builder().bufferSize(2).build());
+
+            Future<?> stalled = writers.submit(() -> LongStream.range(0, 10)
+                .forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.ONE).build())));
+            Future<?> other = writers.submit(() -> service.putAccount(Account.builder().id(100L).balance(BigDecimal.ONE).build()));
+            // both writers wait for the listener, but their accounts are cached and readers and writers go on
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (service.getAccountById(100L) == null && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(BigDecimal.ONE, service.getAccountById(100L).getBalance());
+            assertFalse(stalled.isDone());
+            Future<?> changed = writers.submit(() ->
+                service.computeIfPresent(100L, account -> Account.builder().id(100L).balance(BigDecimal.TEN).build()));
+            while (!BigDecimal.TEN.equals(service.getAccountById(100L).getBalance()) && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(BigDecimal.TEN, service.getAccountById(100L).getBalance());
+
+            release.countDown();
+            stalled.get(5, TimeUnit.SECONDS);
+            other.get(5, TimeUnit.SECONDS);
+            changed.get(5, TimeUnit.SECONDS);
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (delivered.size() < 12 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(12, delivered.size());
+            assertEquals(LongStream.range(0, 10).boxed().toList(), delivered.stream().filter(id -> id < 100).toList());
+        }
+
+        // a listener writing back into a full buffer of its own does not wait for itself
+        try (AccountCache service = new AccountCacheImpl(1000)) {
+            CountDownLatch echoed = new CountDownLatch(20);
+            service.subscribeForAccountUpdates(account -> {
+                if (account.getId() < 1000) {
+                    service.putAccount(Account.builder().id(account.getId() + 1000).balance(BigDecimal.ONE).build());
+                } else {
+                    echoed.countDown();
+                }
+            }, SubscriptionOptions.builder().bufferSize(2).build());
+            LongStream.range(0, 20).forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.ONE).build()));
+            assertTrue(echoed.await(5, TimeUnit.SECONDS));
+        }
+
+        // a publisher waits for its own queued updates only, not for those queued after them
+        try (AccountUpdateDispatcher dispatcher = new AccountUpdateDispatcher();
+             ExecutorService publishers = Executors.newSingleThreadExecutor()) {
+            Semaphore permits = new Semaphore(0);
+            Subscription subscription = dispatcher.subscribeBatch(batch -> permits.acquireUninterruptibly(),
+                SubscriptionOptions.builder().bufferSize(2).maxBatchSize(1).build());
+            dispatcher.publish(Account.builder().id(0L).balance(BigDecimal.ONE).build());
+            while (subscription.getPending() > 0) {
+                Thread.sleep(1);
+            }
+            LongStream.rangeClosed(1, 2).forEach(id -> dispatcher.publish(Account.builder().id(id).balance(BigDecimal.ONE).build()));
+            Future<?> waiting = publishers.submit(() -> {
+                dispatcher.publish(Account.builder().id(3L).balance(BigDecimal.ONE).build());
+                dispatcher.awaitCapacity();
+            });
+            while (subscription.getPending() < 3) {
+                Thread.sleep(1);
+            }
+            LongStream.rangeClosed(4, 6).forEach(id -> dispatcher.publish(Account.builder().id(id).balance(BigDecimal.ONE).build()));
+            permits.release();
+            waiting.get(5, TimeUnit.SECONDS);
+            assertEquals(5, subscription.getPending());
+            permits.release(10);
+        }
+    }
+
+    @Test
+    void batchOperations_WhenComparedToSingleCalls_ThenLruOrderAndResultsMatch() {
+        List<Account> accounts = LongStream.range(0, 300)
+            .mapToObj(i -> Account.builder().id(i % 120).balance(BigDecimal.valueOf(i)).build())
+            .toList();
+        AccountLRUCacheThreadSafe single = new AccountLRUCacheThreadSafe(100);
+        AccountLRUCacheThreadSafe batched = new AccountLRUCacheThreadSafe(100);
+        accounts.forEach(account -> single.put(account.getId(), account));
+        batched.putAll(accounts);
+        List<Long> singleOrder = new ArrayList<>();
+        List<Long> batchedOrder = new ArrayList<>();
+        single.forEach(account -> singleOrder.add(account.getId()));
+        batched.forEach(account -> batchedOrder.add(account.getId()));
+        assertEquals(singleOrder, batchedOrder);
+        assertEquals(single.getTop(5), batched.getTop(5));
+
+        AccountCache service = new AccountCacheImpl(new SegmentedAccountLRUCache(100, 4));
+        service.putAccounts(accounts);
+        AccountBatch batch = service.getAccountsByIds(new long[]{119, 5, 1000});
+        assertEquals(239L, batch.get(0).getBalance().longValue());
+        assertEquals(null, batch.get(2));
+        assertEquals(2, batch.found());
+        assertEquals(batch, service.getAccountsByIds(new long[]{119}, batch));
+        assertEquals(1, batch.size());
+        assertEquals(3, service.getAccountByIdHitCount());
+    }
+
+    @Test
+    void tinyLfuAdmission_WhenColdScanRunsThroughCache_ThenHotAccountsSurvive() {
+        assertTrue(hotAccountsSurvivingScan(AdmissionPolicy.TINY_LFU) > 90);
+        assertTrue(hotAccountsSurvivingScan(AdmissionPolicy.ALWAYS) < 50);
+    }
+
+    private static long hotAccountsSurvivingScan(AdmissionPolicy admission) {
+        Cache<Long, Account> cache = new AccountLRUCacheThreadSafe(CacheSettings.builder().size(200).admission(admission).build());
+        for (int round = 0; round < 20; round++) {
+            LongStream.range(0, 100).forEach(id -> readThrough(cache, id));
+        }
+        // a scan of cold accounts while the hot ones keep being read, each only every 500 puts
+        for (int i = 0; i < 20000; i++) {
+            cache.put(1000L + i, Account.builder().id(1000L + i).balance(BigDecimal.ONE).build());
+            if (i % 5 == 0) {
+                readThrough(cache, (i / 5) % 100);
+            }
+        }
+        return LongStream.range(0, 100).filter(id -> cache.get(id).isPresent()).count();
+    }
+
+    @Test
+    void statistics_WhenEnabled_ThenEventsAndLatenciesAreRecordedAndBoundToMicrometer() throws Exception {
+        AccountCache service = new AccountCacheImpl(new SegmentedAccountLRUCache(
+            CacheSettings.builder().size(2).recordStats(true).build(), 2));
+        CountDownLatch delivered = new CountDownLatch(4);
+        service.subscribeForAccountUpdates(account -> delivered.countDown());
+        for (long id = 1; id <= 3; id++) {
+            service.putAccount(Account.builder().id(id).balance(BigDecimal.TEN).build());
+        }
+        service.putAccount(Account.builder().id(3L).balance(BigDecimal.ONE).build());
+        service.getAccountById(3);
+        service.getAccountById(42);
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        CacheStats stats = service.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(3, stats.getInsertionCount());
+        assertEquals(1, stats.getUpdateCount());
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(2, stats.getGetLatency().getCount());
+        assertEquals(4, stats.getPutLatency().getCount());
+        assertEquals(4, stats.getLockWait().getCount());
+        assertEquals(service.getAccountByIdHitCount(), stats.getHitCount());
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        new AccountCacheMetrics(service.getLruCache(), "accounts").bindTo(registry);
+        assertEquals(1.0, registry.get("account.cache.gets").tag("result", "miss").functionCounter().count());
+        assertEquals(2.0, registry.get("account.cache.size").gauge().value());
+        assertEquals(3.0, registry.get("account.cache.insertions").functionCounter().count());
+        assertNull(registry.get("account.cache.weight").gauge().getId().getBaseUnit(), "a count of accounts has no unit");
+        MeterRegistry weighed = new SimpleMeterRegistry();
+        new AccountCacheMetrics(new AccountLRUCacheThreadSafe(CacheSettings.builder().maximumWeight(1 << 20).build()), "weighed").bindTo(weighed);
+        assertEquals("bytes", weighed.get("account.cache.weight").gauge().getId().getBaseUnit());
+
+        CacheStats disabled = new AccountCacheImpl(1).getStats();
+        assertEquals(LatencySnapshot.EMPTY, disabled.getGetLatency());
+
+        // a scrape takes one snapshot, and reports the latencies of the last window only
+        AtomicLong now = new AtomicLong();
+        AtomicInteger snapshots = new AtomicInteger();
+        ConcurrentStatsCounter counter = new ConcurrentStatsCounter(now::get) {
+            @Override
+            public CacheStats snapshot() {
+                snapshots.incrementAndGet();
+                return super.snapshot();
+            }
+        };
+        AccountLRUCacheThreadSafe timed = new AccountLRUCacheThreadSafe(CacheSettings.builder().size(10).statsCounter(counter).build());
+        timed.put(1L, Account.builder().id(1L).balance(BigDecimal.TEN).build());
+        MeterRegistry scraped = new SimpleMeterRegistry();
+        new AccountCacheMetrics(timed, "timed").bindTo(scraped);
+        scraped.getMeters().forEach(meter -> meter.measure().forEach(Measurement::getValue));
+        assertEquals(1, snapshots.get());
+        assertTrue(scraped.get("account.cache.latency").tag("operation", "put").tag("quantile", "1.0").timeGauge().value() > 0);
+        assertEquals(1, counter.snapshot().getRecentPutLatency().getCount());
+        now.addAndGet(ConcurrentStatsCounter.WINDOW.toNanos());
+        CacheStats later = counter.snapshot();
+        assertEquals(0, later.getRecentPutLatency().getCount());
+        assertEquals(1, later.getPutLatency().getCount());
+    }
+
+    @Test
+    void snapshot_WhenWrittenAndLoaded_ThenRecencyBalancesAndTopsAreRestored(@TempDir Path directory) throws Exception {
+        AccountLRUCacheThreadSafe cache = new AccountLRUCacheThreadSafe(100);
+        LongStream.range(0, 100).forEach(id -> cache.put(id, Account.builder().id(id).balance(BigDecimal.valueOf(id, 2)).build()));
+        BigDecimal huge = new BigDecimal("123456789012345678901234567890.12");
+        cache.put(7L, Account.builder().id(7L).balance(huge).build());
+        cache.get(3L);
+        Path file = directory.resolve("accounts.snapshot");
+        assertEquals(100, SnapshotFile.write(cache, file));
+
+        ConcurrentStatsCounter counter = new ConcurrentStatsCounter();
+        AccountLRUCacheThreadSafe restored = new AccountLRUCacheThreadSafe(CacheSettings.builder().size(100).statsCounter(counter).build());
+        List<Long> published = new CopyOnWriteArrayList<>();
+        restored.delegateListener(account -> published.add(account.getId()));
+        restored.put(500L, Account.builder().id(500L).balance(BigDecimal.ONE).build());
+        assertEquals(100, SnapshotFile.load(file, restored));
+        assertNull(restored.getIfPresent(500L), "a load replaces the contents");
+        List<Long> expected = new ArrayList<>();
+        cache.forEach(account -> expected.add(account.getId()));
+        List<Long> actual = new ArrayList<>();
+        restored.forEach(account -> actual.add(account.getId()));
+        assertEquals(expected, actual);
+        assertEquals(List.of(3L, 7L), actual.subList(0, 2));
+        assertEquals(huge, restored.get(7L).get().getBalance());
+        assertEquals(BigDecimal.valueOf(99, 2), restored.get(99L).get().getBalance());
+        assertEquals(cache.getTop(3).stream().map(Account::getId).toList(),
+            restored.getTop(3).stream().map(Account::getId).toList());
+
+        // the loaded accounts were published and counted when first put, so only the puts around the load are
+        restored.put(501L, Account.builder().id(501L).balance(BigDecimal.ONE).build());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (published.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(List.of(500L, 501L), published);
+        assertEquals(2, counter.snapshot().getInsertionCount());
+    }
+
+    @Test
+    void writeAheadLog_WhenCacheCrashesAfterCheckpoint_ThenSnapshotAndLogRecoverEveryUpdate(@TempDir Path directory) throws Exception {
+        WalSettings walSettings = WalSettings.builder().directory(directory.resolve("wal")).segmentBytes(4096).build();
+        Path snapshot = directory.resolve("accounts.snapshot");
+        Map<Long, BigDecimal> expected = new ConcurrentHashMap<>();
+        WriteAheadLog wal = WriteAheadLog.open(walSettings);
+        Cache<Long, Account> cache = new SegmentedAccountLRUCache(
+            CacheSettings.builder().size(1000).writeAheadLog(wal).build(), 4);
+        // every writer owns the ids equal to its number modulo 4
+        Consumer<Integer> writer = number -> {
+            for (int i = 0; i < 500; i++) {
+                long id = number + 4 * ThreadLocalRandom.current().nextLong(75);
+                BigDecimal balance = BigDecimal.valueOf(ThreadLocalRandom.current().nextLong(1_000_000), 2);
+                cache.put(id, Account.builder().id(id).balance(balance).build());
+                expected.put(id, balance);
+            }
+        };
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            IntStream.range(0, 4).forEach(number -> executor.submit(() -> writer.accept(number)));
+        }
+        long checkpoint = wal.checkpoint(cache, snapshot);
+        assertTrue(checkpoint > 0);
+        writer.accept(0);
+        // removals are logged as tombstones, replayed in order with the puts
+        for (long id = 1; id < 300; id += 40) {
+            cache.put(id, Account.builder().id(id).balance(BigDecimal.ONE).build());
+            assertEquals(BigDecimal.ONE, cache.remove(id).getBalance());
+            expected.remove(id);
+        }
+        cache.remove(5L);
+        cache.put(5L, Account.builder().id(5L).balance(BigDecimal.TEN).build());
+        expected.put(5L, BigDecimal.TEN);
+        wal.close();
+        // a torn record after the last synced one
+        Path lastSegment;
+        try (var segments = Files.list(walSettings.getDirectory())) {
+            lastSegment = segments.sorted().toList().getLast();
+        }
+        Files.write(lastSegment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        WriteAheadLog reopened = WriteAheadLog.open(walSettings);
+        AccountLRUCacheThreadSafe recovered = new AccountLRUCacheThreadSafe(
+            CacheSettings.builder().size(1000).writeAheadLog(reopened).build());
+        assertTrue(reopened.recover(snapshot, recovered) > 0);
+        assertEquals(expected.size(), recovered.size());
+        expected.forEach((id, balance) -> assertEquals(balance, recovered.get(id).get().getBalance()));
+        assertTrue(recovered.get(41L).isEmpty());
+        assertEquals(reopened.lastSequence(), wal.lastSequence());
+        reopened.close();
+    }
+
+    @Test
+    void readThrough_WhenMissesAreConcurrentOrBatchedOrStale_ThenLoadsAreCoalescedAndRefreshedAhead() throws Exception {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        List<Long> bulkLoaded = new CopyOnWriteArrayList<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        AccountLoader loader = new AccountLoader() {
+            @Override
+            public Account load(long id) throws Exception {
+                loads.incrementAndGet();
+                gate.await();
+                return Account.builder().id(id).balance(BigDecimal.valueOf(loads.get())).build();
+            }
+
+            @Override
+            public Map<Long, Account> loadAll(long[] ids) {
+                Map<Long, Account> accounts = new HashMap<>();
+                for (long id : ids) {
+                    bulkLoaded.add(id);
+                    if (id != 404) {
+                        accounts.put(id, Account.builder().id(id).balance(BigDecimal.ONE).build());
+                    }
+                }
+                return accounts;
+            }
+        };
+        AccountCache service = new AccountCacheImpl(new AccountLRUCacheThreadSafe(CacheSettings.builder()
+            .size(100).refreshAfterWrite(Duration.ofSeconds(1)).ticker(now::get).build()), loader);
+
+        List<CompletableFuture<Account>> readers = IntStream.range(0, 16)
+            .mapToObj(i -> CompletableFuture.supplyAsync(() -> service.getAccountById(42))).toList();
+        CompletableFuture<Account> async = service.getAccountByIdAsync(42);
+        Thread.sleep(50);
+        gate.countDown();
+        readers.forEach(reader -> assertEquals(BigDecimal.ONE, reader.join().getBalance()));
+        assertEquals(BigDecimal.ONE, async.get(5, TimeUnit.SECONDS).getBalance());
+        assertEquals(1, loads.get());
+
+        AccountBatch batch = service.getAccountsByIds(new long[]{42, 7, 8, 7, 404});
+        assertEquals(4, batch.found());
+        assertEquals(3, bulkLoaded.size());
+        assertTrue(bulkLoaded.containsAll(List.of(7L, 8L, 404L)));
+
+        now.addAndGet(Duration.ofSeconds(2).toNanos());
+        assertEquals(BigDecimal.ONE, service.getAccountById(42).getBalance());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.getAccountById(42).getBalance().intValue() != 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(BigDecimal.valueOf(2), service.getAccountById(42).getBalance());
+        assertEquals(2, loads.get());
+        service.close();
+    }
+
+    @Test
+    void expiration_WhenAccountsOutliveTheirTtlOrIdleTime_ThenTheyExpireAndAreReported() {
+        AtomicLong now = new AtomicLong();
+        Map<Long, RemovalCause> removed = new ConcurrentHashMap<>();
+        AccountLRUCacheThreadSafe cache = new AccountLRUCacheThreadSafe(CacheSettings.builder().size(10)
+            .expireAfterWrite(Duration.ofSeconds(1)).expireAfterAccess(Duration.ofMillis(300))
+            .removalListener((account, cause) -> removed.put(account.getId(), cause))
+            .ticker(now::get).build());
+        LongStream.rangeClosed(1, 3).forEach(id -> cache.put(id, Account.builder().id(id).balance(BigDecimal.valueOf(id)).build()));
+
+        now.set(Duration.ofMillis(200).toNanos());
+        assertTrue(cache.get(1L).isPresent());
+        now.set(Duration.ofMillis(400).toNanos());
+        assertTrue(cache.get(2L).isEmpty());
+        assertTrue(cache.get(1L).isPresent());
+        cache.cleanUp();
+        assertEquals(Map.of(2L, RemovalCause.EXPIRED, 3L, RemovalCause.EXPIRED), removed);
+        assertEquals(List.of(1L), cache.getTop(3).stream().map(Account::getId).toList());
+
+        // idle resets on every read, but never beyond the time to live
+        now.set(Duration.ofMillis(650).toNanos());
+        assertTrue(cache.get(1L).isPresent());
+        now.set(Duration.ofMillis(900).toNanos());
+        assertTrue(cache.get(1L).isPresent());
+        now.set(Duration.ofMillis(1050).toNanos());
+        assertTrue(cache.get(1L).isEmpty());
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertEquals(RemovalCause.EXPIRED, removed.get(1L));
+
+        // accounts expire without being read again
+        cache.put(5L, Account.builder().id(5L).balance(BigDecimal.TEN).build());
+        now.addAndGet(Duration.ofMillis(250).toNanos());
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+        now.addAndGet(Duration.ofMillis(100).toNanos());
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+
+        // deadlines beyond the finer wheels cascade down and expire on time
+        TimerWheel wheel = new TimerWheel(4, 0L);
+        List<Integer> expired = new ArrayList<>();
+        wheel.schedule(2, Duration.ofMinutes(90).toNanos());
+        wheel.advance(Duration.ofMinutes(89).toNanos(), expired::add);
+        assertEquals(List.of(), expired);
+        wheel.advance(Duration.ofMinutes(91).toNanos(), expired::add);
+        assertEquals(List.of(2), expired);
+
+        // a lookup moves the deadline only if the slot was not rescheduled since it was read
+        wheel.schedule(1, Duration.ofMinutes(95).toNanos());
+        assertFalse(wheel.touch(1, Duration.ofMinutes(90).toNanos(), Duration.ofMinutes(99).toNanos()));
+        assertTrue(wheel.touch(1, Duration.ofMinutes(95).toNanos(), Duration.ofMinutes(99).toNanos()));
+        wheel.ensureCapacity(1_000);
+        assertEquals(Duration.ofMinutes(99).toNanos(), wheel.deadline(1));
+    }
+
+    @Test
+    void weightedCapacity_WhenAccountsExceedTheWeightBudget_ThenLeastRecentlyUsedAreEvicted() throws Exception {
+        AccountLRUCacheThreadSafe cache = new AccountLRUCacheThreadSafe(CacheSettings.builder()
+            .maximumWeight(100).weigher(account -> account.getBalance().intValue()).build());
+        LongStream.rangeClosed(1, 4).forEach(id -> cache.put(id, Account.builder().id(id).balance(BigDecimal.valueOf(30)).build()));
+        assertEquals(3, cache.size());
+        assertEquals(90, cache.weightedSize());
+        assertTrue(cache.get(1L).isEmpty());
+
+        // growing an account evicts from the tail, never the account itself
+        cache.put(4L, Account.builder().id(4L).balance(BigDecimal.valueOf(70)).build());
+        assertEquals(List.of(4L, 3L), cache.getTop(3).stream().map(Account::getId).toList());
+        assertEquals(100, cache.weightedSize());
+        assertFalse(cache.put(5L, Account.builder().id(5L).balance(BigDecimal.valueOf(101)).build()));
+        assertEquals(2, cache.size());
+
+        // an update outweighing the whole cache evicts its account, not every other one
+        List<Long> removed = new CopyOnWriteArrayList<>();
+        AccountLRUCacheThreadSafe budget = new AccountLRUCacheThreadSafe(CacheSettings.builder()
+            .maximumWeight(2_000).weigher(account -> account.getBalance().intValue())
+            .removalListener((account, cause) -> removed.add(account.getId())).build());
+        CountDownLatch published = new CountDownLatch(1);
+        budget.getDispatcher().subscribe(account -> {
+            if (account.getBalance() == null) {
+                published.countDown();
+            }
+        }, SubscriptionOptions.builder().removals(true).build());
+        LongStream.rangeClosed(1, 10).forEach(id -> budget.put(id, Account.builder().id(id).balance(BigDecimal.valueOf(100)).build()));
+        assertFalse(budget.put(3L, Account.builder().id(3L).balance(BigDecimal.valueOf(5_000)).build()));
+        assertEquals(9, budget.size());
+        assertEquals(900, budget.weightedSize());
+        assertTrue(budget.get(3L).isEmpty());
+        assertEquals(List.of(3L), removed);
+        budget.putAll(List.of(Account.builder().id(4L).balance(BigDecimal.valueOf(5_000)).build(),
+            Account.builder().id(5L).balance(BigDecimal.valueOf(50)).build()));
+        assertEquals(8, budget.size());
+        assertEquals(750, budget.weightedSize());
+        budget.computeIfPresent(6L, account -> Account.builder().id(6L).balance(BigDecimal.valueOf(2_001)).build());
+        budget.cleanUp();
+        assertEquals(7, budget.size());
+        assertEquals(650, budget.weightedSize());
+        assertEquals(List.of(3L, 4L, 6L), removed);
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+
+        // the default weigher charges the retained bytes, larger for balances beyond a long
+        RetainedSizeWeigher weigher = new RetainedSizeWeigher();
+        int small = weigher.weigh(Account.builder().id(1L).balance(BigDecimal.TEN).build());
+        int large = weigher.weigh(Account.builder().id(1L).balance(new BigDecimal("1e30").add(BigDecimal.ONE)).build());
+        assertEquals(80, small);
+        assertTrue(large > small + 40);
+        SegmentedAccountLRUCache segmented = new SegmentedAccountLRUCache(CacheSettings.builder()
+            .maximumWeight(small * 1_000L).build(), 4);
+        LongStream.rangeClosed(1, 2_000).forEach(id -> segmented.put(id, Account.builder().id(id).balance(BigDecimal.TEN).build()));
+        assertTrue(segmented.weightedSize() <= small * 1_000L);
+        assertEquals(segmented.size() * (long) small, segmented.weightedSize());
+    }
+
+    @Test
+    void primitiveLookups_WhenAccountsAreHit_ThenNothingIsAllocated() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SegmentedAccountLRUCache cache = new SegmentedAccountLRUCache(1_000, 4);
+        AccountCacheImpl service = new AccountCacheImpl(cache);
+        LongStream.range(0, 1_000).forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(id)).build()));
+        BigDecimal[] balances = new BigDecimal[1];
+        Account[] top = new Account[3];
+        int lookups = 100_000;
+        Runnable hits = () -> {
+            for (int i = 0; i < lookups; i++) {
+                long id = i % 1_000;
+                service.getAccountById(id);
+                cache.containsKey(id);
+                cache.getBalanceInto(id, balances, 0);
+                service.getTopAccountsByBalance(top);
+            }
+        };
+        hits.run();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        hits.run();
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        // room for a one-off allocation, e.g. by a maintenance run, while one per lookup would be megabytes
+        assertTrue(allocated <= 1_024, allocated + " bytes allocated");
+
+        assertEquals(List.of(999L, 998L, 997L), Arrays.stream(top).map(Account::getId).toList());
+        assertEquals(BigDecimal.valueOf(999), balances[0]);
+        assertFalse(cache.containsKey(1_000L));
+        assertFalse(cache.getBalanceInto(1_000L, balances, 0));
+        service.close();
+    }
+
+    @Test
+    void balanceAdjustments_WhenCreditedConcurrently_ThenNoUpdateIsLostAndEachIsPublishedOnce() throws Exception {
+        try (AccountCacheImpl service = new AccountCacheImpl(new SegmentedAccountLRUCache(100, 4))) {
+            LongStream.range(0, 10).forEach(id -> service.putAccount(Account.builder().id(id).balance(BigDecimal.ZERO).build()));
+            Map<Long, BigDecimal> lastPublished = new ConcurrentHashMap<>();
+            AtomicInteger published = new AtomicInteger();
+            CountDownLatch allPublished = new CountDownLatch(80_000);
+            service.subscribeForAccountUpdates(account -> {
+                lastPublished.put(account.getId(), account.getBalance());
+                published.incrementAndGet();
+                allPublished.countDown();
+            });
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> credits = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                credits.add(executor.submit(() -> IntStream.range(0, 10_000).forEach(i -> service.adjustBalance(i % 10, BigDecimal.ONE))));
+            }
+            for (Future<?> credit : credits) {
+                credit.get();
+            }
+            executor.shutdown();
+            assertTrue(allPublished.await(10, TimeUnit.SECONDS));
+            LongStream.range(0, 10).forEach(id -> {
+                assertEquals(0, BigDecimal.valueOf(8_000).compareTo(service.getAccountById(id).getBalance()));
+                assertEquals(0, BigDecimal.valueOf(8_000).compareTo(lastPublished.get(id)));
+            });
+
+            // the top-N index sees every change, unchanged balances are not published
+            service.adjustBalance(3, BigDecimal.TEN);
+            service.adjustBalance(5, BigDecimal.ZERO);
+            assertEquals(List.of(3L, 0L), service.getTopNAccountsByBalance(2).stream().map(Account::getId).toList());
+            assertNull(service.adjustBalance(42, BigDecimal.ONE));
+            assertTrue(service.compareAndSetBalance(3, BigDecimal.valueOf(8_010), BigDecimal.ONE));
+            assertFalse(service.compareAndSetBalance(3, BigDecimal.valueOf(8_010), BigDecimal.TWO));
+            assertEquals(BigDecimal.ONE, service.getAccountById(3).getBalance());
+            assertEquals(List.of(0L), service.getTopNAccountsByBalance(1).stream().map(Account::getId).toList());
+            Thread.sleep(100);
+            assertEquals(80_002, published.get());
+        }
+
+        // credits racing with evictions never land in a slot reused by another account
+        for (StorageMode mode : StorageMode.values()) {
+            Cache<Long, Account> small = new AccountLRUCacheThreadSafe(CacheSettings.builder().size(4).storageMode(mode).build());
+            small.delegateListener(account -> { });
+            try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+                Future<?> puts = executor.submit(() -> LongStream.range(0, 20_000).forEach(i -> small.put(i % 16,
+                    Account.builder().id(i % 16).balance(BigDecimal.valueOf(i % 16 * 1_000_000)).build())));
+                Future<?> credits = executor.submit(() -> LongStream.range(0, 20_000).forEach(i -> {
+                    Account credited = small.computeIfPresent(i % 16,
+                        account -> Account.builder().id(account.getId()).balance(account.getBalance().add(BigDecimal.ONE)).build());
+                    assertTrue(credited == null || credited.getId() == i % 16);
+                }));
+                puts.get();
+                credits.get();
+            }
+            small.cleanUp();
+            assertEquals(4, small.size());
+            small.snapshot().forEach(account -> assertEquals(account.getId(), account.getBalance().longValue() / 1_000_000));
+        }
+    }
+
+    @Test
+    void balanceQueries_WhenRankIndexIsEnabled_ThenTheyMatchASortedScan() {
+        CacheSettings settings = CacheSettings.builder().size(500).rankIndex(true).build();
+        for (Cache<Long, Account> cache : List.of(new AccountLRUCacheThreadSafe(settings), new SegmentedAccountLRUCache(settings, 4))) {
+            try (AccountCacheImpl service = new AccountCacheImpl(cache)) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 5_000; i++) {
+                    long id = random.nextLong(1_000);
+                    service.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(random.nextInt(200), 1)).build());
+                    if (i % 7 == 0) {
+                        service.adjustBalance(random.nextLong(1_000), BigDecimal.ONE);
+                    }
+                }
+                List<Account> sorted = new ArrayList<>(cache.snapshot());
+                sorted.sort(TopBalanceIndex.ORDER);
+                assertEquals(500, sorted.size());
+
+                BigDecimal threshold = BigDecimal.valueOf(12);
+                assertEquals(sorted.stream().filter(account -> account.getBalance().compareTo(threshold) > 0).count(),
+                    service.countAccountsWithBalanceAbove(threshold));
+                BigDecimal min = new BigDecimal("3.5");
+                BigDecimal max = new BigDecimal("15.2");
+                assertEquals(sorted.stream().filter(account -> account.getBalance().compareTo(min) >= 0
+                        && account.getBalance().compareTo(max) <= 0).map(Account::getId).toList(),
+                    service.getAccountsWithBalanceBetween(min, max).map(Account::getId).toList());
+                for (int rank : new int[]{1, 2, 250, 500}) {
+                    assertEquals(rank, service.rankOf(sorted.get(rank - 1).getId()));
+                }
+                assertEquals(0, service.rankOf(-1));
+                assertEquals(sorted.get(0).getBalance(), service.percentile(100));
+                assertEquals(sorted.get(499).getBalance(), service.percentile(0));
+                assertEquals(sorted.get(250).getBalance(), service.percentile(50));
+                assertEquals(sorted.get(50).getBalance(), service.percentile(90));
+                for (double p = 0; p <= 100; p += 0.2) {
+                    int rank = (int) Math.max(1, Math.ceil(p / 100 * 500));
+                    assertEquals(sorted.get(500 - rank).getId(), cache.getAtPercentile(p).getId());
+                }
+            }
+        }
+        assertThrows(IllegalStateException.class, () -> new AccountCacheImpl(10).rankOf(1));
+    }
+
+    @Test
+    void server_WhenClientsPipelineRequests_ThenEveryResponseMatchesItsRequest() throws Exception {
+        try (AccountCacheImpl service = new AccountCacheImpl(new SegmentedAccountLRUCache(10_000, 4));
+             AccountServer server = AccountServer.start(service, ServerSettings.builder().build());
+             AccountClient client = AccountClient.connect(server.address());
+             AccountClient subscriber = AccountClient.connect(server.address())) {
+            List<Account> pushed = new CopyOnWriteArrayList<>();
+            subscriber.subscribe(pushed::add).join();
+            List<CompletableFuture<Void>> puts = LongStream.range(0, 1_000)
+                .mapToObj(id -> client.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(id, 2)).build())).toList();
+            CompletableFuture.allOf(puts.toArray(CompletableFuture[]::new)).join();
+            assertEquals(1_000, service.getLruCache().size());
+
+            // pipelined reads of several clients, timed one by one
+            Histogram latencies = new ConcurrentHistogram(3);
+            AtomicInteger mismatches = new AtomicInteger();
+            int requests = 20_000;
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> clients = new ArrayList<>();
+            for (int c = 0; c < 4; c++) {
+                clients.add(CompletableFuture.runAsync(() -> {
+                    try (AccountClient reader = AccountClient.connect(server.address())) {
+                        Semaphore window = new Semaphore(128);
+                        CountDownLatch answered = new CountDownLatch(requests);
+                        for (int i = 0; i < requests; i++) {
+                            long id = i % 1_000;
+                            window.acquireUninterruptibly();
+                            long sent = System.nanoTime();
+                            reader.getAccountById(id).whenComplete((account, failure) -> {
+                                latencies.recordValue(System.nanoTime() - sent);
+                                if (account == null || !BigDecimal.valueOf(id, 2).equals(account.getBalance())) {
+                                    mismatches.incrementAndGet();
+                                }
+                                window.release();
+                                answered.countDown();
+                            });
+                        }
+                        awaitQuietly(answered);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, Executors.newVirtualThreadPerTaskExecutor()));
+            }
+            CompletableFuture.allOf(clients.toArray(CompletableFuture[]::new)).join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            log.info("{} requests/s, latency {}", (long) (4 * requests / seconds), LatencySnapshot.of(latencies));
+            assertEquals(4L * requests, latencies.getTotalCount());
+            assertEquals(0, mismatches.get());
+
+            assertEquals(List.of(999L, 998L), client.getTopNAccountsByBalance(2).join().stream().map(Account::getId).toList());
+            assertNull(client.getAccountById(5_000).join());
+            assertThrows(CompletionException.class, () -> client.getTopNAccountsByBalance(-1).join());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pushed.size() < 1_000 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1_000, pushed.size());
+        }
+
+        // a malformed response fails the pending requests rather than reading on into the next frame
+        try (ServerSocketChannel fake = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            InetSocketAddress address = (InetSocketAddress) fake.getLocalAddress();
+            try (AccountClient client = AccountClient.connect(address); SocketChannel peer = fake.accept()) {
+                CompletableFuture<Account> first = client.getAccountById(1);
+                CompletableFuture<Account> second = client.getAccountById(2);
+                // a balance of three bytes with one left in its frame, then a miss
+                ByteBuffer frames = ByteBuffer.allocate(64)
+                    .putInt(6 + 15).put(AccountProtocol.GET).putInt(1).put(AccountProtocol.OK)
+                    .putLong(1).putInt(0).putShort((short) 3).put((byte) 7)
+                    .putInt(6).put(AccountProtocol.GET).putInt(2).put(AccountProtocol.NOT_FOUND)
+                    .flip();
+                while (frames.hasRemaining()) {
+                    peer.write(frames);
+                }
+                assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+                assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+            }
+            try (AccountClient client = AccountClient.connect(address); SocketChannel peer = fake.accept()) {
+                CompletableFuture<List<Account>> top = client.getTopNAccountsByBalance(2);
+                // two accounts announced, none sent
+                ByteBuffer frame = ByteBuffer.allocate(16).putInt(6 + 4).put(AccountProtocol.TOP).putInt(1).put(AccountProtocol.OK).putInt(2).flip();
+                while (frame.hasRemaining()) {
+                    peer.write(frame);
+                }
+                assertThrows(ExecutionException.class, () -> top.get(5, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    void cluster_WhenANodeJoinsOrLeaves_ThenOnlyItsShareMovesAndEveryAccountStaysReadable() {
+        for (ClusterSettings.Transport transport : ClusterSettings.Transport.values()) {
+            ClusterSettings settings = ClusterSettings.builder().transport(transport).nodeCacheSize(10_000).transferBatch(256).build();
+            try (AccountCluster cluster = AccountCluster.start(settings, "a", "b", "c", "d")) {
+                int accounts = 4_000;
+                for (long id = 0; id < accounts; id++) {
+                    cluster.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(id, 2)).build());
+                }
+                Map<Long, String> owners = new HashMap<>();
+                for (long id = 0; id < accounts; id++) {
+                    owners.put(id, cluster.ownerOf(id));
+                }
+
+                cluster.addNode("e");
+                assertTrue(cluster.isRebalancing());
+                long written = accounts;
+                do {
+                    // reads and writes keep working between the batches
+                    for (long id = 0; id < written; id += 37) {
+                        assertEquals(BigDecimal.valueOf(id, 2), cluster.getAccountById(id).getBalance());
+                    }
+                    cluster.putAccount(Account.builder().id(written).balance(BigDecimal.valueOf(written, 2)).build());
+                    written++;
+                } while (cluster.rebalanceStep());
+                assertFalse(cluster.isRebalancing());
+
+                long movedAccounts = owners.entrySet().stream().filter(owner -> !owner.getValue().equals(cluster.ownerOf(owner.getKey()))).count();
+                assertTrue(owners.entrySet().stream().allMatch(owner -> owner.getValue().equals(cluster.ownerOf(owner.getKey()))
+                    || cluster.ownerOf(owner.getKey()).equals("e")), "only the new node takes accounts over");
+                assertTrue(movedAccounts > 0 && movedAccounts < 0.3 * accounts, "moved " + movedAccounts);
+                assertEquals(movedAccounts, cluster.node("e").getCache().getLruCache().size()
+                    - LongStream.range(accounts, written).filter(id -> cluster.ownerOf(id).equals("e")).count());
+                for (long id = 0; id < written; id++) {
+                    assertTrue(cluster.node(cluster.ownerOf(id)).getCache().getLruCache().get(id).isPresent());
+                    assertEquals(BigDecimal.valueOf(id, 2), cluster.getAccountById(id).getBalance());
+                }
+                assertEquals(List.of(written - 1, written - 2, written - 3),
+                    cluster.getTopNAccountsByBalance(3).stream().map(Account::getId).toList());
+
+                ClusterNode leaving = cluster.node("b");
+                cluster.removeNode("b");
+                for (long id = 0; id < written; id += 13) {
+                    assertEquals(BigDecimal.valueOf(id, 2), cluster.getAccountById(id).getBalance());
+                }
+                int hits = leaving.getLruCache().getHits();
+                cluster.rebalance();
+                assertEquals(hits, leaving.getLruCache().getHits(), "moving an account out is no read of it");
+                assertEquals(Set.of("a", "c", "d", "e"), cluster.nodeNames());
+                assertNull(cluster.node("b"));
+                assertEquals(0, leaving.getCache().getLruCache().size());
+                for (long id = 0; id < written; id++) {
+                    assertEquals(BigDecimal.valueOf(id, 2), cluster.getAccountById(id).getBalance());
+                }
+
+                // a transfer leaves a source copy replaced since it was copied
+                Cache<Long, Account> source = cluster.node("a").getCache().getLruCache();
+                source.put(-1L, Account.builder().id(-1L).balance(BigDecimal.TEN).build());
+                assertFalse(source.remove(-1L, Account.builder().id(-1L).balance(BigDecimal.ONE).build()));
+                assertTrue(source.remove(-1L, Account.builder().id(-1L).balance(BigDecimal.TEN).build()));
+                assertTrue(source.get(-1L).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    void nearCache_WhenAccountsAreUpdatedThroughItOrElsewhere_ThenItNeverServesTheReplacedBalance() throws Exception {
+        NearCacheSettings settings = NearCacheSettings.builder().size(256).maxStaleness(Duration.ofMillis(200)).build();
+        try (AccountCacheImpl backing = new AccountCacheImpl(new SegmentedAccountLRUCache(10_000, 4));
+             NearAccountCache near = new NearAccountCache(backing, settings)) {
+            MeterRegistry registry = new SimpleMeterRegistry();
+            new NearCacheMetrics(near, "near").bindTo(registry);
+            for (long id = 0; id < 100; id++) {
+                backing.putAccount(Account.builder().id(id).balance(BigDecimal.valueOf(id)).build());
+            }
+            awaitNear(near, 99, BigDecimal.valueOf(99));
+            near.invalidateAll();
+            for (int round = 0; round < 2; round++) {
+                for (long id = 0; id < 100; id++) {
+                    assertEquals(BigDecimal.valueOf(id), near.getAccountById(id).getBalance());
+                }
+            }
+            long backingHits = backing.getAccountByIdHitCount();
+            for (long id = 0; id < 100; id++) {
+                near.getAccountById(id);
+            }
+            assertEquals(backingHits, backing.getAccountByIdHitCount(), "repeated reads stay in the near cache");
+            assertTrue(near.getNearStats().getHitCount() >= 200);
+
+            // a write through the near cache is seen at once, one elsewhere once published
+            near.putAccount(Account.builder().id(1L).balance(BigDecimal.TEN).build());
+            assertEquals(BigDecimal.TEN, near.getAccountById(1).getBalance());
+            backing.adjustBalance(2, BigDecimal.ONE);
+            awaitNear(near, 2, BigDecimal.valueOf(3));
+
+            // readers racing with a writer end up with its last balance
+            AtomicLong balance = new AtomicLong();
+            try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+                AtomicInteger running = new AtomicInteger(1);
+                for (int r = 0; r < 4; r++) {
+                    readers.submit(() -> {
+                        while (running.get() > 0) {
+                            near.getAccountById(3);
+                        }
+                    });
+                }
+                for (int i = 1; i <= 5_000; i++) {
+                    backing.putAccount(Account.builder().id(3L).balance(BigDecimal.valueOf(balance.incrementAndGet())).build());
+                }
+                running.set(0);
+            }
+            awaitNear(near, 3, BigDecimal.valueOf(balance.get()));
+
+            // a removal is published too
+            assertEquals(BigDecimal.valueOf(4), near.getAccountById(4).getBalance());
+            backing.getLruCache().remove(4L);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (near.getAccountById(4) != null && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertNull(near.getAccountById(4));
+            assertEquals(near.getNearStats().getHitCount(), registry.get("account.near.gets").tag("result", "hit").functionCounter().count());
+
+            // a change that is never delivered is bounded by the staleness
+            try (NearAccountCache unaware = new NearAccountCache(backing,
+                settings.toBuilder().invalidationOptions(SubscriptionOptions.DEFAULTS).build())) {
+                assertEquals(BigDecimal.valueOf(5), unaware.getAccountById(5).getBalance());
+                backing.getLruCache().remove(5L);
+                assertEquals(BigDecimal.valueOf(5), unaware.getAccountById(5).getBalance());
+                Thread.sleep(250);
+                assertNull(unaware.getAccountById(5));
+                assertTrue(unaware.getNearStats().getEvictionCount() >= 1);
+            }
+        }
+    }
+
+    private static void awaitNear(NearAccountCache near, long id, BigDecimal balance) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (near.getAccountById(id).getBalance().compareTo(balance) != 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(balance, near.getAccountById(id).getBalance());
+    }
+
+    @Test
+    void bulkLoad_WhenMillionsOfAccountsAreReadFromAFile_ThenTheyReplaceTheContentsAtOnce(@TempDir Path directory) throws Exception {
+        int accounts = 1_000_000;
+        List<Account> file = new ArrayList<>(accounts + 1);
+        for (long id = 0; id < accounts; id++) {
+            file.add(Account.builder().id(id).balance(BigDecimal.valueOf(id * 37 % 100_003, 2)).build());
+        }
+        file.add(Account.builder().id(5L).balance(new BigDecimal("123456789012345678901234.5")).build());
+        Path csv = directory.resolve("accounts.csv");
+        CsvAccountFile.write(file, csv);
+        assertTrue(Files.size(csv) > 8 << 20, "the file spans several chunks");
+
+        CacheSettings settings = CacheSettings.builder().size(900_000).rankIndex(true).build();
+        try (SegmentedAccountLRUCache cache = new SegmentedAccountLRUCache(settings, 8)) {
+            AtomicInteger published = new AtomicInteger();
+            cache.getDispatcher().subscribe(account -> published.incrementAndGet());
+            cache.put(-1L, Account.builder().id(-1L).balance(BigDecimal.ONE).build());
+            // the old and the loaded contents are never both missing
+            AtomicInteger gaps = new AtomicInteger();
+            AtomicInteger running = new AtomicInteger(1);
+            Thread reader = Thread.ofPlatform().start(() -> {
+                while (running.get() > 0) {
+                    if (cache.getIfPresent(-1L) == null && cache.getIfPresent(999_999L) == null) {
+                        gaps.incrementAndGet();
+                    }
+                }
+            });
+            assertEquals(accounts + 1, BulkLoader.load(csv, cache));
+            running.set(0);
+            reader.join();
+            assertEquals(0, gaps.get());
+
+            // each segment keeps the last of its accounts, with the last balance of each
+            assertEquals(900_000, cache.size());
+            assertNull(cache.getIfPresent(-1L));
+            assertTrue(LongStream.range(0, 50_000).filter(id -> id != 5).noneMatch(cache::containsKey));
+            assertTrue(LongStream.range(950_000, accounts).allMatch(cache::containsKey));
+            assertEquals(new BigDecimal("123456789012345678901234.5"), cache.getIfPresent(5L).getBalance());
+            List<Account> expected = new ArrayList<>(file.subList(0, accounts).stream()
+                .filter(account -> account.getId() != 5 && cache.containsKey(account.getId())).toList());
+            expected.add(file.getLast());
+            expected.sort(TopBalanceIndex.ORDER);
+            assertEquals(900_000, expected.size());
+            assertEquals(expected.subList(0, 5).stream().map(Account::getId).toList(),
+                cache.getTop(5).stream().map(Account::getId).toList());
+            assertEquals(expected.get(449_999).getBalance(), cache.getAtPercentile(50).getBalance());
+            cache.put(-2L, Account.builder().id(-2L).balance(BigDecimal.TEN).build());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (published.get() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(20);
+            assertEquals(2, published.get(), "only the puts are published");
+
+            // a binary snapshot loads back in the same recency order
+            Path snapshot = directory.resolve("accounts.snapshot");
+            SnapshotFile.write(cache, snapshot);
+            try (SegmentedAccountLRUCache restored = new SegmentedAccountLRUCache(settings, 8)) {
+                assertEquals(900_000, BulkLoader.load(snapshot, restored));
+                assertEquals(cache.snapshot().stream().map(Account::getId).toList(),
+                    restored.snapshot().stream().map(Account::getId).toList());
+            }
+        }
+
+        // a latest balance outweighing the cache drops the account rather than bringing an older balance back
+        Path heavy = directory.resolve("heavy.csv");
+        Files.writeString(heavy, "1,5\n2,5\n1,50\n");
+        CacheSettings weighed = CacheSettings.builder().maximumWeight(20).weigher(account -> account.getBalance().intValue()).build();
+        try (SegmentedAccountLRUCache cache = new SegmentedAccountLRUCache(weighed, 1)) {
+            assertEquals(3, BulkLoader.load(heavy, cache));
+            assertNull(cache.getIfPresent(1L));
+            assertEquals(BigDecimal.valueOf(5), cache.getIfPresent(2L).getBalance());
+            assertEquals(1, cache.size());
+        }
+
+        Path text = directory.resolve("odd.csv");
+        Files.writeString(text, "1,-12.50\r\n2,+3\n\n3,1E+3\n4,0.000000000000000000001\n5,7.");
+        assertEquals(List.of(new BigDecimal("-12.50"), new BigDecimal("3"), new BigDecimal("1E+3"),
+                new BigDecimal("0.000000000000000000001"), new BigDecimal("7")),
+            CsvAccountFile.read(text).stream().map(Account::getBalance).toList());
+        Files.writeString(text, "1,2\nx,3\n");
+        assertThrows(IOException.class, () -> CsvAccountFile.read(text));
+    }
+
+    @Test
+    void scan_WhenAccountsAreAggregatedInParallel_ThenWritersGoOnAndTheLruOrderIsKept() throws Exception {
+        int count = 200_000;
+        List<Account> accounts = new ArrayList<>(count);
+        for (long id = 0; id < count; id++) {
+            accounts.add(Account.builder().id(id).balance(BigDecimal.valueOf(id % 1000, 2)).build());
+        }
+        BigDecimal expectedSum = accounts.stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+        Map<BigDecimal, Long> expectedHistogram = accounts.stream()
+            .collect(Collectors.groupingBy(account -> account.getBalance().setScale(0, RoundingMode.DOWN), Collectors.counting()));
+
+        for (StorageMode mode : StorageMode.values()) {
+            CacheSettings settings = CacheSettings.builder().size(300_000).storageMode(mode).build();
+            try (AccountCacheImpl cache = new AccountCacheImpl(new SegmentedAccountLRUCache(settings, 16))) {
+                cache.putAccounts(accounts);
+                List<Long> order = cache.getLruCache().snapshot().stream().map(Account::getId).toList();
+                int hits = cache.getAccountByIdHitCount();
+
+                assertEquals(count, cache.stream().count());
+                assertEquals(0, expectedSum.compareTo(cache.reduce(1, Account::getBalance, BigDecimal::add)));
+                Map<BigDecimal, Long> histogram = cache.stream().parallel()
+                    .collect(Collectors.groupingByConcurrent(
+                        account -> account.getBalance().setScale(0, RoundingMode.DOWN), Collectors.counting()));
+                assertEquals(expectedHistogram, histogram);
+                LongAdder visited = new LongAdder();
+                cache.forEach(1, account -> visited.increment());
+                assertEquals(count, visited.sum());
+                assertNull(cache.reduce(Long.MAX_VALUE, account -> null, (a, b) -> a));
+
+                // the scan splits between segments and then within them, down to every slot once
+                Spliterator<Account> whole = cache.getLruCache().spliterator();
+                List<Spliterator<Account>> parts = new ArrayList<>(List.of(whole));
+                for (int i = 0; i < parts.size(); i++) {
+                    Spliterator<Account> prefix;
+                    while ((prefix = parts.get(i).trySplit()) != null) {
+                        parts.add(prefix);
+                    }
+                }
+                assertTrue(parts.size() > 16);
+                Set<Long> ids = ConcurrentHashMap.newKeySet();
+                parts.parallelStream().forEach(part -> part.forEachRemaining(account -> assertTrue(ids.add(account.getId()))));
+                assertEquals(count, ids.size());
+
+                // scanning neither reorders nor counts as use
+                assertEquals(order, cache.getLruCache().snapshot().stream().map(Account::getId).toList());
+                assertEquals(hits, cache.getAccountByIdHitCount());
+
+                // a write made while the scan is running does not wait for it
+                ExecutorService writer = Executors.newSingleThreadExecutor();
+                try {
+                    AtomicInteger writes = new AtomicInteger();
+                    cache.stream().limit(3).forEach(account -> {
+                        try {
+                            writer.submit(() -> cache.putAccount(Account.builder().id((long) count + writes.incrementAndGet())
+                                .balance(BigDecimal.ONE).build())).get(5, TimeUnit.SECONDS);
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    assertEquals(3, writes.get());
+                } finally {
+                    writer.shutdownNow();
+                }
+
+                // accounts cached for the whole scan are seen exactly once, whatever changes around them
+                AtomicBoolean stop = new AtomicBoolean();
+                Future<?> churn = ForkJoinPool.commonPool().submit(() -> {
+                    for (long i = 0; !stop.get(); i++) {
+                        long id = i % 1000;
+                        cache.adjustBalance(id, BigDecimal.ONE);
+                        cache.getLruCache().remove(count + 1_000 + i % 5_000);
+                        cache.putAccount(Account.builder().id(count + 1_000 + (i + 2_500) % 5_000).balance(BigDecimal.TEN).build());
+                    }
+                });
+                try {
+                    for (int round = 0; round < 5; round++) {
+                        Map<Long, Long> seen = cache.stream().parallel()
+                            .filter(account -> account.getId() >= 1000 && account.getId() < count)
+                            .collect(Collectors.groupingByConcurrent(Account::getId, Collectors.counting()));
+                        assertEquals(count - 1000, seen.size());
+                        assertTrue(seen.values().stream().allMatch(times -> times == 1));
+                    }
+                } finally {
+                    stop.set(true);
+                    churn.get(10, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+
+    @Test
+    void evictionPolicy_WhenClockOrSieveIsSelected_ThenHitsOnlyMarkAccountsAndTheUnvisitedAreEvicted() {
+        Map<String, Function<SlotLruList, EvictionPolicy>> policies = Map.of(
+            "lru", LruPolicy::new, "clock", ClockPolicy::new, "sieve", SievePolicy::new);
+        Map<String, List<Long>> orders = new HashMap<>();
+        policies.forEach((name, policy) -> {
+            try (AccountLRUCacheThreadSafe cache = new AccountLRUCacheThreadSafe(CacheSettings.builder().size(3).eviction(policy).build())) {
+                LongStream.rangeClosed(1, 3).forEach(id -> cache.put(id, Account.builder().id(id).balance(BigDecimal.ONE).build()));
+                cache.getIfPresent(1L);
+                cache.put(4L, Account.builder().id(4L).balance(BigDecimal.ONE).build());
+                assertTrue(cache.containsKey(1L), name);
+                assertFalse(cache.containsKey(2L), name);
+                orders.put(name, cache.snapshot().stream().map(Account::getId).toList());
+            }
+        });
+        // LRU relinks on the hit, CLOCK when the hand passes and SIEVE never
+        assertEquals(Map.of("lru", List.of(4L, 1L, 3L), "clock", List.of(4L, 1L, 3L), "sieve", List.of(4L, 3L, 1L)), orders);
+
+        // a hot set read twice between bursts of one-off ids as large as the cache: LRU lets them flush it,
+        // so that only its second reads hit
+        Map<String, Integer> hits = new HashMap<>();
+        policies.forEach((name, policy) -> {
+            try (AccountLRUCacheThreadSafe cache = new AccountLRUCacheThreadSafe(CacheSettings.builder().size(100).eviction(policy).build())) {
+                long oneOff = 1_000_000;
+                for (int round = 0; round < 200; round++) {
+                    for (long id = 0; id < 100; id++) {
+                        readThrough(cache, id % 50);
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        readThrough(cache, oneOff++);
+                    }
+                }
+                hits.put(name, cache.getHits());
+            }
+        });
+        log.info("Hot set hits by policy: {}", hits);
+        assertEquals(200 * 50, hits.get("lru"));
+        assertTrue(hits.get("clock") > hits.get("lru"), hits.toString());
+        // the hand clears the hot flags in place, so they are set again before it comes back
+        assertTrue(hits.get("sieve") > 19_000, hits.toString());
+
+        // an account growing heavier is never its own victim, whichever slot the hand is on
+        policies.forEach((name, policy) -> {
+            CacheSettings settings = CacheSettings.builder().maximumWeight(10).weigher(account -> account.getBalance().intValue())
+                .rankIndex(true).eviction(policy).build();
+            try (AccountLRUCacheThreadSafe cache = new AccountLRUCacheThreadSafe(settings)) {
+                LongStream.rangeClosed(1, 4).forEach(id -> cache.put(id, Account.builder().id(id).balance(BigDecimal.valueOf(2)).build()));
+                LongStream.rangeClosed(1, 4).forEach(cache::getIfPresent);
+                cache.cleanUp();
+                cache.put(2L, Account.builder().id(2L).balance(BigDecimal.TEN).build());
+                assertEquals(BigDecimal.TEN, cache.get(2L).orElseThrow().getBalance(), name);
+                assertEquals(1, cache.size(), name);
+                assertEquals(List.of(2L), cache.getTop(5).stream().map(Account::getId).toList(), name);
+                assertEquals(1, cache.countWithBalanceAbove(BigDecimal.ONE), name);
+            }
+        });
+
+        // random puts, reads and removals keep the cache within its size and consistent
+        policies.forEach((name, policy) -> {
+            CacheSettings settings = CacheSettings.builder().size(64).eviction(policy).admission(AdmissionPolicy.TINY_LFU).build();
+            try (SegmentedAccountLRUCache cache = new SegmentedAccountLRUCache(settings, 4)) {
+                Map<Long, BigDecimal> latest = new HashMap<>();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 100_000; i++) {
+                    long id = random.nextLong(256);
+                    switch (random.nextInt(4)) {
+                        case 0 -> {
+                            BigDecimal balance = BigDecimal.valueOf(i);
+                            cache.put(id, Account.builder().id(id).balance(balance).build());
+                            latest.put(id, balance);
+                        }
+                        case 1 -> cache.remove(id);
+                        default -> cache.get(id).ifPresent(account -> assertEquals(latest.get(id), account.getBalance()));
+                    }
+                    assertTrue(cache.size() <= 64, name);
+                }
+                assertEquals(cache.size(), cache.snapshot().size());
+            }
+        });
+    }
+
+    @Test
+    void traceSimulator_WhenATraceIsReplayed_ThenEveryPolicyAndCapacityGetsItsHitRatio(@TempDir Path directory) throws Exception {
+        int events = 200_000;
+        long[] ids = new long[events];
+        BitSet puts = new BitSet();
+        Random random = new Random(42);
+        long oneOff = 1_000_000;
+        for (int i = 0; i < events; i++) {
+            // a skewed hot set with one-off ids in between, and every tenth event a put
+            ids[i] = random.nextInt(5) == 0 ? oneOff++ : (long) (Math.pow(random.nextDouble(), 3) * 5_000);
+            if (i % 10 == 0) {
+                puts.set(i);
+            }
+        }
+        Trace recorded = new Trace(ids, puts);
+
+        Path accountTrace = directory.resolve("trace.bin");
+        TraceFile.write(recorded, accountTrace);
+        Trace read = TraceFile.read(accountTrace);
+        assertEquals(events, read.size());
+        assertEquals(puts.cardinality(), read.putCount());
+        assertTrue(IntStream.range(0, events).allMatch(i -> read.id(i) == ids[i] && read.isPut(i) == puts.get(i)));
+        Path idStream = directory.resolve("ids.bin");
+        TraceFile.writeIds(ids, idStream);
+        Trace reads = TraceFile.read(idStream);
+        assertEquals(0, reads.putCount());
+        assertTrue(IntStream.range(0, events).allMatch(i -> reads.id(i) == ids[i]));
+        Files.write(idStream, new byte[12]);
+        assertThrows(IOException.class, () -> TraceFile.read(idStream));
+
+        List<Integer> capacities = List.of(100, 1_000, 10_000, 100_000);
+        List<SimulationResult> results = TraceSimulator.run(recorded,
+            SimulatorSettings.builder().capacities(capacities).parallelism(4).build());
+        log.info("Simulated:\n{}", TraceSimulator.format(results));
+        assertEquals(SimulatorSettings.defaultPolicies().size() * capacities.size(), results.size());
+        for (SimulationResult result : results) {
+            assertEquals(events, result.getHitCount() + result.getMissCount() + result.getPutCount(), result.toString());
+            assertEquals(puts.cardinality(), result.getPutCount());
+            assertTrue(result.eventsPerSecond() > 0);
+        }
+
+        // LRU is replayed exactly: compare with a LinkedHashMap in access order
+        List<SimulationResult> lru = results.stream().filter(result -> result.getPolicy().equals("lru")).toList();
+        assertEquals(capacities, lru.stream().map(SimulationResult::getCapacity).toList());
+        for (SimulationResult result : lru) {
+            Map<Long, Boolean> reference = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                    return size() > result.getCapacity();
+                }
+            };
+            long hits = 0;
+            for (int i = 0; i < events; i++) {
+                if (!puts.get(i) && reference.get(ids[i]) != null) {
+                    hits++;
+                } else {
+                    reference.put(ids[i], Boolean.TRUE);
+                }
+            }
+            assertEquals(hits, result.getHitCount(), "capacity " + result.getCapacity());
+        }
+        // the curve only rises with the capacity, and nothing is evicted once every id fits
+        for (int i = 1; i < lru.size(); i++) {
+            assertTrue(lru.get(i).hitRate() >= lru.get(i - 1).hitRate());
+        }
+        assertEquals(0, lru.get(lru.size() - 1).getEvictionCount());
+        assertTrue(results.stream().anyMatch(result -> result.getPolicy().equals("lru-tinylfu") && result.getRejectionCount() > 0));
+    }
+
+    private static void readThrough(Cache<Long, Account> cache, long id) {
+        if (cache.get(id).isEmpty()) {
+            cache.put(id, Account.builder().id(id).balance(BigDecimal.valueOf(id)).build());
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Test
     void checkConcurrentSkipListMap() {
         ConcurrentSkipListMap<Account, Long> tops = new ConcurrentSkipListMap<>(Comparator.comparing(Account::getBalance));